@@ -18,6 +18,7 @@ package org.powertac.samplebroker;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 //io
 import java.io.*;
@@ -99,7 +100,12 @@ implements PortfolioManager, Initializable, Activatable
                   HashMap<CustomerInfo, CustomerRecord>> customerProfiles;
   private HashMap<TariffSpecification, 
                   HashMap<CustomerInfo, CustomerRecord>> customerSubscriptions;
-  private HashMap<PowerType, List<TariffSpecification>> competingTariffs;
+
+  // Live tariffs of all brokers, ours included, by id, broker and type,
+  // and running statistics of all but the default broker's
+  private TariffBook tariffBook;
+  private TariffStatistics tariffStatistics;
+  private static final String DEFAULT_BROKER = "default broker";
 
   // Configurable parameters for tariff composition
   // Override defaults in src/main/resources/config/broker.config
@@ -157,7 +163,8 @@ implements PortfolioManager, Initializable, Activatable
         HashMap<CustomerInfo, CustomerRecord>>();
     customerSubscriptions = new HashMap<TariffSpecification,
         HashMap<CustomerInfo, CustomerRecord>>();
-    competingTariffs = new HashMap<PowerType, List<TariffSpecification>>();
+    tariffBook = new TariffBook();
+    tariffStatistics = new TariffStatistics();
   }
   
   // -------------- data access ------------------
@@ -208,24 +215,61 @@ implements PortfolioManager, Initializable, Activatable
   }
   
   /**
-   * Finds the list of competing tariffs for the given PowerType.
+   * Returns the competing tariffs for the given PowerType, best rate
+   * first.
    */
-  List<TariffSpecification> getCompetingTariffs (PowerType powerType)
+  synchronized List<TariffSpecification> getCompetingTariffs (PowerType powerType)
   {
-    List<TariffSpecification> result = competingTariffs.get(powerType);
-    if (result == null) {
-      result = new ArrayList<TariffSpecification>();
-      competingTariffs.put(powerType, result);
+    List<TariffSpecification> result = tariffBook.getTariffs(powerType);
+    String me = brokerContext.getBrokerUsername();
+    for (Iterator<TariffSpecification> it = result.iterator(); it.hasNext(); ) {
+      if (me.equals(it.next().getBroker().getUsername()))
+        it.remove();
     }
     return result;
   }
 
   /**
-   * Adds a new competing tariff to the list.
+   * Returns our own live tariffs, in order of publication.
+   */
+  synchronized List<TariffSpecification> getOwnTariffs ()
+  {
+    return tariffBook.getTariffs(brokerContext.getBrokerUsername());
+  }
+
+  /**
+   * Adds a tariff of ours to the book and the repo.
+   */
+  private synchronized void addOwnTariff (TariffSpecification spec)
+  {
+    bookTariff(spec);
+    tariffRepo.addSpecification(spec);
+  }
+
+  /**
+   * Returns the current statistics of the tariffs of the given type.
    */
-  private void addCompetingTariff (TariffSpecification spec)
+  synchronized TariffStatistics.Summary getTariffStatistics (PowerType type)
+  {
+    return tariffStatistics.getSummary(type);
+  }
+
+  // Adds a tariff to the book and the statistics, unless it's there
+  private void bookTariff (TariffSpecification spec)
   {
-    getCompetingTariffs(spec.getPowerType()).add(spec);
+    if (tariffBook.add(spec)
+        && !DEFAULT_BROKER.equals(spec.getBroker().getUsername()))
+      tariffStatistics.add(spec);
+  }
+
+  // Takes a revoked tariff out of the book and the statistics
+  private TariffSpecification unbookTariff (long id)
+  {
+    TariffSpecification spec = tariffBook.remove(id);
+    if (null != spec
+        && !DEFAULT_BROKER.equals(spec.getBroker().getUsername()))
+      tariffStatistics.remove(spec);
+    return spec;
   }
 
   /**
@@ -280,15 +324,13 @@ implements PortfolioManager, Initializable, Activatable
         // strange bug, seems harmless for now
         log.info("Resolution failed for broker " + theBroker.getUsername());
       // if it's ours, just log it, because we already put it in the repo
-      TariffSpecification original =
-              tariffRepo.findSpecificationById(spec.getId());
-      if (null == original)
+      if (!tariffBook.contains(spec.getId()))
         log.error("Spec " + spec.getId() + " not in local repo");
       log.info("published " + spec);
     }
     else {
       // otherwise, keep track of competing tariffs, and record in the repo
-      addCompetingTariff(spec);
+      bookTariff(spec);
       tariffRepo.addSpecification(spec);
     }
   }
@@ -377,26 +419,16 @@ implements PortfolioManager, Initializable, Activatable
     Broker source = tr.getBroker();
     log.info("Revoke tariff " + tr.getTariffId()
              + " from " + tr.getBroker().getUsername());
-	System.out.println("Revoke tariff " + tr.getTariffId()
-             + " from " + tr.getBroker().getUsername());
-    // if it's from some other broker, we need to remove it from the
-    // tariffRepo, and from the competingTariffs list
+    // drop it from the book; if it's from some other broker, we also
+    // need to remove it from the tariffRepo
+    TariffSpecification original = unbookTariff(tr.getTariffId());
     if (!(source.getUsername().equals(brokerContext.getBrokerUsername()))) {
       log.info("clear out competing tariff");
-      TariffSpecification original =
-              tariffRepo.findSpecificationById(tr.getTariffId());
       if (null == original) {
         log.warn("Original tariff " + tr.getTariffId() + " not found");
         return;
       }
       tariffRepo.removeSpecification(original.getId());
-      List<TariffSpecification> candidates =
-              competingTariffs.get(original.getPowerType());
-      if (null == candidates) {
-        log.warn("Candidate list is null");
-        return;
-      }
-      candidates.remove(original);
     }
   }
 
@@ -432,15 +464,14 @@ implements PortfolioManager, Initializable, Activatable
   {
   
 	
-	System.out.println("timeslot is: " + timeslotIndex);
+	log.debug("timeslot is: " + timeslotIndex);
 	
-	methods m = new methods();
 	Broker me = brokerContext.getBroker();
 	CashPos = me.getCashBalance();
 	if(pubFlag){
 		pubfee = oldCashPos - CashPos;
 		pubFlag = false;
-		System.out.println("Publication fee: " + pubfee);
+		log.info("Publication fee: " + pubfee);
 	}
 	//fixedRateList.add(2.0);
 	//TariffSpecification contariff = null;
@@ -467,60 +498,22 @@ implements PortfolioManager, Initializable, Activatable
 	double diff_max_fixed = 0;
 	List<TariffSpecification> tars = getCompetingTariffs(PowerType.CONSUMPTION);	
       if (null == tars || 0 == tars.size()){
-        System.out.println("No tariffs found");		
+        log.info("No tariffs found");
 		}
       else {	
-			double ratevalue;
-			List<Double> fixedRateList = new ArrayList<Double>();
-			List<Double> signupList = new ArrayList<Double>();
-			for (TariffSpecification tar: tars) {
-			//Brokers
-			Broker sourceBroker = tar.getBroker();
-			if (!(sourceBroker.getUsername().equals("default broker")))
-			{
-			
-			
-			List<Rate> ratev = tar.getRates();
-			for (Rate rates: ratev){
-			if(rates.isFixed()){
-			ratevalue = rates.getValue();
-			//System.out.println(ratevalue);
-			fixedRateList.add(ratevalue);
-			
-			}
+			if (getOwnTariffs().isEmpty()) {
+				log.info("No tariffs for us found");
 			}
-			signupList.add(tar.getSignupPayment());
-			}
-			}
-			List<TariffSpecification> myspecs = tariffRepo.findTariffSpecificationsByBroker(brokerContext.getBroker());
-			if (null == myspecs || 0 == myspecs.size()){
-				System.out.println("No tariffs for us found");
-				}
-			else{
-				for(TariffSpecification myspec: myspecs){
-					if (PowerType.CONSUMPTION == myspec.getPowerType()) {
-						List<Rate> ratev = myspec.getRates();
-						for (Rate rates: ratev){
-						if(rates.isFixed()){
-						ratevalue = rates.getValue();
-						System.out.println(ratevalue);
-						fixedRateList.add(ratevalue);
-						
-						}
-						}
-						signupList.add(myspec.getSignupPayment());
-					}
-					
-				}
-			}
-			mean_fixed = m.mean(fixedRateList);
-			sd_fixed = m.sd(fixedRateList);
-			min_rate = Collections.min(fixedRateList);
-			max_rate = Collections.max(fixedRateList);
-			mean_signup = m.mean(signupList);
-			max_signup = Collections.max(signupList);
-			min_signup = Collections.min(signupList);
-			sd_signup = m.sd(signupList);
+			TariffStatistics.Summary stats =
+			    getTariffStatistics(PowerType.CONSUMPTION);
+			mean_fixed = stats.meanRate;
+			sd_fixed = stats.sdRate;
+			min_rate = stats.minRate;
+			max_rate = stats.maxRate;
+			mean_signup = stats.meanSignup;
+			max_signup = stats.maxSignup;
+			min_signup = stats.minSignup;
+			sd_signup = stats.sdSignup;
 			if (old_mean == 0){
 			diff_mean_fixed = 0;
 			diff_min_fixed = 0;
@@ -543,19 +536,14 @@ implements PortfolioManager, Initializable, Activatable
 			//	max_rate = (-1)*max_rate;
 			//	diff_mean_fixed = (-1)*diff_mean_fixed;
 			//	diff_max_fixed = (-1)*diff_max_fixed;
-				System.out.println("Period: " + dayn);
-				System.out.println("Mean of fixed rate: " + mean_fixed);
-				System.out.println("Max of fixed rate: " + max_rate);
-				System.out.println("Min of fixed rate: " + min_rate);
-				System.out.println("SD of fixed rate: " + sd_fixed);
-				System.out.println("rate of change of mean fixed rate: " + diff_mean_fixed);
-				System.out.println("Mean of signup: " + mean_signup);
-				System.out.println("Max of signup: " + max_signup);
-				System.out.println("Min of signup: " + min_signup);
-				System.out.println("SD of signup: " + sd_signup);
-				System.out.println("rate of change of mean signup: " + diff_mean_signup);				
-				System.out.println("Subscription of customers to Agent: "+ signupCount);
-				System.out.println("Number of tariffs publish in 6 timeslot: " + tariff_count );
+				log.info("Period " + dayn + ": fixed rate mean " + mean_fixed
+				         + " max " + max_rate + " min " + min_rate
+				         + " sd " + sd_fixed + " change " + diff_mean_fixed
+				         + "; signup mean " + mean_signup
+				         + " max " + max_signup + " min " + min_signup
+				         + " sd " + sd_signup + " change " + diff_mean_signup
+				         + "; our signups " + signupCount
+				         + ", tariffs published " + tariff_count);
 	
 		
 		
@@ -568,13 +556,13 @@ implements PortfolioManager, Initializable, Activatable
 		else if(signupCount == 0 || consumeCount == 0)
 		{
 			//create; 			//no one buy!!!! suck!!!!
-			System.out.println("case 2 publish, no one buy energy");
+			log.info("case 2 publish, no one buy energy");
 			createTariffs(max_rate);
 		}
 		else if((CashPos-oldCashPos) > pubfee)
 		{
 			//create;
-			System.out.println("case 3 publish");
+			log.info("case 3 publish");
 			createTariffs(mean_fixed);
 		}
 		
@@ -610,7 +598,7 @@ implements PortfolioManager, Initializable, Activatable
 		Rate rate = new Rate().withValue(rateValue);
 		spec.addRate(rate);
 		customerSubscriptions.put(spec, new HashMap<CustomerInfo, CustomerRecord>());
-		tariffRepo.addSpecification(spec);
+		addOwnTariff(spec);
 		// = me.getCashBalance();
 		brokerContext.sendMessage(spec);
 	  }  
@@ -618,38 +606,6 @@ implements PortfolioManager, Initializable, Activatable
   
   
   
-class methods{
-
-public double sum(List<Double> a){
-	if(a.size() > 0){
-	double sum = 0;
-	for(Double i: a){
-	sum = sum + i;
-	}
-	return sum;
-	}
-	return 0;
-}
-public double mean (List<Double> a){
-	double sum = sum(a);
-	double mean = 0;
-	if (a.size() != 0){
-	mean = sum / (a.size() * 1.0);
-	return mean;
-	}
-	else
-	return 0;
-}
-public double sd (List<Double> a){
-    double sum = 0;
-    double mean = mean(a);
- 
-    for (double i : a)
-        sum += Math.pow((i - mean), 2);
-    return Math.sqrt( sum / ( a.size() - 1 ) ); 
-    }
-}
- 
   // Creates initial tariffs for the main power types. These are simple
   // fixed-rate two-part tariffs that give the broker a fixed margin.
   private void createInitialTariffs ()
@@ -671,7 +627,7 @@ public double sd (List<Double> a){
     Rate rate = new Rate().withValue(rateValue);
     spec.addRate(rate);
     customerSubscriptions.put(spec, new HashMap<CustomerInfo, CustomerRecord>());
-    tariffRepo.addSpecification(spec);
+    addOwnTariff(spec);
 	// = me.getCashBalance();
     brokerContext.sendMessage(spec);
 	
@@ -685,7 +641,7 @@ public double sd (List<Double> a){
 		rate = new Rate().withValue(rateValue);
 		spec2.addRate(rate);
 		customerSubscriptions.put(spec2, new HashMap<CustomerInfo, CustomerRecord>());
-		tariffRepo.addSpecification(spec2);
+		addOwnTariff(spec2);
 		brokerContext.sendMessage(spec2);	
 	
 	
@@ -719,8 +675,7 @@ public double sd (List<Double> a){
     // quick magic-number hack to inject a balancing order
     int timeslotIndex = timeslotRepo.currentTimeslot().getSerialNumber();
     if (371 == timeslotIndex) {
-      for (TariffSpecification spec :
-           tariffRepo.findTariffSpecificationsByBroker(brokerContext.getBroker())) {
+      for (TariffSpecification spec : getOwnTariffs()) {
         if (PowerType.INTERRUPTIBLE_CONSUMPTION == spec.getPowerType()) {
           BalancingOrder order = new BalancingOrder(brokerContext.getBroker(),
                                                     spec, 
@@ -746,8 +701,7 @@ public double sd (List<Double> a){
     if (380 == timeslotIndex) {
       // find the existing CONSUMPTION tariff
       TariffSpecification oldc = null;
-      List<TariffSpecification> candidates =
-        tariffRepo.findTariffSpecificationsByBroker(brokerContext.getBroker());
+      List<TariffSpecification> candidates = getOwnTariffs();
       if (null == candidates || 0 == candidates.size())
         log.error("No tariffs found for broker");
       else {
@@ -773,7 +727,7 @@ public double sd (List<Double> a){
           if (null != oldc)
             spec.addSupersedes(oldc.getId());
           //mungId(spec, 6);
-          tariffRepo.addSpecification(spec);
+          addOwnTariff(spec);
           brokerContext.sendMessage(spec);
           // revoke the old one
           TariffRevoke revoke =
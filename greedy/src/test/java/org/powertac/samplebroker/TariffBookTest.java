@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Tests for the indexed tariff book.
+ */
+public class TariffBookTest
+{
+  private TariffBook book;
+  private Broker alice;
+  private Broker bob;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    book = new TariffBook();
+    alice = new Broker("Alice");
+    bob = new Broker("Bob");
+  }
+
+  private TariffSpecification tariff (Broker broker, PowerType type,
+                                      double rate)
+  {
+    TariffSpecification spec = new TariffSpecification(broker, type);
+    spec.addRate(new Rate().withValue(rate));
+    return spec;
+  }
+
+  @Test
+  public void testIndexes ()
+  {
+    TariffSpecification a1 = tariff(alice, PowerType.CONSUMPTION, -0.12);
+    TariffSpecification a2 = tariff(alice, PowerType.PRODUCTION, 0.02);
+    TariffSpecification b1 = tariff(bob, PowerType.CONSUMPTION, -0.10);
+    assertTrue(book.add(a1));
+    assertTrue(book.add(a2));
+    assertTrue(book.add(b1));
+    assertFalse("duplicate", book.add(a1));
+    assertEquals("size", 3, book.size());
+    assertEquals("consumption", 2, book.size(PowerType.CONSUMPTION));
+    assertSame("by id", b1, book.get(b1.getId()));
+    List<TariffSpecification> ofAlice = book.getTariffs("Alice");
+    assertEquals("alice", 2, ofAlice.size());
+    assertSame("arrival order", a1, ofAlice.get(0));
+    assertSame("best consumption", b1, book.getBest(PowerType.CONSUMPTION));
+    assertEquals("best rate", -0.10,
+                 book.getBestRate(PowerType.CONSUMPTION), 1e-9);
+
+    int version = book.getVersion();
+    assertSame("revoked", b1, book.remove(b1.getId()));
+    assertNull("gone", book.remove(b1.getId()));
+    assertTrue("version", book.getVersion() > version);
+    assertNull("by id", book.get(b1.getId()));
+    assertTrue("bob", book.getTariffs("Bob").isEmpty());
+    assertSame("new best", a1, book.getBest(PowerType.CONSUMPTION));
+    book.remove(a1.getId());
+    assertNull("none left", book.getBest(PowerType.CONSUMPTION));
+    assertTrue(Double.isNaN(book.getBestRate(PowerType.CONSUMPTION)));
+    assertFalse(book.getPowerTypes().contains(PowerType.CONSUMPTION));
+  }
+
+  @Test
+  public void testRateOrder ()
+  {
+    // random rates, with ties, added and revoked in random order
+    Random random = new Random(17);
+    ArrayList<TariffSpecification> live = new ArrayList<TariffSpecification>();
+    for (int i = 0; i < 500; i++) {
+      if (!live.isEmpty() && random.nextInt(3) == 0) {
+        TariffSpecification gone = live.remove(random.nextInt(live.size()));
+        assertSame(gone, book.remove(gone.getId()));
+      }
+      else {
+        TariffSpecification spec =
+            tariff((i % 2 == 0) ? alice : bob, PowerType.CONSUMPTION,
+                   -0.01 * (5 + random.nextInt(20)));
+        book.add(spec);
+        live.add(spec);
+      }
+    }
+    List<TariffSpecification> sorted =
+        book.getTariffs(PowerType.CONSUMPTION);
+    assertEquals("size", live.size(), sorted.size());
+    for (int i = 0; i < sorted.size(); i++) {
+      double rate = TariffBook.meanRate(sorted.get(i));
+      if (i > 0) {
+        assertTrue("descending",
+                   TariffBook.meanRate(sorted.get(i - 1)) >= rate);
+      }
+      assertSame("by rank", sorted.get(i),
+                 book.getByRank(PowerType.CONSUMPTION, i));
+      int better = 0;
+      for (TariffSpecification spec : live) {
+        if (TariffBook.meanRate(spec) > rate)
+          better += 1;
+      }
+      assertEquals("rank", better, book.rank(PowerType.CONSUMPTION, rate));
+    }
+    assertNull(book.getByRank(PowerType.CONSUMPTION, sorted.size()));
+  }
+}
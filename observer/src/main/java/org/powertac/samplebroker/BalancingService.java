@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.RegulationRate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.common.msg.BalanceReport;
+import org.powertac.common.msg.BalancingControlEvent;
+import org.powertac.common.msg.BalancingOrder;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Offers the balancing capacity of our interruptible and regulating
+ * tariffs to the distribution utility. For each such tariff it keeps
+ * BalancingOrders ready at two price levels, normal and scarce, for
+ * up-regulation and, where the tariff allows it, down-regulation. The
+ * orders are built by the portfolio manager's activation, so reacting
+ * to a balance report or control event is only a matter of picking and
+ * sending orders that already exist.
+ *
+ * When the market is short by more than the threshold, up-regulation is
+ * offered at the scarce price; when it is long, down-regulation is. A
+ * control event, which means the utility used our capacity, moves that
+ * side of the tariff to the scarce price as well until the market is
+ * back in balance. Message handlers take only the lock of this service,
+ * never the portfolio manager's, and both message types are registered
+ * as priority messages so they are routed ahead of any backlog.
+ *
+ * @author agent
+ */
+@Service
+public class BalancingService implements Initializable
+{
+  static private Logger log = Logger.getLogger(BalancingService.class);
+
+  static final int NORMAL = 0;
+  static final int SCARCE = 1;
+  static final int UP = 0;
+  static final int DOWN = 1;
+
+  @Autowired
+  private BrokerPropertiesService propertiesService;
+
+  @ConfigurableValue(valueType = "Double",
+          description = "Net imbalance, in kWh, beyond which capacity is scarce")
+  private double imbalanceThreshold = 500.0;
+
+  @ConfigurableValue(valueType = "Double",
+          description = "Markup on the price magnitude for scarce balancing capacity")
+  private double scarcityMarkup = 1.2;
+
+  private BrokerContext broker;
+
+  private List<Entry> entries = new ArrayList<Entry>();
+  private int marketSide = -1; // side in demand, -1 for none
+  private int reactions = 0;
+
+  public BalancingService ()
+  {
+    super();
+  }
+
+  @Override
+  public synchronized void initialize (BrokerContext context)
+  {
+    broker = context;
+    propertiesService.configureMe(this);
+    context.registerPriorityMessage(BalanceReport.class);
+    context.registerPriorityMessage(BalancingControlEvent.class);
+    entries = new ArrayList<Entry>();
+    marketSide = -1;
+    reactions = 0;
+  }
+
+  // ----------------------- fast path --------------------------
+
+  /**
+   * Reads the direction of the imbalance, and sends the orders for the
+   * sides whose level changed.
+   */
+  public synchronized void handleMessage (BalanceReport report)
+  {
+    double imbalance = report.getNetImbalance();
+    if (imbalance < -imbalanceThreshold)
+      marketSide = UP;
+    else if (imbalance > imbalanceThreshold)
+      marketSide = DOWN;
+    else
+      marketSide = -1;
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      if (marketSide < 0)
+        entry.exercised[UP] = entry.exercised[DOWN] = false;
+      offer(entry, UP);
+      offer(entry, DOWN);
+    }
+  }
+
+  /**
+   * Records the exercise of one of our orders, and raises the price of
+   * that side of the tariff.
+   */
+  public synchronized void handleMessage (BalancingControlEvent bce)
+  {
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      if (entry.tariffId == bce.getTariffId()) {
+        int side = (bce.getKwh() >= 0.0) ? UP : DOWN;
+        entry.exercisedKWh += bce.getKwh();
+        entry.payments += bce.getPayment();
+        entry.exercised[side] = true;
+        offer(entry, side);
+        return;
+      }
+    }
+    log.warn("BalancingControlEvent for unknown tariff " + bce.getTariffId());
+  }
+
+  // Sends the order for the side at the level it should be at now, if
+  // that is not the level already offered
+  private void offer (Entry entry, int side)
+  {
+    int level = (marketSide == side || entry.exercised[side])
+        ? SCARCE : NORMAL;
+    BalancingOrder order = entry.ready[side][level];
+    if (null == order || entry.offered[side] == level)
+      return;
+    broker.sendMessage(order);
+    entry.ready[side][level] = null; // rebuilt on the next refresh
+    entry.offered[side] = level;
+    reactions += 1;
+  }
+
+  // --------------------- preparation -------------------------
+
+  /**
+   * Brings the ready orders in line with our current tariffs, building
+   * any that have been sent, and offers the capacity of new tariffs.
+   * Called from the activation, outside the message handlers' way.
+   */
+  public void refresh (List<TariffSpecification> ownTariffs)
+  {
+    // build new entries before taking the lock
+    List<Entry> added = new ArrayList<Entry>();
+    synchronized (this) {
+      for (TariffSpecification spec : ownTariffs) {
+        if (null == find(spec.getId()) && eligible(spec))
+          added.add(new Entry(spec));
+      }
+    }
+    for (Entry entry : added) {
+      entry.price[UP][NORMAL] = upPrice(entry.spec);
+      entry.price[DOWN][NORMAL] = downPrice(entry.spec);
+      // mark up the magnitude, so negative prices still move in our favour
+      for (int side = UP; side <= DOWN; side++) {
+        double normal = entry.price[side][NORMAL];
+        entry.price[side][SCARCE] =
+            normal + Math.abs(normal) * (scarcityMarkup - 1.0);
+      }
+    }
+
+    synchronized (this) {
+      List<Entry> current = new ArrayList<Entry>();
+      for (TariffSpecification spec : ownTariffs) {
+        Entry entry = find(spec.getId());
+        if (null != entry)
+          current.add(entry);
+      }
+      current.addAll(added);
+      entries = current;
+      for (int i = 0; i < entries.size(); i++) {
+        Entry entry = entries.get(i);
+        rebuild(entry);
+        offer(entry, UP);
+        offer(entry, DOWN);
+      }
+    }
+  }
+
+  private Entry find (long tariffId)
+  {
+    for (int i = 0; i < entries.size(); i++) {
+      if (entries.get(i).tariffId == tariffId)
+        return entries.get(i);
+    }
+    return null;
+  }
+
+  private boolean eligible (TariffSpecification spec)
+  {
+    return PowerType.INTERRUPTIBLE_CONSUMPTION == spec.getPowerType()
+        || spec.hasRegulationRate();
+  }
+
+  private void rebuild (Entry entry)
+  {
+    for (int side = UP; side <= DOWN; side++) {
+      for (int level = NORMAL; level <= SCARCE; level++) {
+        if (null == entry.ready[side][level]
+            && !Double.isNaN(entry.price[side][level]))
+          entry.ready[side][level] =
+              new BalancingOrder(broker.getBroker(), entry.spec,
+                                 (UP == side) ? upRatio(entry.spec) : -1.0,
+                                 entry.price[side][level]);
+      }
+    }
+  }
+
+  // Interruptible tariffs offer half their load, regulating ones all of it
+  private static double upRatio (TariffSpecification spec)
+  {
+    return (PowerType.INTERRUPTIBLE_CONSUMPTION == spec.getPowerType())
+        ? 0.5 : 1.0;
+  }
+
+  // Up-regulation is priced just inside the tariff's cheapest rate, or
+  // at half the regulation payment
+  static double upPrice (TariffSpecification spec)
+  {
+    if (spec.hasRegulationRate()) {
+      RegulationRate rr = spec.getRegulationRates().get(0);
+      return -rr.getUpRegulationPayment() * 0.5;
+    }
+    return spec.getRates().get(0).getMinValue() * 0.9;
+  }
+
+  // Down-regulation needs a regulation rate; NaN if there is none
+  static double downPrice (TariffSpecification spec)
+  {
+    if (!spec.hasRegulationRate())
+      return Double.NaN;
+    RegulationRate rr = spec.getRegulationRates().get(0);
+    return -rr.getDownRegulationPayment() * 0.9;
+  }
+
+  // ------------------------ queries ---------------------------
+
+  synchronized int getTariffCount ()
+  {
+    return entries.size();
+  }
+
+  /**
+   * Number of orders sent so far.
+   */
+  synchronized int getReactionCount ()
+  {
+    return reactions;
+  }
+
+  /**
+   * Level at which the side of the tariff is offered, -1 if not offered.
+   */
+  synchronized int getOfferedLevel (long tariffId, int side)
+  {
+    Entry entry = find(tariffId);
+    return (null == entry) ? -1 : entry.offered[side];
+  }
+
+  /**
+   * Energy, in kWh, the utility has taken from the tariff so far.
+   */
+  synchronized double getExercisedKWh (long tariffId)
+  {
+    Entry entry = find(tariffId);
+    return (null == entry) ? 0.0 : entry.exercisedKWh;
+  }
+
+  /**
+   * Payments for the exercises of the tariff so far.
+   */
+  synchronized double getPayments (long tariffId)
+  {
+    Entry entry = find(tariffId);
+    return (null == entry) ? 0.0 : entry.payments;
+  }
+
+  // Balancing capacity of one tariff
+  private static final class Entry
+  {
+    final TariffSpecification spec;
+    final long tariffId;
+    final double[][] price = new double[2][2]; // side, level
+    final BalancingOrder[][] ready = new BalancingOrder[2][2];
+    final int[] offered = {-1, -1}; // level offered, by side
+    final boolean[] exercised = new boolean[2];
+    double exercisedKWh = 0.0;
+    double payments = 0.0;
+
+    Entry (TariffSpecification spec)
+    {
+      super();
+      this.spec = spec;
+      this.tariffId = spec.getId();
+    }
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Limit prices for wholesale orders, by hour of day, remaining tries and
+ * order size, as multiples of the forecast price. The table is solved by
+ * dynamic programming over the remaining tries: the clearing price is
+ * taken to be normal about the forecast, with the spread seen in that
+ * hour and shifted by our own volume, and whatever is left after the
+ * last try is settled in the balancing market at a premium. Clearing is
+ * uniform-price, so a filled order pays the clearing price, not its
+ * limit.
+ *
+ * Solving runs on a background thread, and the finished table replaces
+ * the previous one in a single write, so lookups never wait and always
+ * see a complete table.
+ *
+ * @author agent
+ */
+class BiddingPolicy
+{
+  static private Logger log = Logger.getLogger(BiddingPolicy.class);
+
+  static final int HOURS = 24;
+
+  // order size buckets, upper bounds in MWh, and the size used for each
+  static final double[] BUCKET_LIMIT = {1.0, 2.0, 5.0, 10.0, 20.0};
+  static final double[] BUCKET_SIZE = {0.5, 1.5, 3.5, 7.5, 15.0, 30.0};
+
+  // price ratios considered
+  private static final double STEP = 0.01;
+  private static final int GRID = 301;
+
+  private final int maxTries;
+
+  private ExecutorService pool = null;
+  private volatile int generation = 0;
+  private volatile Table table = null;
+
+  BiddingPolicy (int maxTries)
+  {
+    super();
+    this.maxTries = maxTries;
+  }
+
+  /**
+   * Returns the latest table, or null if none has been solved yet.
+   */
+  Table getTable ()
+  {
+    return table;
+  }
+
+  /**
+   * Solves the model in the background, abandoning any solution still
+   * running, and publishes the table when done.
+   */
+  synchronized void start (final Model model)
+  {
+    final int mine = ++generation;
+    getPool().execute(new Runnable() {
+      @Override
+      public void run ()
+      {
+        try {
+          Table result = solve(model);
+          if (mine == generation)
+            table = result;
+        }
+        catch (RuntimeException e) {
+          log.error("bidding policy failed", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Solves the model on the calling thread, publishes the table and
+   * returns it.
+   */
+  Table solveNow (Model model)
+  {
+    Table result = solve(model);
+    table = result;
+    return result;
+  }
+
+  synchronized void shutdown ()
+  {
+    generation += 1;
+    if (null != pool) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  private synchronized ExecutorService getPool ()
+  {
+    if (null == pool) {
+      pool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable task)
+        {
+          Thread thread = new Thread(task, "bidding-policy");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return pool;
+  }
+
+  // ------------------ solution ---------------------
+
+  private Table solve (Model model)
+  {
+    Table result = new Table(maxTries);
+    double[] mass = new double[GRID];
+    double[] value = new double[GRID];
+    double[] weight = new double[GRID];
+    for (int hour = 0; hour < HOURS; hour++) {
+      for (int bucket = 0; bucket < BUCKET_SIZE.length; bucket++) {
+        double shift = model.impact * BUCKET_SIZE[bucket];
+        // buying raises the price, selling lowers it
+        distribution(1.0 + shift, model.spread[hour], mass);
+        solveBuying(result, hour, bucket, mass, value, weight,
+                    1.0 + model.premium);
+        distribution(Math.max(STEP, 1.0 - shift), model.spread[hour], mass);
+        solveSelling(result, hour, bucket, mass, value, weight,
+                     Math.max(0.0, 1.0 - model.premium));
+      }
+    }
+    return result;
+  }
+
+  // Probability of each price ratio on the grid, the tails lumped into
+  // the end points
+  private void distribution (double mean, double spread, double[] mass)
+  {
+    double sd = Math.max(STEP, spread * mean);
+    double below = 0.0;
+    for (int j = 0; j < GRID; j++) {
+      double upper = (j == GRID - 1) ? 1.0
+          : normal(((j + 0.5) * STEP - mean) / sd);
+      mass[j] = upper - below;
+      below = upper;
+    }
+  }
+
+  // Buying: an order at ratio r fills if the price is at most r, and
+  // then pays the price. Cost with n tries left is
+  // E[price; price <= r] + P(price > r) * cost(n - 1)
+  private void solveBuying (Table result, int hour, int bucket,
+                            double[] mass, double[] cumulative,
+                            double[] partial, double balancing)
+  {
+    double sum = 0.0;
+    double paid = 0.0;
+    for (int j = 0; j < GRID; j++) {
+      sum += mass[j];
+      paid += mass[j] * j * STEP;
+      cumulative[j] = sum;
+      partial[j] = paid;
+    }
+    double cost = balancing;
+    for (int n = 1; n <= maxTries; n++) {
+      double best = Double.MAX_VALUE;
+      int choice = GRID - 1;
+      for (int j = 0; j < GRID; j++) {
+        double c = partial[j] + (1.0 - cumulative[j]) * cost;
+        if (c < best) {
+          best = c;
+          choice = j;
+        }
+      }
+      result.set(true, hour, n, bucket, choice * STEP);
+      cost = best;
+    }
+  }
+
+  // Selling: an order at ratio r fills if the price is at least r.
+  // Revenue with n tries left is
+  // E[price; price >= r] + P(price < r) * revenue(n - 1)
+  private void solveSelling (Table result, int hour, int bucket,
+                             double[] mass, double[] cumulative,
+                             double[] partial, double balancing)
+  {
+    double sum = 0.0;
+    double paid = 0.0;
+    for (int j = GRID - 1; j >= 0; j--) {
+      sum += mass[j];
+      paid += mass[j] * j * STEP;
+      cumulative[j] = sum;
+      partial[j] = paid;
+    }
+    double revenue = balancing;
+    for (int n = 1; n <= maxTries; n++) {
+      double best = -Double.MAX_VALUE;
+      int choice = 0;
+      for (int j = 0; j < GRID; j++) {
+        double r = partial[j] + (1.0 - cumulative[j]) * revenue;
+        if (r > best) {
+          best = r;
+          choice = j;
+        }
+      }
+      result.set(false, hour, n, bucket, choice * STEP);
+      revenue = best;
+    }
+  }
+
+  // Standard normal distribution function, after Abramowitz and Stegun
+  // 7.1.26, good to about 1e-7
+  static double normal (double x)
+  {
+    double z = Math.abs(x) / Math.sqrt(2.0);
+    double t = 1.0 / (1.0 + 0.3275911 * z);
+    double erf = 1.0 - t * (0.254829592 + t * (-0.284496736
+        + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))))
+        * Math.exp(-z * z);
+    return (x >= 0.0) ? 0.5 * (1.0 + erf) : 0.5 * (1.0 - erf);
+  }
+
+  static int bucketOf (double mwh)
+  {
+    double size = Math.abs(mwh);
+    for (int b = 0; b < BUCKET_LIMIT.length; b++) {
+      if (size <= BUCKET_LIMIT[b])
+        return b;
+    }
+    return BUCKET_LIMIT.length;
+  }
+
+  /**
+   * What the policy is solved for: the spread of the clearing price about
+   * the forecast in each hour of the day, as a fraction of the forecast,
+   * the change in price per MWh we trade, as a fraction, and the premium
+   * paid for energy settled in the balancing market.
+   */
+  static final class Model
+  {
+    final double[] spread;
+    final double impact;
+    final double premium;
+
+    Model (double[] spread, double impact, double premium)
+    {
+      super();
+      this.spread = spread;
+      this.impact = impact;
+      this.premium = premium;
+    }
+  }
+
+  /**
+   * A solved policy. Immutable once published.
+   */
+  static final class Table
+  {
+    private final int maxTries;
+    private final double[] ratio;
+
+    Table (int maxTries)
+    {
+      super();
+      this.maxTries = maxTries;
+      ratio = new double[2 * HOURS * (maxTries + 1) * BUCKET_SIZE.length];
+    }
+
+    private int index (boolean buying, int hour, int tries, int bucket)
+    {
+      int side = buying ? 0 : 1;
+      return ((side * HOURS + hour) * (maxTries + 1) + tries)
+          * BUCKET_SIZE.length + bucket;
+    }
+
+    private void set (boolean buying, int hour, int tries, int bucket,
+                      double value)
+    {
+      ratio[index(buying, hour, tries, bucket)] = value;
+    }
+
+    /**
+     * Limit price for an order of the given size, positive to buy, as a
+     * multiple of the forecast price. Tries beyond those solved for are
+     * taken as the last.
+     */
+    double getRatio (int hour, int tries, double mwh)
+    {
+      int t = Math.max(1, Math.min(maxTries, tries));
+      return ratio[index(mwh > 0.0, hour % HOURS, t, bucketOf(mwh))];
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+
+/**
+ * Cleared prices and volumes of the wholesale market, by delivery
+ * timeslot and lead time, for the most recent delivery timeslots. Rows
+ * are kept in a ring indexed by delivery timeslot, and a row is cleared
+ * when a newer timeslot takes its place, so memory is fixed however long
+ * the game runs.
+ *
+ * Lead time is the number of timeslots between clearing and delivery;
+ * leads beyond the last one are counted as the last. Prices are per MWh,
+ * as cleared. A lead at which nothing cleared has a NaN price.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class ClearedTradeStore
+{
+  private final int capacity; // delivery timeslots
+  private final int leads;
+
+  private final int[] delivery; // delivery timeslot of each row
+  private final double[] price;
+  private final double[] mwh;
+
+  ClearedTradeStore (int capacity, int leads)
+  {
+    super();
+    this.capacity = capacity;
+    this.leads = leads;
+    delivery = new int[capacity];
+    Arrays.fill(delivery, -1);
+    price = new double[capacity * leads];
+    Arrays.fill(price, Double.NaN);
+    mwh = new double[capacity * leads];
+  }
+
+  int getCapacity ()
+  {
+    return capacity;
+  }
+
+  int getLeads ()
+  {
+    return leads;
+  }
+
+  /**
+   * Lead index for a clearing the given number of timeslots ahead.
+   */
+  int leadIndex (int lead)
+  {
+    return Math.max(0, Math.min(leads - 1, lead));
+  }
+
+  /**
+   * Records a clearing for the given delivery timeslot. A clearing for a
+   * timeslot older than the one in its row is ignored, and returns false.
+   */
+  boolean record (int timeslot, int lead, double clearedPrice,
+                  double clearedMWh)
+  {
+    int row = timeslot % capacity;
+    if (delivery[row] != timeslot) {
+      if (delivery[row] > timeslot)
+        return false;
+      delivery[row] = timeslot;
+      Arrays.fill(price, row * leads, (row + 1) * leads, Double.NaN);
+      Arrays.fill(mwh, row * leads, (row + 1) * leads, 0.0);
+    }
+    int index = row * leads + leadIndex(lead);
+    if (Double.isNaN(price[index])) {
+      price[index] = clearedPrice;
+      mwh[index] = clearedMWh;
+    }
+    else {
+      // two clearings at the same index, keep the weighted mean
+      double total = mwh[index] + clearedMWh;
+      if (total > 0.0)
+        price[index] = (price[index] * mwh[index]
+                        + clearedPrice * clearedMWh) / total;
+      mwh[index] = total;
+    }
+    return true;
+  }
+
+  /**
+   * True if the store holds the given delivery timeslot.
+   */
+  boolean contains (int timeslot)
+  {
+    return timeslot >= 0 && delivery[timeslot % capacity] == timeslot;
+  }
+
+  /**
+   * Price cleared for the timeslot at the given lead, NaN if none.
+   */
+  double getPrice (int timeslot, int lead)
+  {
+    if (!contains(timeslot))
+      return Double.NaN;
+    return price[(timeslot % capacity) * leads + leadIndex(lead)];
+  }
+
+  /**
+   * Volume cleared for the timeslot at the given lead.
+   */
+  double getMWh (int timeslot, int lead)
+  {
+    if (!contains(timeslot))
+      return 0.0;
+    return mwh[(timeslot % capacity) * leads + leadIndex(lead)];
+  }
+
+  /**
+   * Total volume cleared for the timeslot over all leads.
+   */
+  double getTotalMWh (int timeslot)
+  {
+    if (!contains(timeslot))
+      return 0.0;
+    double result = 0.0;
+    int offset = (timeslot % capacity) * leads;
+    for (int i = 0; i < leads; i++)
+      result += mwh[offset + i];
+    return result;
+  }
+
+  /**
+   * Volume-weighted mean price cleared for the timeslot over all leads,
+   * NaN if nothing cleared.
+   */
+  double getMeanPrice (int timeslot)
+  {
+    if (!contains(timeslot))
+      return Double.NaN;
+    double value = 0.0;
+    double volume = 0.0;
+    int offset = (timeslot % capacity) * leads;
+    for (int i = 0; i < leads; i++) {
+      if (!Double.isNaN(price[offset + i])) {
+        value += price[offset + i] * mwh[offset + i];
+        volume += mwh[offset + i];
+      }
+    }
+    return (volume > 0.0) ? value / volume : Double.NaN;
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.joda.time.Instant;
+import org.powertac.common.Rate;
+import org.powertac.common.RegulationRate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * A tariff worked out once over the usage-record slots, so evaluating it
+ * against a usage profile needs no Rate lookups. For each tier threshold
+ * there is a vector holding the price in each slot, taking time-of-use
+ * into account, with variable rates at their expected mean. Where rates
+ * overlap, the one that covers fewer slots wins.
+ *
+ * Prices carry the sign of the power type, so for a per-customer profile
+ * in TariffTransaction terms (consumption negative, production positive)
+ * the usage charge is a dot product. Charges are from the customer's
+ * point of view, as rates are: negative amounts are paid by the customer.
+ *
+ * Immutable once compiled.
+ *
+ * @author agent
+ */
+final class CompiledTariff
+{
+  private final TariffSpecification spec;
+  private final int slots;
+  private final double days; // length of the slot grid in days
+
+  // tier thresholds, ascending, starting at zero, and prices per tier
+  private final double[] thresholds;
+  private final double[][] prices; // tiers * slots
+  private final double[] curtailment;
+  private final boolean[] dayStart; // slots at midnight, where tiers reset
+
+  private final double periodicPayment;
+  private final double signupPayment;
+  private final double earlyWithdrawPayment;
+  private final long minDuration;
+  private final boolean regulation;
+  private final double upRegulationPayment;
+  private final double downRegulationPayment;
+
+  private CompiledTariff (TariffSpecification spec, int slots, double days,
+                          double[] thresholds, double[][] prices,
+                          double[] curtailment, boolean[] dayStart)
+  {
+    super();
+    this.spec = spec;
+    this.slots = slots;
+    this.days = days;
+    this.thresholds = thresholds;
+    this.prices = prices;
+    this.curtailment = curtailment;
+    this.dayStart = dayStart;
+    periodicPayment = spec.getPeriodicPayment();
+    signupPayment = spec.getSignupPayment();
+    earlyWithdrawPayment = spec.getEarlyWithdrawPayment();
+    minDuration = spec.getMinDuration();
+    regulation = spec.hasRegulationRate();
+    if (regulation) {
+      RegulationRate rr = spec.getRegulationRates().get(0);
+      upRegulationPayment = rr.getUpRegulationPayment();
+      downRegulationPayment = rr.getDownRegulationPayment();
+    }
+    else {
+      upRegulationPayment = 0.0;
+      downRegulationPayment = 0.0;
+    }
+  }
+
+  /**
+   * Compiles a tariff over the usage-record slots of the current game.
+   */
+  static CompiledTariff compile (TariffSpecification spec,
+                                 TimeIndexService timeIndex)
+  {
+    int slots = timeIndex.getUsageRecordLength();
+    double days = slots * timeIndex.getTimeslotLength() / (24.0 * 60.0);
+    List<Rate> rates = spec.getRates();
+    TreeSet<Double> tiers = new TreeSet<Double>();
+    tiers.add(0.0);
+    for (Rate rate : rates) {
+      tiers.add(rate.getTierThreshold());
+    }
+    double[] thresholds = new double[tiers.size()];
+    int t = 0;
+    for (Double threshold : tiers) {
+      thresholds[t++] = threshold;
+    }
+    double sign = spec.getPowerType().isProduction() ? 1.0 : -1.0;
+    double[][] prices = new double[thresholds.length][slots];
+    double[] curtailment = new double[slots];
+    boolean[] dayStart = new boolean[slots];
+    boolean[][] applies = new boolean[rates.size()][slots];
+    int[] coverage = new int[rates.size()];
+    for (int slot = 0; slot < slots; slot++) {
+      Instant when = new Instant(timeIndex.timeslotStart(slot));
+      dayStart[slot] = (0 == timeIndex.hourOfDay(slot));
+      for (int r = 0; r < rates.size(); r++) {
+        if (rates.get(r).applies(when)) {
+          applies[r][slot] = true;
+          coverage[r] += 1;
+        }
+      }
+    }
+    for (int slot = 0; slot < slots; slot++) {
+      for (int tier = 0; tier < thresholds.length; tier++) {
+        // the applicable rate with the highest threshold in reach; where
+        // rates overlap, the one covering fewer slots is the more specific
+        int best = -1;
+        for (int r = 0; r < rates.size(); r++) {
+          double threshold = rates.get(r).getTierThreshold();
+          if (!applies[r][slot] || threshold > thresholds[tier])
+            continue;
+          if (best < 0
+              || threshold > rates.get(best).getTierThreshold()
+              || (threshold == rates.get(best).getTierThreshold()
+                  && coverage[r] < coverage[best]))
+            best = r;
+        }
+        if (best >= 0) {
+          Rate rate = rates.get(best);
+          double value =
+              rate.isFixed() ? rate.getMinValue() : rate.getExpectedMean();
+          prices[tier][slot] = value * sign;
+          if (0 == tier)
+            curtailment[slot] = rate.getMaxCurtailment();
+        }
+        else if (tier > 0) {
+          prices[tier][slot] = prices[tier - 1][slot];
+        }
+      }
+    }
+    return new CompiledTariff(spec, slots, days, thresholds, prices,
+                              curtailment, dayStart);
+  }
+
+  TariffSpecification getSpec ()
+  {
+    return spec;
+  }
+
+  long getId ()
+  {
+    return spec.getId();
+  }
+
+  PowerType getPowerType ()
+  {
+    return spec.getPowerType();
+  }
+
+  int getSlots ()
+  {
+    return slots;
+  }
+
+  int getTierCount ()
+  {
+    return thresholds.length;
+  }
+
+  double getThreshold (int tier)
+  {
+    return thresholds[tier];
+  }
+
+  /**
+   * Signed price of the first tier in the given slot.
+   */
+  double getPrice (int slot)
+  {
+    return prices[0][slot];
+  }
+
+  double getPrice (int tier, int slot)
+  {
+    return prices[tier][slot];
+  }
+
+  /**
+   * Copies the signed first-tier prices into dest.
+   */
+  void copyPrices (double[] dest)
+  {
+    System.arraycopy(prices[0], 0, dest, 0, slots);
+  }
+
+  double getMaxCurtailment (int slot)
+  {
+    return curtailment[slot];
+  }
+
+  double getPeriodicPayment ()
+  {
+    return periodicPayment;
+  }
+
+  double getSignupPayment ()
+  {
+    return signupPayment;
+  }
+
+  double getEarlyWithdrawPayment ()
+  {
+    return earlyWithdrawPayment;
+  }
+
+  long getMinDuration ()
+  {
+    return minDuration;
+  }
+
+  boolean hasRegulation ()
+  {
+    return regulation;
+  }
+
+  double getUpRegulationPayment ()
+  {
+    return upRegulationPayment;
+  }
+
+  double getDownRegulationPayment ()
+  {
+    return downRegulationPayment;
+  }
+
+  /**
+   * Usage charge to one customer for a per-customer profile over the slot
+   * grid. Without tiers this is a dot product. With tiers, the tier is
+   * chosen by the customer's usage so far in the day, and applies to the
+   * whole of a slot.
+   */
+  double usageCharge (double[] profile)
+  {
+    double[] base = prices[0];
+    if (1 == thresholds.length)
+      return dot(base, profile, slots);
+    double result = 0.0;
+    double today = 0.0;
+    for (int slot = 0; slot < slots; slot++) {
+      if (dayStart[slot])
+        today = 0.0;
+      int tier = Arrays.binarySearch(thresholds, today);
+      if (tier < 0)
+        tier = -tier - 2; // highest threshold below today's usage
+      result += prices[tier][slot] * profile[slot];
+      today += Math.abs(profile[slot]);
+    }
+    return result;
+  }
+
+  /**
+   * Total charge to one customer over the slot grid: usage charge plus
+   * the periodic payments, without signup or withdrawal payments.
+   */
+  double charge (double[] profile)
+  {
+    return usageCharge(profile) + periodicPayment * days;
+  }
+
+  static double dot (double[] a, double[] b, int length)
+  {
+    double result = 0.0;
+    for (int i = 0; i < length; i++) {
+      result += a[i] * b[i];
+    }
+    return result;
+  }
+
+  /**
+   * Dot product of b with the length values of a starting at offset.
+   */
+  static double dot (double[] a, int offset, double[] b, int length)
+  {
+    double result = 0.0;
+    for (int i = 0; i < length; i++) {
+      result += a[offset + i] * b[i];
+    }
+    return result;
+  }
+}
@@ -79,7 +79,7 @@ implements Initializable
    */
   public void handleMessage (BankTransaction btx)
   {
-    // TODO - handle this
+    // recorded by the LedgerService
   }
 
   /**
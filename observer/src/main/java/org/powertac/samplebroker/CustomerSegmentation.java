@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Online k-means clustering of customer usage profiles. Each profile row
+ * is normalized to unit mean absolute value, so customers are grouped by
+ * the shape of their usage rather than its size, and producers fall apart
+ * from consumers. Rows are (re)assigned one at a time as their profiles
+ * change; a cluster keeps the sum of its members' shapes and of their
+ * expected total usage, so an update costs O(clusters * slots) however
+ * many rows there are.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class CustomerSegmentation
+{
+  // squared distance per slot below which shapes count as identical
+  private static final double SAME = 1e-9;
+
+  private final int clusters;
+  private final int slots;
+
+  // per cluster
+  private int[] members;
+  private double[] population;
+  private double[] shapeSum; // clusters * slots
+  private double[] usageSum; // clusters * slots, expected total usage
+
+  // per row, the contribution it last made to its cluster
+  private int[] rowCluster;
+  private double[] rowShape; // rows * slots
+  private double[] rowScale; // mean absolute usage times population
+  private double[] rowPopulation;
+
+  private double[] shape; // scratch
+  private int version = 0;
+
+  CustomerSegmentation (int clusters, int slots)
+  {
+    super();
+    this.clusters = clusters;
+    this.slots = slots;
+    members = new int[clusters];
+    population = new double[clusters];
+    shapeSum = new double[clusters * slots];
+    usageSum = new double[clusters * slots];
+    rowCluster = new int[0];
+    rowShape = new double[0];
+    rowScale = new double[0];
+    rowPopulation = new double[0];
+    shape = new double[slots];
+  }
+
+  int getClusterCount ()
+  {
+    return clusters;
+  }
+
+  /**
+   * Incremented whenever an assignment or aggregate changes.
+   */
+  int getVersion ()
+  {
+    return version;
+  }
+
+  /**
+   * Cluster of the given row, or -1 if it has none.
+   */
+  int getCluster (int row)
+  {
+    return (row < rowCluster.length) ? rowCluster[row] : -1;
+  }
+
+  /**
+   * Folds the current per-customer profile of a row into the clustering,
+   * moving the row to the nearest cluster. An empty cluster takes the row
+   * if it is not already a cluster of its own, so the first distinct
+   * profiles seed the clusters. All-zero profiles are left unassigned.
+   */
+  void update (int row, double[] profile, double customers)
+  {
+    ensureRows(row + 1);
+    remove(row);
+    double scale = 0.0;
+    for (int i = 0; i < slots; i++) {
+      scale += Math.abs(profile[i]);
+    }
+    scale /= slots;
+    if (0.0 == scale)
+      return;
+    for (int i = 0; i < slots; i++) {
+      shape[i] = profile[i] / scale;
+    }
+    int best = -1;
+    double bestDistance = Double.MAX_VALUE;
+    int empty = -1;
+    for (int c = 0; c < clusters; c++) {
+      if (0 == members[c]) {
+        if (empty < 0)
+          empty = c;
+        continue;
+      }
+      double distance = distance(c);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = c;
+      }
+    }
+    if (empty >= 0 && (best < 0 || bestDistance > SAME * slots))
+      best = empty;
+    add(row, best, scale * customers, customers);
+  }
+
+  /**
+   * Snapshot of every non-empty cluster.
+   */
+  List<Segment> getSegments ()
+  {
+    ArrayList<Segment> result = new ArrayList<Segment>();
+    for (int c = 0; c < clusters; c++) {
+      if (0 == members[c])
+        continue;
+      double[] centroid = new double[slots];
+      double[] usage = new double[slots];
+      int offset = c * slots;
+      for (int i = 0; i < slots; i++) {
+        centroid[i] = shapeSum[offset + i] / members[c];
+      }
+      System.arraycopy(usageSum, offset, usage, 0, slots);
+      result.add(new Segment(c, members[c], population[c], centroid, usage));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  // squared distance from the scratch shape to the centroid of c
+  private double distance (int c)
+  {
+    int offset = c * slots;
+    double scale = 1.0 / members[c];
+    double result = 0.0;
+    for (int i = 0; i < slots; i++) {
+      double diff = shape[i] - shapeSum[offset + i] * scale;
+      result += diff * diff;
+    }
+    return result;
+  }
+
+  // adds the scratch shape as the new contribution of row to cluster c
+  private void add (int row, int c, double scale, double customers)
+  {
+    int offset = c * slots;
+    int rowOffset = row * slots;
+    for (int i = 0; i < slots; i++) {
+      shapeSum[offset + i] += shape[i];
+      usageSum[offset + i] += shape[i] * scale;
+      rowShape[rowOffset + i] = shape[i];
+    }
+    members[c] += 1;
+    population[c] += customers;
+    rowCluster[row] = c;
+    rowScale[row] = scale;
+    rowPopulation[row] = customers;
+    version += 1;
+  }
+
+  // takes the last contribution of row out of its cluster
+  private void remove (int row)
+  {
+    int c = rowCluster[row];
+    if (c < 0)
+      return;
+    int offset = c * slots;
+    int rowOffset = row * slots;
+    double scale = rowScale[row];
+    for (int i = 0; i < slots; i++) {
+      shapeSum[offset + i] -= rowShape[rowOffset + i];
+      usageSum[offset + i] -= rowShape[rowOffset + i] * scale;
+    }
+    members[c] -= 1;
+    population[c] -= rowPopulation[row];
+    if (0 == members[c]) {
+      // drop the rounding residue
+      Arrays.fill(shapeSum, offset, offset + slots, 0.0);
+      Arrays.fill(usageSum, offset, offset + slots, 0.0);
+      population[c] = 0.0;
+    }
+    rowCluster[row] = -1;
+    version += 1;
+  }
+
+  private void ensureRows (int rows)
+  {
+    int old = rowCluster.length;
+    if (rows <= old)
+      return;
+    int capacity = Math.max(rows, Math.max(16, old * 2));
+    rowCluster = Arrays.copyOf(rowCluster, capacity);
+    Arrays.fill(rowCluster, old, capacity, -1);
+    rowShape = Arrays.copyOf(rowShape, capacity * slots);
+    rowScale = Arrays.copyOf(rowScale, capacity);
+    rowPopulation = Arrays.copyOf(rowPopulation, capacity);
+  }
+
+  /**
+   * Immutable summary of one cluster.
+   */
+  static final class Segment
+  {
+    private final int index;
+    private final int members;
+    private final double population;
+    private final double[] centroid;
+    private final double[] usage;
+
+    Segment (int index, int members, double population,
+             double[] centroid, double[] usage)
+    {
+      super();
+      this.index = index;
+      this.members = members;
+      this.population = population;
+      this.centroid = centroid;
+      this.usage = usage;
+    }
+
+    int getIndex ()
+    {
+      return index;
+    }
+
+    /**
+     * Number of profile rows in the segment.
+     */
+    int getMembers ()
+    {
+      return members;
+    }
+
+    /**
+     * Total customer population of the segment.
+     */
+    double getPopulation ()
+    {
+      return population;
+    }
+
+    /**
+     * Mean normalized usage of the segment in the given slot.
+     */
+    double getShape (int slot)
+    {
+      return centroid[slot];
+    }
+
+    /**
+     * Expected usage of the whole segment population in the given slot.
+     */
+    double getUsage (int slot)
+    {
+      return usage[slot];
+    }
+  }
+}
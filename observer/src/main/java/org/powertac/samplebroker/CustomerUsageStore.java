@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.CustomerInfo;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.interfaces.UsageForecaster;
+
+/**
+ * Columnar store for customer usage and subscriptions. Customers, power
+ * types and tariffs are given dense integer ids as they are first seen.
+ * Usage is stored per-customer-unit in one contiguous array with one row
+ * of usageRecordLength slots per (power type, customer) pair; all
+ * subscriptions of a customer share that row rather than keeping their
+ * own copy. Subscriptions themselves are parallel primitive columns
+ * holding the tariff id, the profile row and the subscribed population.
+ *
+ * The net usage across all subscriptions is kept per slot and updated
+ * incrementally on signup, withdraw and every profile update, so reading
+ * it costs O(1) regardless of the number of customers and tariffs.
+ *
+ * Profiles are maintained by a UsageForecaster. Observations are queued
+ * as they arrive and handed to it in one batch per timeslot, when the
+ * first observation of a later timeslot arrives or flushObservations()
+ * is called.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class CustomerUsageStore
+{
+  static private Logger log = Logger.getLogger(CustomerUsageStore.class);
+
+  private final int slots;
+  private final UsageForecaster forecaster;
+
+  // customers and power types
+  private ArrayList<CustomerInfo> customers = new ArrayList<CustomerInfo>();
+  private HashMap<CustomerInfo, Integer> customerIds =
+      new HashMap<CustomerInfo, Integer>();
+  private ArrayList<PowerType> powerTypes = new ArrayList<PowerType>();
+  private HashMap<PowerType, Integer> powerTypeIds =
+      new HashMap<PowerType, Integer>();
+
+  // usage profiles, one row of slots per (power type, customer)
+  private int rowCount = 0;
+  private double[] usage;
+  private int[] rowCustomer;
+  private int[] rowPowerType;
+  private int[] rowPopulation; // subscribed population across tariffs
+  private int[] rowStamp; // last observation batch that touched the row
+  private LongIntMap rowIndex = new LongIntMap(64);
+  private int profileEpoch = 0; // bumped when rows are added or replaced
+
+  // tariffs
+  private ArrayList<TariffSpecification> tariffs =
+      new ArrayList<TariffSpecification>();
+  private HashMap<TariffSpecification, Integer> tariffIds =
+      new HashMap<TariffSpecification, Integer>();
+
+  // subscriptions, one per (tariff, row)
+  private int subscriptionCount = 0;
+  private int[] subTariff;
+  private int[] subRow;
+  private int[] subPopulation;
+  private LongIntMap subscriptionIndex = new LongIntMap(64);
+
+  // net usage of all subscriptions, per slot
+  private double[] netUsage;
+
+  // observations queued for the forecaster, all for one raw index
+  private int obsIndex = -1;
+  private int obsCount = 0;
+  private int obsBatch = 0;
+  private int[] obsRows = new int[64];
+  private double[] obsValues = new double[64];
+  private double[] obsOld = new double[64];
+
+  CustomerUsageStore (int slots)
+  {
+    this(slots, new EwmaUsageForecaster());
+  }
+
+  CustomerUsageStore (int slots, UsageForecaster forecaster)
+  {
+    super();
+    this.slots = slots;
+    this.forecaster = forecaster;
+    int rows = 16;
+    usage = new double[rows * slots];
+    rowCustomer = new int[rows];
+    rowPowerType = new int[rows];
+    rowPopulation = new int[rows];
+    rowStamp = new int[rows];
+    netUsage = new double[slots];
+    subTariff = new int[rows];
+    subRow = new int[rows];
+    subPopulation = new int[rows];
+  }
+
+  int getSlots ()
+  {
+    return slots;
+  }
+
+  // -------------- profile rows ------------------
+
+  /**
+   * Returns the profile row for the given type and customer, or -1 if
+   * there is none.
+   */
+  int findRow (PowerType type, CustomerInfo customer)
+  {
+    Integer typeId = powerTypeIds.get(type);
+    Integer customerId = customerIds.get(customer);
+    if (null == typeId || null == customerId)
+      return -1;
+    return rowIndex.get(rowKey(typeId, customerId));
+  }
+
+  /**
+   * Adds an empty profile row for the given type and customer, which must
+   * not already have one, and returns it.
+   */
+  int addRow (PowerType type, CustomerInfo customer)
+  {
+    int typeId = powerTypeId(type);
+    int customerId = customerId(customer);
+    if (rowCount == rowCustomer.length) {
+      int capacity = rowCount * 2;
+      usage = Arrays.copyOf(usage, capacity * slots);
+      rowCustomer = Arrays.copyOf(rowCustomer, capacity);
+      rowPowerType = Arrays.copyOf(rowPowerType, capacity);
+      rowPopulation = Arrays.copyOf(rowPopulation, capacity);
+      rowStamp = Arrays.copyOf(rowStamp, capacity);
+    }
+    int row = rowCount++;
+    profileEpoch += 1;
+    rowCustomer[row] = customerId;
+    rowPowerType[row] = typeId;
+    rowPopulation[row] = 0;
+    rowIndex.put(rowKey(typeId, customerId), row);
+    return row;
+  }
+
+  int getRowCount ()
+  {
+    return rowCount;
+  }
+
+  /**
+   * Changes whenever a row is added or replaced, and at each rebuild of
+   * the net usage. Observations flushed in between do not change it, so
+   * it stays the same from one timeslot to the next.
+   */
+  int getProfileEpoch ()
+  {
+    return profileEpoch;
+  }
+
+  CustomerInfo getRowCustomer (int row)
+  {
+    return customers.get(rowCustomer[row]);
+  }
+
+  PowerType getRowPowerType (int row)
+  {
+    return powerTypes.get(rowPowerType[row]);
+  }
+
+  /**
+   * Dense id of the power type of a row, for per-type aggregates.
+   */
+  int getRowPowerTypeId (int row)
+  {
+    return rowPowerType[row];
+  }
+
+  /**
+   * Returns the dense id of the given power type, or -1 if it has not
+   * been seen.
+   */
+  int findPowerTypeId (PowerType type)
+  {
+    Integer id = powerTypeIds.get(type);
+    return (null == id) ? -1 : id;
+  }
+
+  /**
+   * Returns per-customer-unit usage for the given row and raw index.
+   */
+  double getProfileValue (int row, int rawIndex)
+  {
+    return usage[row * slots + slotIndex(rawIndex)];
+  }
+
+  /**
+   * Copies a row into the given array, which must be slots long.
+   */
+  void copyProfile (int row, double[] dest)
+  {
+    System.arraycopy(usage, row * slots, dest, 0, slots);
+  }
+
+  /**
+   * Replaces a row with the given profile, which must be slots long.
+   */
+  void setProfile (int row, double[] profile)
+  {
+    profileEpoch += 1;
+    int offset = row * slots;
+    int population = rowPopulation[row];
+    for (int i = 0; i < slots; i++) {
+      netUsage[i] += (profile[i] - usage[offset + i]) * population;
+      usage[offset + i] = profile[i];
+    }
+  }
+
+  /**
+   * Records per-customer-unit usage at the given raw index and applies it
+   * right away.
+   */
+  void updateProfile (int row, int rawIndex, double kwhPerCustomer)
+  {
+    observe(row, rawIndex, kwhPerCustomer);
+    flushObservations();
+  }
+
+  /**
+   * Queues per-customer-unit usage at the given raw index. A pending
+   * batch for a different raw index is flushed first.
+   */
+  void observe (int row, int rawIndex, double kwhPerCustomer)
+  {
+    if (obsCount > 0 && rawIndex != obsIndex)
+      flushObservations();
+    if (obsCount == obsRows.length) {
+      int capacity = obsCount * 2;
+      obsRows = Arrays.copyOf(obsRows, capacity);
+      obsValues = Arrays.copyOf(obsValues, capacity);
+      obsOld = Arrays.copyOf(obsOld, capacity);
+    }
+    obsIndex = rawIndex;
+    obsRows[obsCount] = row;
+    obsValues[obsCount] = kwhPerCustomer;
+    obsCount += 1;
+  }
+
+  /**
+   * Hands the queued observations to the forecaster and folds the changed
+   * profile values into the net usage.
+   */
+  void flushObservations ()
+  {
+    if (0 == obsCount)
+      return;
+    int slot = slotIndex(obsIndex);
+    obsBatch += 1;
+    // remember the old values, once per row
+    for (int i = 0; i < obsCount; i++) {
+      int row = obsRows[i];
+      if (rowStamp[row] == obsBatch) {
+        obsOld[i] = Double.NaN;
+      }
+      else {
+        rowStamp[row] = obsBatch;
+        obsOld[i] = usage[row * slots + slot];
+      }
+    }
+    forecaster.update(usage, slots, slot, obsRows, obsValues, obsCount);
+    for (int i = 0; i < obsCount; i++) {
+      if (Double.isNaN(obsOld[i]))
+        continue;
+      int row = obsRows[i];
+      netUsage[slot] +=
+          (usage[row * slots + slot] - obsOld[i]) * rowPopulation[row];
+    }
+    obsCount = 0;
+  }
+
+  /**
+   * Folds a whole usage history into a row, scaling each value by scale,
+   * through the forecaster. Only this row is written, so different rows
+   * may be folded concurrently; the net usage is not adjusted, and
+   * callers must follow up with rebuildNetUsage().
+   */
+  void foldHistory (int row, double[] history, double scale)
+  {
+    forecaster.fold(usage, slots, row, history, scale);
+  }
+
+  // -------------- tariffs ------------------
+
+  /**
+   * Returns the id of the given tariff, adding it if needed.
+   */
+  int addTariff (TariffSpecification spec)
+  {
+    Integer id = tariffIds.get(spec);
+    if (null != id)
+      return id;
+    int result = tariffs.size();
+    tariffs.add(spec);
+    tariffIds.put(spec, result);
+    return result;
+  }
+
+  /**
+   * Returns the id of the given tariff, or -1 if it is not known.
+   */
+  int findTariff (TariffSpecification spec)
+  {
+    Integer id = tariffIds.get(spec);
+    return (null == id) ? -1 : id;
+  }
+
+  int getTariffCount ()
+  {
+    return tariffs.size();
+  }
+
+  TariffSpecification getTariff (int tariff)
+  {
+    return tariffs.get(tariff);
+  }
+
+  // -------------- subscriptions ------------------
+
+  /**
+   * Returns the subscription of the given row to the given tariff,
+   * creating an empty one if needed.
+   */
+  int subscription (int tariff, int row)
+  {
+    long key = ((long)tariff << 32) | row;
+    int sub = subscriptionIndex.get(key);
+    if (sub != LongIntMap.NONE)
+      return sub;
+    if (subscriptionCount == subTariff.length) {
+      int capacity = subscriptionCount * 2;
+      subTariff = Arrays.copyOf(subTariff, capacity);
+      subRow = Arrays.copyOf(subRow, capacity);
+      subPopulation = Arrays.copyOf(subPopulation, capacity);
+    }
+    sub = subscriptionCount++;
+    subTariff[sub] = tariff;
+    subRow[sub] = row;
+    subPopulation[sub] = 0;
+    subscriptionIndex.put(key, sub);
+    return sub;
+  }
+
+  int getSubscriptionCount ()
+  {
+    return subscriptionCount;
+  }
+
+  int getSubscriptionTariff (int sub)
+  {
+    return subTariff[sub];
+  }
+
+  int getSubscriptionRow (int sub)
+  {
+    return subRow[sub];
+  }
+
+  int getPopulation (int sub)
+  {
+    return subPopulation[sub];
+  }
+
+  // Adds new individuals to the count
+  void signup (int sub, int population)
+  {
+    CustomerInfo customer = customers.get(rowCustomer[subRow[sub]]);
+    setPopulation(sub, Math.min(customer.getPopulation(),
+                                subPopulation[sub] + population));
+  }
+
+  // Removes individuals from the count
+  void withdraw (int sub, int population)
+  {
+    setPopulation(sub, subPopulation[sub] - population);
+  }
+
+  // Changes the population of a subscription and folds the change
+  // into the net usage
+  private void setPopulation (int sub, int population)
+  {
+    int delta = population - subPopulation[sub];
+    if (0 == delta)
+      return;
+    int row = subRow[sub];
+    subPopulation[sub] = population;
+    rowPopulation[row] += delta;
+    int offset = row * slots;
+    for (int i = 0; i < slots; i++) {
+      netUsage[i] += usage[offset + i] * delta;
+    }
+  }
+
+  /**
+   * Customers on a subscription produce or consume power. We assume the
+   * kwh value is negative for production, positive for consumption. The
+   * observation is queued until its timeslot's batch is flushed.
+   */
+  void produceConsume (int sub, double kwh, int rawIndex)
+  {
+    double kwhPerCustomer = 0.0;
+    if (subPopulation[sub] > 0) {
+      kwhPerCustomer = kwh / (double)subPopulation[sub];
+    }
+    observe(subRow[sub], rawIndex, kwhPerCustomer);
+  }
+
+  /**
+   * Expected usage of a subscription at the given raw index.
+   */
+  double getUsage (int sub, int rawIndex)
+  {
+    return getProfileValue(subRow[sub], rawIndex)
+        * (double)subPopulation[sub];
+  }
+
+  /**
+   * Total expected usage across all subscriptions at the given raw index.
+   */
+  double collectUsage (int rawIndex)
+  {
+    return netUsage[slotIndex(rawIndex)];
+  }
+
+  /**
+   * Total expected usage at each of the given raw indices.
+   */
+  void collectUsage (int[] rawIndices, double[] result)
+  {
+    for (int i = 0; i < rawIndices.length; i++) {
+      result[i] = netUsage[slotIndex(rawIndices[i])];
+    }
+  }
+
+  /**
+   * Copies the net usage of every slot into dest, which must be slots long.
+   */
+  void copyNetUsage (double[] dest)
+  {
+    System.arraycopy(netUsage, 0, dest, 0, slots);
+  }
+
+  /**
+   * Copies the population of every subscription into dest, which must be
+   * at least getSubscriptionCount() long.
+   */
+  void copyPopulations (int[] dest)
+  {
+    System.arraycopy(subPopulation, 0, dest, 0, subscriptionCount);
+  }
+
+  /**
+   * Recomputes the net usage from scratch, discarding any rounding error
+   * accumulated by the incremental updates.
+   */
+  void rebuildNetUsage ()
+  {
+    profileEpoch += 1; // also covers folded histories and observations
+    Arrays.fill(netUsage, 0.0);
+    for (int row = 0; row < rowCount; row++) {
+      int population = rowPopulation[row];
+      if (0 == population)
+        continue;
+      int offset = row * slots;
+      for (int i = 0; i < slots; i++) {
+        netUsage[i] += usage[offset + i] * population;
+      }
+    }
+  }
+
+  // -------------- ids ------------------
+
+  int slotIndex (int rawIndex)
+  {
+    if (rawIndex < 0) {
+      log.warn("usage requested for negative index " + rawIndex);
+      rawIndex = 0;
+    }
+    return rawIndex % slots;
+  }
+
+  private int customerId (CustomerInfo customer)
+  {
+    Integer id = customerIds.get(customer);
+    if (null != id)
+      return id;
+    int result = customers.size();
+    customers.add(customer);
+    customerIds.put(customer, result);
+    return result;
+  }
+
+  private int powerTypeId (PowerType type)
+  {
+    Integer id = powerTypeIds.get(type);
+    if (null != id)
+      return id;
+    int result = powerTypes.size();
+    powerTypes.add(type);
+    powerTypeIds.put(type, result);
+    return result;
+  }
+
+  private long rowKey (int typeId, int customerId)
+  {
+    return ((long)typeId << 32) | customerId;
+  }
+}
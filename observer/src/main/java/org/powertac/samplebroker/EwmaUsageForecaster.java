@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import org.powertac.samplebroker.interfaces.UsageForecaster;
+
+/**
+ * Default usage forecaster. Each slot of a profile takes the first value
+ * observed for it, then follows an exponentially-weighted moving average.
+ *
+ * @author agent
+ */
+public class EwmaUsageForecaster implements UsageForecaster
+{
+  private final double alpha;
+
+  public EwmaUsageForecaster ()
+  {
+    this(0.3);
+  }
+
+  public EwmaUsageForecaster (double alpha)
+  {
+    super();
+    this.alpha = alpha;
+  }
+
+  @Override
+  public void update (double[] profiles, int slots, int slot,
+                      int[] rows, double[] observed, int count)
+  {
+    double keep = 1.0 - alpha;
+    for (int i = 0; i < count; i++) {
+      int index = rows[i] * slots + slot;
+      double old = profiles[index];
+      // assume a zero value has never been observed
+      profiles[index] =
+          (old == 0.0) ? observed[i] : alpha * observed[i] + keep * old;
+    }
+  }
+
+  @Override
+  public void fold (double[] profiles, int slots, int row,
+                    double[] history, double scale)
+  {
+    int offset = row * slots;
+    double keep = 1.0 - alpha;
+    for (int start = 0; start < history.length; start += slots) {
+      int end = Math.min(slots, history.length - start);
+      for (int i = 0; i < end; i++) {
+        double value = history[start + i] * scale;
+        double old = profiles[offset + i];
+        profiles[offset + i] = (old == 0.0) ? value : alpha * value + keep * old;
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+/**
+ * The rule set of the observer and greedy brokers. Undercut the market a
+ * few times while our rate is above the lowest one, publish at the
+ * lowest rate if no one is buying from us, and publish at the mean rate
+ * if the last period earned more than a publication costs.
+ *
+ * The observer broker waits for the bootstrap period to end before it
+ * starts; the greedy broker also publishes a fixed-margin tariff as soon
+ * as it has none.
+ *
+ * @author agent
+ */
+class HeuristicTariffStrategy implements TariffStrategy
+{
+  private final String name;
+  private final int firstTimeslot;
+  private final double initialRate; // NaN for none
+  private final double ceiling;
+
+  // state of our own hypothetical tariffs
+  private int interest = 3; // undercuts left
+  private double myMin = 999; // rate of our last tariff, 999 for none
+  private double lastCash = 0.0;
+  private int signups = 0; // since the last decision
+  private int consumes = 0;
+
+  /**
+   * Creates a strategy that decides from the given timeslot on, that
+   * first publishes at initialRate unless that is NaN, and whose tariffs
+   * never go above the given rate.
+   */
+  HeuristicTariffStrategy (String name, int firstTimeslot,
+                           double initialRate, double ceiling)
+  {
+    super();
+    this.name = name;
+    this.firstTimeslot = firstTimeslot;
+    this.initialRate = initialRate;
+    this.ceiling = ceiling;
+  }
+
+  @Override
+  public String getName ()
+  {
+    return name;
+  }
+
+  @Override
+  public Decision decide (Observation observation)
+  {
+    signups += observation.signups;
+    consumes += observation.consumes;
+    if (observation.timeslot < firstTimeslot)
+      return null;
+    Decision result = null;
+    TariffStatistics.Summary stats = observation.consumption;
+    if (999 == myMin && !Double.isNaN(initialRate)) {
+      result = new Decision(initialRate, "initial tariff");
+    }
+    else if (interest > 0 && myMin < stats.maxRate) {
+      // max should be lowest price
+      result = new Decision((stats.maxRate + stats.meanRate) / 2,
+                            "undercut");
+      interest -= 1;
+    }
+    else if (0 == signups || 0 == consumes) {
+      result = new Decision(stats.maxRate, "no one buys");
+    }
+    else if (observation.cash - lastCash > observation.publicationFee) {
+      result = new Decision(stats.meanRate, "earning");
+    }
+    if (null != result)
+      myMin = Math.min(result.rate, ceiling);
+    signups = 0;
+    consumes = 0;
+    lastCash = observation.cash;
+    return result;
+  }
+
+  @Override
+  public void published (double rate)
+  {
+    myMin = Math.min(rate, ceiling);
+  }
+}
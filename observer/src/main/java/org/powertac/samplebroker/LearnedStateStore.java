@@ -0,0 +1,502 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.common.msg.SimEnd;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps learned models between games, and between the sessions run by
+ * BrokerRunner. The models are the hourly market price and volume profile,
+ * per-customer usage profiles, and a summary of each competitor's tariff
+ * behavior. The store is loaded from a memory-mapped file when the broker
+ * is initialized, refined online as bootstrap data and tariffs arrive,
+ * and written back when the game ends.
+ *
+ * The file starts with a magic number and a format version; a file with
+ * a different version or a different profile length is ignored, and the
+ * broker starts from scratch as it did before.
+ *
+ * @author agent
+ */
+@Service
+public class LearnedStateStore
+implements Initializable
+{
+  static private Logger log = Logger.getLogger(LearnedStateStore.class);
+
+  static final int MAGIC = 0x50544c53; // "PTLS"
+  static final int VERSION = 1;
+  static private final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Autowired
+  private BrokerPropertiesService propertiesService;
+
+  @ConfigurableValue(valueType = "Boolean",
+          description = "keep learned state between games")
+  private boolean enabled = true;
+
+  @ConfigurableValue(valueType = "String",
+          description = "file that holds the learned state")
+  private String stateFile = "learned-state.bin";
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "max number of games weighted into a learned profile")
+  private int maxWeight = 10;
+
+  private int slots = 0;
+
+  // market price and volume by usage-record slot
+  private Profile marketPrice;
+  private Profile marketMWh;
+
+  // per-customer usage profiles, keyed by customer name and power type
+  private HashMap<String, Profile> customerProfiles;
+
+  // competitor tariff behavior, keyed by broker name
+  private HashMap<String, CompetitorRecord> competitors;
+
+  public LearnedStateStore ()
+  {
+    super();
+  }
+
+  /**
+   * Per-game initialization. Loads the learned state from the store file
+   * if it exists and matches the current format.
+   */
+  @Override
+  public synchronized void initialize (BrokerContext context)
+  {
+    propertiesService.configureMe(this);
+    slots = context.getUsageRecordLength();
+    clear();
+    if (enabled)
+      load(new File(stateFile));
+  }
+
+  private void clear ()
+  {
+    marketPrice = null;
+    marketMWh = null;
+    customerProfiles = new HashMap<String, Profile>();
+    competitors = new HashMap<String, CompetitorRecord>();
+  }
+
+  // -------------- data access ------------------
+
+  /**
+   * True if the store holds a market price profile from an earlier game.
+   */
+  public synchronized boolean hasMarketProfile ()
+  {
+    return null != marketPrice && marketPrice.weight > 0;
+  }
+
+  /**
+   * Copies the learned market price and volume profiles into the given
+   * arrays, which must be usage-record length. Returns false, leaving the
+   * arrays untouched, if there is no profile from an earlier game.
+   */
+  public synchronized boolean copyMarketProfile (double[] price, double[] mwh)
+  {
+    if (!hasMarketProfile())
+      return false;
+    System.arraycopy(marketPrice.values, 0, price, 0, slots);
+    System.arraycopy(marketMWh.values, 0, mwh, 0, slots);
+    return true;
+  }
+
+  /**
+   * Records the market price and volume profile observed in the current
+   * game. Later calls replace earlier ones; the current game is folded
+   * into the learned profile when the store is saved.
+   */
+  public synchronized void updateMarketProfile (double[] price, double[] mwh)
+  {
+    if (null == marketPrice) {
+      marketPrice = new Profile(new double[slots], 0);
+      marketMWh = new Profile(new double[slots], 0);
+    }
+    marketPrice.observe(price);
+    marketMWh.observe(mwh);
+  }
+
+  /**
+   * Copies the learned per-customer usage profile into the given array,
+   * which must be usage-record length. Returns false if there is no
+   * profile from an earlier game.
+   */
+  public synchronized boolean copyCustomerProfile (String customerName,
+                                                   PowerType type,
+                                                   double[] usage)
+  {
+    Profile profile = customerProfiles.get(customerKey(customerName, type));
+    if (null == profile || 0 == profile.weight)
+      return false;
+    System.arraycopy(profile.values, 0, usage, 0, slots);
+    return true;
+  }
+
+  /**
+   * Records a per-customer usage profile from the current game. As with
+   * the market profile, later calls replace earlier ones.
+   */
+  public synchronized void updateCustomerProfile (String customerName,
+                                                  PowerType type,
+                                                  double[] usage)
+  {
+    String key = customerKey(customerName, type);
+    Profile profile = customerProfiles.get(key);
+    if (null == profile) {
+      profile = new Profile(new double[slots], 0);
+      customerProfiles.put(key, profile);
+    }
+    profile.observe(usage);
+  }
+
+  /**
+   * Returns the learned behavior of the named competitor, or null if we
+   * have never seen it.
+   */
+  public synchronized CompetitorRecord getCompetitor (String brokerName)
+  {
+    return competitors.get(brokerName);
+  }
+
+  /**
+   * Records a tariff published by a competitor.
+   */
+  public synchronized void recordCompetitorTariff (String brokerName,
+                                                   double meanRate,
+                                                   double signupPayment)
+  {
+    CompetitorRecord record = competitors.get(brokerName);
+    if (null == record) {
+      record = new CompetitorRecord();
+      competitors.put(brokerName, record);
+    }
+    record.add(meanRate, signupPayment);
+  }
+
+  private String customerKey (String customerName, PowerType type)
+  {
+    return customerName + ":" + type;
+  }
+
+  // -------------- message handlers -------------------
+
+  /**
+   * Writes the learned state back to disk at the end of the game.
+   */
+  public synchronized void handleMessage (SimEnd se)
+  {
+    if (enabled)
+      save(new File(stateFile));
+  }
+
+  // -------------- persistence ------------------
+
+  /**
+   * Loads the store from the given file. A missing, corrupt, or
+   * incompatible file leaves the store empty.
+   */
+  synchronized void load (File file)
+  {
+    if (!file.canRead())
+      return;
+    long start = System.currentTimeMillis();
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(file, "r");
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer buf =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buf.getInt() != MAGIC) {
+        log.warn(file + " is not a learned-state file");
+        return;
+      }
+      int version = buf.getInt();
+      int fileSlots = buf.getInt();
+      if (version != VERSION || fileSlots != slots) {
+        log.warn("Ignoring " + file + ": version " + version
+                 + ", " + fileSlots + " slots");
+        return;
+      }
+      int weight = buf.getInt();
+      if (weight > 0) {
+        marketPrice = new Profile(readDoubles(buf), weight);
+        marketMWh = new Profile(readDoubles(buf), weight);
+      }
+      int count = buf.getInt();
+      for (int i = 0; i < count; i++) {
+        String key = readString(buf);
+        weight = buf.getInt();
+        customerProfiles.put(key, new Profile(readDoubles(buf), weight));
+      }
+      count = buf.getInt();
+      for (int i = 0; i < count; i++) {
+        String name = readString(buf);
+        CompetitorRecord record = new CompetitorRecord();
+        record.tariffCount = buf.getInt();
+        record.meanRate = buf.getDouble();
+        record.minRate = buf.getDouble();
+        record.maxRate = buf.getDouble();
+        record.meanSignup = buf.getDouble();
+        competitors.put(name, record);
+      }
+      log.info("Loaded learned state from " + file + " in "
+               + (System.currentTimeMillis() - start) + " msec: "
+               + customerProfiles.size() + " customers, "
+               + competitors.size() + " competitors");
+    }
+    catch (Exception e) {
+      log.error("Cannot load " + file + ": " + e.toString());
+      clear();
+    }
+    finally {
+      close(raf);
+    }
+  }
+
+  /**
+   * Writes the store to the given file. The data goes to a temporary file
+   * first, which then replaces the original, so a crash never leaves a
+   * half-written store behind.
+   */
+  synchronized void save (File file)
+  {
+    if (null != marketPrice) {
+      marketPrice.fold();
+      marketMWh.fold();
+    }
+    for (Profile profile : customerProfiles.values()) {
+      profile.fold();
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    RandomAccessFile raf = null;
+    try {
+      HashMap<String, byte[]> names = new HashMap<String, byte[]>();
+      int priceWeight = (null == marketPrice) ? 0 : marketPrice.weight;
+      long size = 4 * 4 + 4;
+      if (priceWeight > 0)
+        size += 2 * 8 * slots;
+      size += 4;
+      for (String key : customerProfiles.keySet()) {
+        byte[] bytes = key.getBytes(UTF8);
+        names.put(key, bytes);
+        size += 4 + bytes.length + 4 + 8 * slots;
+      }
+      size += 4;
+      for (String name : competitors.keySet()) {
+        byte[] bytes = name.getBytes(UTF8);
+        names.put(name, bytes);
+        size += 4 + bytes.length + 4 + 4 * 8;
+      }
+
+      tmp.delete();
+      raf = new RandomAccessFile(tmp, "rw");
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer buf =
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buf.putInt(MAGIC);
+      buf.putInt(VERSION);
+      buf.putInt(slots);
+      buf.putInt(priceWeight);
+      if (priceWeight > 0) {
+        writeDoubles(buf, marketPrice.values);
+        writeDoubles(buf, marketMWh.values);
+      }
+      buf.putInt(customerProfiles.size());
+      for (Map.Entry<String, Profile> entry : customerProfiles.entrySet()) {
+        writeBytes(buf, names.get(entry.getKey()));
+        buf.putInt(entry.getValue().weight);
+        writeDoubles(buf, entry.getValue().values);
+      }
+      buf.putInt(competitors.size());
+      for (Map.Entry<String, CompetitorRecord> entry : competitors.entrySet()) {
+        CompetitorRecord record = entry.getValue();
+        writeBytes(buf, names.get(entry.getKey()));
+        buf.putInt(record.tariffCount);
+        buf.putDouble(record.meanRate);
+        buf.putDouble(record.minRate);
+        buf.putDouble(record.maxRate);
+        buf.putDouble(record.meanSignup);
+      }
+      buf.force();
+      close(raf);
+      raf = null;
+      if (file.exists() && !file.delete())
+        log.warn("Cannot replace " + file);
+      if (!tmp.renameTo(file))
+        log.error("Cannot rename " + tmp + " to " + file);
+      else
+        log.info("Saved learned state to " + file);
+    }
+    catch (IOException e) {
+      log.error("Cannot save " + file + ": " + e.toString());
+    }
+    finally {
+      close(raf);
+    }
+  }
+
+  private double[] readDoubles (MappedByteBuffer buf)
+  {
+    double[] result = new double[slots];
+    buf.asDoubleBuffer().get(result);
+    buf.position(buf.position() + 8 * slots);
+    return result;
+  }
+
+  private void writeDoubles (MappedByteBuffer buf, double[] values)
+  {
+    buf.asDoubleBuffer().put(values, 0, slots);
+    buf.position(buf.position() + 8 * slots);
+  }
+
+  private String readString (MappedByteBuffer buf)
+  {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private void writeBytes (MappedByteBuffer buf, byte[] bytes)
+  {
+    buf.putInt(bytes.length);
+    buf.put(bytes);
+  }
+
+  private void close (RandomAccessFile raf)
+  {
+    if (null == raf)
+      return;
+    try {
+      raf.close();
+    }
+    catch (IOException e) {
+      log.warn("Error closing state file: " + e.toString());
+    }
+  }
+
+  // -------------- learned models ------------------
+
+  // Profile learned from earlier games, plus the number of games folded
+  // into it and the latest observation from the current game.
+  class Profile
+  {
+    double[] values;
+    int weight;
+    double[] current = null;
+
+    Profile (double[] values, int weight)
+    {
+      super();
+      this.values = values;
+      this.weight = weight;
+    }
+
+    void observe (double[] observed)
+    {
+      if (null == current)
+        current = new double[slots];
+      System.arraycopy(observed, 0, current, 0, slots);
+    }
+
+    // running mean over at most maxWeight games
+    void fold ()
+    {
+      if (null == current)
+        return;
+      int n = Math.min(weight, maxWeight - 1);
+      double scale = 1.0 / (n + 1);
+      for (int i = 0; i < slots; i++) {
+        values[i] = (values[i] * n + current[i]) * scale;
+      }
+      weight = n + 1;
+      current = null;
+    }
+  }
+
+  /**
+   * Summary of the tariffs a competitor has published across games.
+   */
+  public static class CompetitorRecord
+  {
+    int tariffCount = 0;
+    double meanRate = 0.0;
+    double minRate = 0.0;
+    double maxRate = 0.0;
+    double meanSignup = 0.0;
+
+    void add (double rate, double signup)
+    {
+      if (0 == tariffCount) {
+        minRate = rate;
+        maxRate = rate;
+      }
+      else {
+        minRate = Math.min(minRate, rate);
+        maxRate = Math.max(maxRate, rate);
+      }
+      tariffCount += 1;
+      meanRate += (rate - meanRate) / tariffCount;
+      meanSignup += (signup - meanSignup) / tariffCount;
+    }
+
+    public int getTariffCount ()
+    {
+      return tariffCount;
+    }
+
+    public double getMeanRate ()
+    {
+      return meanRate;
+    }
+
+    public double getMinRate ()
+    {
+      return minRate;
+    }
+
+    public double getMaxRate ()
+    {
+      return maxRate;
+    }
+
+    public double getMeanSignup ()
+    {
+      return meanSignup;
+    }
+  }
+}
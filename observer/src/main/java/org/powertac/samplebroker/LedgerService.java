@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.BalancingTransaction;
+import org.powertac.common.BankTransaction;
+import org.powertac.common.DistributionTransaction;
+import org.powertac.common.MarketTransaction;
+import org.powertac.common.TariffTransaction;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.stereotype.Service;
+
+/**
+ * Records every charge to our account, by category and by the timeslot
+ * it was posted in. Entries are appended to primitive columns and never
+ * changed, and totals by category and by timeslot are kept as they
+ * arrive, so they can be read in constant time. Columns grow by doubling,
+ * so recording an entry does not allocate.
+ *
+ * Amounts are from our point of view: positive is a credit, negative a
+ * debit.
+ *
+ * @author agent
+ */
+@Service
+public class LedgerService implements Initializable
+{
+  static private Logger log = Logger.getLogger(LedgerService.class);
+
+  public enum Category
+  {
+    MARKET, BALANCING, DISTRIBUTION, BANK,
+    TARIFF_PUBLISH, TARIFF_PRODUCE, TARIFF_CONSUME, TARIFF_PERIODIC,
+    TARIFF_SIGNUP, TARIFF_WITHDRAW, TARIFF_REVOKE, TARIFF_REFUND
+  }
+
+  private static final int CATEGORIES = Category.values().length;
+  private static final Category[] CATEGORY = Category.values();
+
+  // category of each tariff transaction type
+  private static final Category[] TARIFF_CATEGORY =
+      new Category[TariffTransaction.Type.values().length];
+  static {
+    for (TariffTransaction.Type type : TariffTransaction.Type.values())
+      TARIFF_CATEGORY[type.ordinal()] =
+          Category.valueOf("TARIFF_" + type.name());
+  }
+
+  // the entries
+  private int size = 0;
+  private int[] timeslot = new int[256];
+  private byte[] category = new byte[256];
+  private double[] amount = new double[256];
+  private double[] quantity = new double[256]; // kWh, MWh or none
+
+  // totals by category, the last one being the net, and by timeslot
+  private double[] total = new double[CATEGORIES + 1];
+  private double[] latest = new double[CATEGORIES];
+  private double[] byTimeslot = new double[64 * (CATEGORIES + 1)];
+  private int lastTimeslot = -1;
+
+  public LedgerService ()
+  {
+    super();
+  }
+
+  @Override
+  public synchronized void initialize (BrokerContext context)
+  {
+    size = 0;
+    Arrays.fill(total, 0.0);
+    Arrays.fill(latest, 0.0);
+    Arrays.fill(byTimeslot, 0.0);
+    lastTimeslot = -1;
+  }
+
+  // -------------------- message handlers ---------------------
+
+  public void handleMessage (BankTransaction btx)
+  {
+    record(btx.getPostedTimeslotIndex(), Category.BANK, btx.getAmount(), 0.0);
+  }
+
+  public void handleMessage (BalancingTransaction btx)
+  {
+    record(btx.getPostedTimeslotIndex(), Category.BALANCING, btx.getCharge(),
+           btx.getKWh());
+  }
+
+  public void handleMessage (DistributionTransaction dtx)
+  {
+    record(dtx.getPostedTimeslotIndex(), Category.DISTRIBUTION,
+           dtx.getCharge(), dtx.getKWh());
+  }
+
+  /**
+   * Market prices are negative when we pay, and volumes positive when we
+   * buy, so the charge is the price times the size of the trade.
+   */
+  public void handleMessage (MarketTransaction mtx)
+  {
+    record(mtx.getPostedTimeslotIndex(), Category.MARKET,
+           mtx.getPrice() * Math.abs(mtx.getMWh()), mtx.getMWh());
+  }
+
+  public void handleMessage (TariffTransaction ttx)
+  {
+    record(ttx.getPostedTimeslotIndex(),
+           TARIFF_CATEGORY[ttx.getTxType().ordinal()], ttx.getCharge(),
+           ttx.getKWh());
+  }
+
+  // ------------------------ recording -------------------------
+
+  /**
+   * Appends an entry and adds it to the totals.
+   */
+  synchronized void record (int ts, Category cat, double charge, double qty)
+  {
+    if (ts < 0) {
+      log.warn("charge " + charge + " of " + cat + " has no timeslot");
+      ts = Math.max(0, lastTimeslot);
+    }
+    if (size == timeslot.length) {
+      int length = size * 2;
+      timeslot = Arrays.copyOf(timeslot, length);
+      category = Arrays.copyOf(category, length);
+      amount = Arrays.copyOf(amount, length);
+      quantity = Arrays.copyOf(quantity, length);
+    }
+    timeslot[size] = ts;
+    category[size] = (byte)cat.ordinal();
+    amount[size] = charge;
+    quantity[size] = qty;
+    size += 1;
+
+    int needed = (ts + 1) * (CATEGORIES + 1);
+    if (needed > byTimeslot.length)
+      byTimeslot = Arrays.copyOf(byTimeslot,
+                                 Math.max(needed, byTimeslot.length * 2));
+    byTimeslot[ts * (CATEGORIES + 1) + cat.ordinal()] += charge;
+    byTimeslot[ts * (CATEGORIES + 1) + CATEGORIES] += charge;
+    total[cat.ordinal()] += charge;
+    total[CATEGORIES] += charge;
+    latest[cat.ordinal()] = charge;
+    lastTimeslot = Math.max(lastTimeslot, ts);
+  }
+
+  // ------------------------- queries --------------------------
+
+  synchronized int size ()
+  {
+    return size;
+  }
+
+  /**
+   * Total of all charges in the category so far.
+   */
+  synchronized double getTotal (Category cat)
+  {
+    return total[cat.ordinal()];
+  }
+
+  /**
+   * Total of all charges so far.
+   */
+  synchronized double getNetTotal ()
+  {
+    return total[CATEGORIES];
+  }
+
+  /**
+   * Total of the charges in the category posted in the timeslot.
+   */
+  synchronized double getTotal (int ts, Category cat)
+  {
+    int index = ts * (CATEGORIES + 1) + cat.ordinal();
+    return (ts < 0 || index >= byTimeslot.length) ? 0.0 : byTimeslot[index];
+  }
+
+  /**
+   * Total of all charges posted in the timeslot.
+   */
+  synchronized double getNet (int ts)
+  {
+    int index = ts * (CATEGORIES + 1) + CATEGORIES;
+    return (ts < 0 || index >= byTimeslot.length) ? 0.0 : byTimeslot[index];
+  }
+
+  /**
+   * The latest charge in the category, zero if there has been none.
+   */
+  synchronized double getLatest (Category cat)
+  {
+    return latest[cat.ordinal()];
+  }
+
+  /**
+   * Latest timeslot with a charge, -1 if none.
+   */
+  synchronized int getLastTimeslot ()
+  {
+    return lastTimeslot;
+  }
+
+  // entries, for inspection
+  synchronized int getTimeslot (int entry)
+  {
+    return timeslot[entry];
+  }
+
+  synchronized Category getCategory (int entry)
+  {
+    return CATEGORY[category[entry]];
+  }
+
+  synchronized double getAmount (int entry)
+  {
+    return amount[entry];
+  }
+
+  synchronized double getQuantity (int entry)
+  {
+    return quantity[entry];
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from long keys to non-negative int values. Lookups
+ * do not box their keys, so they allocate nothing.
+ *
+ * @author agent
+ */
+class LongIntMap
+{
+  static final int NONE = -1;
+
+  private long[] keys;
+  private int[] values; // NONE marks an empty cell
+  private int size = 0;
+
+  LongIntMap (int expected)
+  {
+    super();
+    int capacity = 16;
+    while (capacity < expected * 2)
+      capacity <<= 1;
+    keys = new long[capacity];
+    values = new int[capacity];
+    Arrays.fill(values, NONE);
+  }
+
+  /**
+   * Returns the value stored for key, or NONE.
+   */
+  int get (long key)
+  {
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (values[i] != NONE) {
+      if (keys[i] == key)
+        return values[i];
+      i = (i + 1) & mask;
+    }
+    return NONE;
+  }
+
+  /**
+   * Stores a non-negative value for key, replacing any earlier value.
+   */
+  void put (long key, int value)
+  {
+    if ((size + 1) * 2 > keys.length)
+      grow();
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (values[i] != NONE) {
+      if (keys[i] == key) {
+        values[i] = value;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+    size += 1;
+  }
+
+  int size ()
+  {
+    return size;
+  }
+
+  private void grow ()
+  {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldValues.length * 2];
+    Arrays.fill(values, NONE);
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != NONE)
+        put(oldKeys[i], oldValues[i]);
+    }
+  }
+
+  private static int hash (long key)
+  {
+    long h = key * 0x9e3779b97f4a7c15L;
+    return (int)(h ^ (h >>> 32));
+  }
+}
@@ -16,7 +16,7 @@
 package org.powertac.samplebroker;
 
 //import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
 
 import org.apache.log4j.Logger;
@@ -65,6 +65,12 @@ implements MarketManager, Initializable, Activatable
   @Autowired
   private PortfolioManager portfolioManager;
 
+  @Autowired
+  private LearnedStateStore learnedStateStore;
+
+  @Autowired
+  private TimeIndexService timeIndexService;
+
   // ------------ Configurable parameters --------------
   // max and min offer prices. Max means "sure to trade"
   @ConfigurableValue(valueType = "Double",
@@ -87,17 +93,58 @@ implements MarketManager, Initializable, Activatable
           description = "Minimum bid/ask quantity in MWh")
   private double minMWh = 0.001; // don't worry about 1 KWh or less
 
+  @ConfigurableValue(valueType = "Integer",
+          description = "Number of delivery timeslots of cleared trades kept")
+  private int tradeHistory = 14 * 24;
+
+  @ConfigurableValue(valueType = "Double",
+          description = "Weight of each new cleared price in the forecast")
+  private double forecastWeight = 0.1;
+
+  @ConfigurableValue(valueType = "Double",
+          description = "Least price spread around the forecast, as a fraction")
+  private double minPriceSpread = 0.1;
+
+  @ConfigurableValue(valueType = "Double",
+          description = "Price change per MWh we trade, as a fraction")
+  private double priceImpact = 0.01;
+
+  @ConfigurableValue(valueType = "Double",
+          description = "Premium for energy left to the balancing market, as a fraction")
+  private double balancingPremium = 0.5;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "Timeslots between bidding policy updates")
+  private int policyInterval = 24;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "Number of past timeslots of weather kept")
+  private int weatherHistory = 24;
+
   // ---------------- local state ------------------
   private Random randomGen = new Random(); // to randomize bid/ask prices
 
   // Bid recording
-  private HashMap<Integer, Order> lastOrder;
+  private OrderTracker orders;
   private double[] marketMWh;
   private double[] marketPrice;
   private double meanMarketPrice = 0.0;
 
-  //private HashMap<Integer, ArrayList<MarketTransaction>> marketTxMap;
-  //private ArrayList<WeatherReport> weather;
+  // Cleared trades, and prices by timeslot of the week and lead time
+  private ClearedTradeStore clearedTrades;
+  private PriceForecaster priceForecaster;
+
+  // Latest orderbook of each open timeslot
+  private OrderbookCache orderbooks;
+
+  // Limit prices, solved in the background
+  private BiddingPolicy biddingPolicy;
+  private int policySolved = -1; // timeslot of the latest update
+
+  // Forecast and observed weather by timeslot
+  private WeatherStore weather;
+
+  //private Map<Integer, ArrayList<MarketTransaction>> marketTxMap;
 
   public MarketManagerService ()
   {
@@ -112,12 +159,45 @@ implements MarketManager, Initializable, Activatable
   public void initialize (BrokerContext broker)
   {
     this.broker = broker;
-    lastOrder = new HashMap<Integer, Order>();
     propertiesService.configureMe(this);
+    createMarketState(7 * 24, 25);
     //marketTxMap = new HashMap<Integer, ArrayList<MarketTransaction>>();
-    //weather = new ArrayList<WeatherReport>();
   }
   
+  // Starts the game with the price profile learned in earlier games,
+  // if there is one. MarketBootstrapData will replace it.
+  // Called from the Competition handler, after all services are initialized.
+  private void loadMarketProfile ()
+  {
+    if (!learnedStateStore.hasMarketProfile())
+      return;
+    marketMWh = new double[broker.getUsageRecordLength()];
+    marketPrice = new double[broker.getUsageRecordLength()];
+    learnedStateStore.copyMarketProfile(marketPrice, marketMWh);
+    double totalUsage = 0.0;
+    double totalValue = 0.0;
+    for (int i = 0; i < marketPrice.length; i++) {
+      totalUsage += marketMWh[i];
+      totalValue += marketPrice[i] * marketMWh[i];
+    }
+    if (totalUsage != 0.0)
+      meanMarketPrice = totalValue / totalUsage;
+  }
+
+  // Sizes the market records and forecaster for the game
+  private synchronized void createMarketState (int weekSlots, int leads)
+  {
+    orders = new OrderTracker(leads + 1, minMWh);
+    clearedTrades = new ClearedTradeStore(tradeHistory, leads);
+    priceForecaster = new PriceForecaster(weekSlots, leads, forecastWeight);
+    orderbooks = new OrderbookCache(leads + 1);
+    weather = new WeatherStore(leads + weatherHistory + 1, leads);
+    if (null != biddingPolicy)
+      biddingPolicy.shutdown();
+    biddingPolicy = new BiddingPolicy(leads);
+    policySolved = -1;
+  }
+
   // ----------------- data access -------------------
   /**
    * Returns the mean price observed in the market
@@ -127,16 +207,90 @@ implements MarketManager, Initializable, Activatable
   {
     return meanMarketPrice;
   }
+
+  /**
+   * Returns the expected market price per MWh in each usage-record slot,
+   * or null if there is none. Slots take the forecast from cleared trades
+   * where there is one, and the price from bootstrap data or an earlier
+   * game otherwise.
+   */
+  @Override
+  public synchronized double[] getPriceProfile ()
+  {
+    double[] result = new double[broker.getUsageRecordLength()];
+    boolean known = false;
+    for (int i = 0; i < result.length; i++) {
+      double forecast = priceForecaster.forecast(timeIndexService.slotOfWeek(i));
+      if (!Double.isNaN(forecast)) {
+        result[i] = forecast;
+        known = true;
+      }
+      else if (null != marketPrice) {
+        result[i] = marketPrice[i % marketPrice.length];
+        known = true;
+      }
+      else
+        result[i] = meanMarketPrice;
+    }
+    return known ? result : null;
+  }
+
+  /**
+   * Returns the expected clearing price per MWh for the given timeslot
+   * when traded the given number of timeslots ahead, NaN if unknown.
+   */
+  synchronized double getPriceForecast (int timeslot, int lead)
+  {
+    double result =
+        priceForecaster.forecast(timeIndexService.slotOfWeek(timeslot), lead);
+    if (Double.isNaN(result) && null != marketPrice)
+      result = marketPrice[timeIndexService.slotIndex(timeslot)
+                           % marketPrice.length];
+    return result;
+  }
+
+  ClearedTradeStore getClearedTrades ()
+  {
+    return clearedTrades;
+  }
+
+  /**
+   * Copies the best known weather for each of the timeslots into dest,
+   * WeatherStore.FEATURES values per timeslot, NaN where unknown.
+   * Returns the number of timeslots with known weather.
+   */
+  @Override
+  public synchronized int copyWeather (int[] timeslots, double[] dest)
+  {
+    return weather.copyFeatures(timeslots, dest);
+  }
+
+  OrderTracker getOrders ()
+  {
+    return orders;
+  }
+
+  OrderbookCache getOrderbooks ()
+  {
+    return orderbooks;
+  }
   
   // --------------- message handling -----------------
   /**
    * Handles the Competition instance that arrives at beginning of game.
    * Here we capture minimum order size to avoid running into the limit
-   * and generating unhelpful error messages.
+   * and generating unhelpful error messages. We also pick up the price
+   * profile learned in earlier games, to have something to work with
+   * until the bootstrap data arrives.
    */
   public void handleMessage (Competition comp)
   {
     minMWh = Math.max(minMWh, comp.getMinimumOrderQuantity());
+    createMarketState(Math.max(1, TimeIndexService.MINUTES_PER_WEEK
+                                  / comp.getTimeslotLength()),
+                      comp.getTimeslotsOpen()
+                      + comp.getDeactivateTimeslotsAhead());
+    loadMarketProfile();
   }
 
   /**
@@ -148,11 +302,18 @@ implements MarketManager, Initializable, Activatable
   }
 
   /**
-   * Handles a ClearedTrade message - this is where you would want to keep
-   * track of market prices.
+   * Handles a ClearedTrade message. We keep the price and volume by
+   * delivery timeslot and lead time, and update the price forecast.
    */
   public synchronized void handleMessage (ClearedTrade ct)
   {
+    int timeslot = ct.getTimeslotIndex();
+    int lead = timeslot
+        - timeIndexService.timeslotIndex(ct.getDateExecuted().getMillis());
+    if (clearedTrades.record(timeslot, lead, ct.getExecutionPrice(),
+                             ct.getExecutionMWh()))
+      priceForecaster.update(timeIndexService.slotOfWeek(timeslot), lead,
+                             ct.getExecutionPrice());
   }
   
   /**
@@ -193,6 +354,7 @@ implements MarketManager, Initializable, Activatable
       }
     }
     meanMarketPrice = totalValue / totalUsage;
+    learnedStateStore.updateMarketProfile(marketPrice, marketMWh);
   }
 
   /**
@@ -205,32 +367,31 @@ implements MarketManager, Initializable, Activatable
   }
   
   /**
-   * Receives a new MarketTransaction. We look to see whether an order we
-   * have placed has cleared.
+   * Receives a new MarketTransaction, and adds it to the fills of the
+   * order it reports on. Price escalation stops when an order is filled.
    */
   public synchronized void handleMessage (MarketTransaction tx)
   {
-    // reset price escalation when a trade fully clears.
-    Order lastTry = lastOrder.get(tx.getTimeslotIndex());
-    if (lastTry == null) // should not happen
-      log.error("order corresponding to market tx " + tx + " is null");
-    else if (tx.getMWh() == lastTry.getMWh()) // fully cleared
-      lastOrder.put(tx.getTimeslotIndex(), null);
+    if (!orders.fill(tx.getTimeslotIndex(), tx.getMWh())) // should not happen
+      log.error("no order corresponding to market tx " + tx);
   }
   
   /**
-   * Receives the market orderbooks
+   * Receives the market orderbooks, and keeps the depth of each until its
+   * timeslot closes.
    */
   public synchronized void handleMessage (Orderbook orderbook)
   {
-    // implement something here.
+    orderbooks.update(orderbook);
   }
   
   /**
-   * Receives a new WeatherForecast.
+   * Receives a new WeatherForecast, and keeps each prediction against its
+   * target timeslot.
    */
   public synchronized void handleMessage (WeatherForecast forecast)
   {
+    weather.record(forecast);
   }
 
   /**
@@ -238,6 +399,7 @@ implements MarketManager, Initializable, Activatable
    */
   public synchronized void handleMessage (WeatherReport report)
   {
+    weather.record(report);
   }
 
   // ----------- per-timeslot activation ---------------
@@ -250,13 +412,54 @@ implements MarketManager, Initializable, Activatable
   @Override
   public synchronized void activate (int timeslotIndex)
   {
-    double neededKWh = 0.0;
     log.debug("Current timeslot is " + timeslotRepo.currentTimeslot().getSerialNumber());
-    for (Timeslot timeslot : timeslotRepo.enabledTimeslots()) {
-      int index = (timeslot.getSerialNumber()) % broker.getUsageRecordLength();
-      neededKWh = portfolioManager.collectUsage(index);
-      submitOrder(neededKWh, timeslot.getSerialNumber());
+    List<Timeslot> enabled = timeslotRepo.enabledTimeslots();
+    if (!enabled.isEmpty()) {
+      orders.expireBefore(enabled.get(0).getSerialNumber());
+      orderbooks.expireBefore(enabled.get(0).getSerialNumber());
+    }
+    weather.evictBefore(timeslotIndex - weatherHistory);
+    int[] indices = new int[enabled.size()];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = timeIndexService.slotIndex(enabled.get(i).getSerialNumber());
+    }
+    double[] neededKWh = portfolioManager.collectUsage(timeslotIndex,
+                                                       indices);
+    for (int i = 0; i < indices.length; i++) {
+      submitOrder(neededKWh[i], enabled.get(i).getSerialNumber());
+    }
+    if (policySolved < 0 || timeslotIndex - policySolved >= policyInterval) {
+      biddingPolicy.start(policyModel(timeslotIndex));
+      policySolved = timeslotIndex;
+    }
+  }
+
+  // The price spread in each hour of the day, from the forecaster over
+  // the coming week. Hours with no prices yet take the mean of the others.
+  private BiddingPolicy.Model policyModel (int timeslotIndex)
+  {
+    double[] spread = new double[BiddingPolicy.HOURS];
+    int[] count = new int[BiddingPolicy.HOURS];
+    double total = 0.0;
+    int known = 0;
+    for (int i = 0; i < priceForecaster.getWeekSlots(); i++) {
+      int slot = timeIndexService.slotOfWeek(timeslotIndex + i);
+      double forecast = priceForecaster.forecast(slot);
+      if (Double.isNaN(forecast) || forecast <= 0.0)
+        continue;
+      double ratio = priceForecaster.deviation(slot) / forecast;
+      int hour = timeIndexService.hourOfDay(timeslotIndex + i);
+      spread[hour] += ratio;
+      count[hour] += 1;
+      total += ratio;
+      known += 1;
+    }
+    double fallback = (known > 0) ? total / known : minPriceSpread;
+    for (int h = 0; h < spread.length; h++) {
+      spread[h] = (count[h] > 0) ? spread[h] / count[h] : fallback;
+      spread[h] = Math.max(minPriceSpread, spread[h]);
     }
+    return new BiddingPolicy.Model(spread, priceImpact, balancingPremium);
   }
 
   /**
@@ -278,12 +481,17 @@ implements MarketManager, Initializable, Activatable
     log.info("new order for " + neededMWh + " at " + limitPrice +
              " in timeslot " + timeslot);
     Order order = new Order(broker.getBroker(), timeslot, neededMWh, limitPrice);
-    lastOrder.put(timeslot, order);
+    orders.submit(timeslot, neededMWh, limitPrice);
     broker.sendMessage(order);
   }
 
   /**
-   * Computes a limit price with a random element. 
+   * Computes a limit price with a random element. Where there is a price
+   * forecast, the range starts just inside the forecast and ends a couple
+   * of deviations beyond it, within the configured limits. Where the
+   * last orderbook had the depth, the range stops a little beyond the
+   * price that would have filled the order. Once the bidding policy has
+   * been solved, it sets the price within that range.
    */
   private Double computeLimitPrice (int timeslot,
                                     double amountNeeded)
@@ -303,25 +511,64 @@ implements MarketManager, Initializable, Activatable
       oldLimitPrice = sellLimitPriceMax;
       minPrice = sellLimitPriceMin;
     }
-    // check for escalation
-    Order lastTry = lastOrder.get(timeslot);
-    if (lastTry != null)
-      log.debug("lastTry: " + lastTry.getMWh() +
-                " at " + lastTry.getLimitPrice());
-    if (lastTry != null
-        && Math.signum(amountNeeded) == Math.signum(lastTry.getMWh())) {
-      oldLimitPrice = lastTry.getLimitPrice();
-      log.debug("old limit price: " + oldLimitPrice);
+    int current = timeslotRepo.currentSerialNumber();
+    int lead = timeslot - current;
+    double forecast = getPriceForecast(timeslot, lead);
+    if (!Double.isNaN(forecast) && forecast > 0.0) {
+      double spread =
+          priceForecaster.deviation(timeIndexService.slotOfWeek(timeslot), lead);
+      if (Double.isNaN(spread) || spread < minPriceSpread * forecast)
+        spread = minPriceSpread * forecast;
+      if (amountNeeded > 0.0) {
+        oldLimitPrice = Math.max(buyLimitPriceMin,
+                                 Math.min(buyLimitPriceMax, spread - forecast));
+        minPrice = Math.min(oldLimitPrice,
+                            Math.max(buyLimitPriceMin,
+                                     -forecast - 2.0 * spread));
+      }
+      else {
+        oldLimitPrice = Math.max(sellLimitPriceMin,
+                                 Math.min(sellLimitPriceMax, forecast + spread));
+        minPrice = Math.min(oldLimitPrice,
+                            Math.max(sellLimitPriceMin,
+                                     forecast - 2.0 * spread));
+      }
+    }
+    double quote = orderbooks.priceFor(timeslot, amountNeeded);
+    if (!Double.isNaN(quote)) {
+      double bound = (amountNeeded > 0.0) ? -quote * (1.0 + minPriceSpread)
+          : quote * (1.0 - minPriceSpread);
+      minPrice = Math.min(oldLimitPrice, Math.max(minPrice, bound));
+    }
+    // check for escalation: the last order on the same side is not filled
+    if (orders.isOpen(timeslot)) {
+      log.debug("lastTry: " + orders.getOrderedMWh(timeslot) +
+                " at " + orders.getLimitPrice(timeslot) +
+                ", filled " + orders.getFilledMWh(timeslot));
+      if (Math.signum(amountNeeded)
+              == Math.signum(orders.getOrderedMWh(timeslot))
+          && !Double.isNaN(orders.getLimitPrice(timeslot))) {
+        oldLimitPrice = orders.getLimitPrice(timeslot);
+        log.debug("old limit price: " + oldLimitPrice);
+      }
     }
 
     // set price between oldLimitPrice and maxPrice, according to number of
     // remaining chances we have to get what we need.
     double newLimitPrice = minPrice; // default value
-    int current = timeslotRepo.currentSerialNumber();
     int remainingTries = (timeslot - current
-                          - Competition.currentCompetition().getDeactivateTimeslotsAhead());
+                          - timeIndexService.getDeactivateTimeslotsAhead());
     log.debug("remainingTries: " + remainingTries);
     if (remainingTries > 0) {
+      BiddingPolicy.Table policy = biddingPolicy.getTable();
+      if (null != policy && !Double.isNaN(forecast) && forecast > 0.0) {
+        double ratio = policy.getRatio(timeIndexService.hourOfDay(timeslot),
+                                       remainingTries, amountNeeded);
+        double price = (amountNeeded > 0.0) ? -forecast * ratio
+            : forecast * ratio;
+        log.debug("policy price=" + price + ", ratio=" + ratio);
+        return Math.max(newLimitPrice, price);
+      }
       double range = (minPrice - oldLimitPrice) * 2.0 / (double)remainingTries;
       log.debug("oldLimitPrice=" + oldLimitPrice + ", range=" + range);
       double computedPrice = oldLimitPrice + randomGen.nextDouble() * range; 
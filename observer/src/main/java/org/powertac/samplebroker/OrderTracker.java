@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+
+/**
+ * State of our latest wholesale order in each open timeslot. An order
+ * is submitted, then partially or fully filled by the market
+ * transactions reporting on it, and expires with its timeslot. Fills
+ * are added up until they reach the ordered volume, within a tolerance,
+ * so an order filled in pieces is still seen as filled.
+ *
+ * Orders are kept in a ring indexed by timeslot, so memory is fixed
+ * however long the game runs. An expired order stays readable until a
+ * later timeslot takes its row.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class OrderTracker
+{
+  enum State { SUBMITTED, PARTIAL, FILLED, EXPIRED }
+
+  private final int capacity;
+  private final double tolerance; // MWh
+
+  private final int[] timeslot; // of each row, -1 for none
+  private final State[] state;
+  private final double[] orderedMWh;
+  private final double[] filledMWh; // for the latest order
+  private final double[] totalMWh; // over all orders for the timeslot
+  private final double[] limitPrice; // NaN for a market order
+
+  private int firstOpen = 0;
+
+  OrderTracker (int capacity, double tolerance)
+  {
+    super();
+    this.capacity = capacity;
+    this.tolerance = tolerance;
+    timeslot = new int[capacity];
+    Arrays.fill(timeslot, -1);
+    state = new State[capacity];
+    orderedMWh = new double[capacity];
+    filledMWh = new double[capacity];
+    totalMWh = new double[capacity];
+    limitPrice = new double[capacity];
+  }
+
+  /**
+   * Records a new order for the timeslot, replacing the previous one.
+   * A null limit price is a market order.
+   */
+  void submit (int ts, double mwh, Double price)
+  {
+    int row = ts % capacity;
+    if (timeslot[row] != ts) {
+      timeslot[row] = ts;
+      totalMWh[row] = 0.0;
+    }
+    state[row] = State.SUBMITTED;
+    orderedMWh[row] = mwh;
+    filledMWh[row] = 0.0;
+    limitPrice[row] = (null == price) ? Double.NaN : price;
+  }
+
+  /**
+   * Adds a fill for the timeslot. Returns false if we have no order
+   * there.
+   */
+  boolean fill (int ts, double mwh)
+  {
+    int row = ts % capacity;
+    if (timeslot[row] != ts)
+      return false;
+    filledMWh[row] += mwh;
+    totalMWh[row] += mwh;
+    if (State.EXPIRED != state[row]) {
+      state[row] =
+          (Math.abs(filledMWh[row]) >= Math.abs(orderedMWh[row]) - tolerance)
+          ? State.FILLED : State.PARTIAL;
+    }
+    return true;
+  }
+
+  /**
+   * Expires the orders of timeslots before the given one, which have
+   * closed.
+   */
+  void expireBefore (int firstOpenTimeslot)
+  {
+    if (firstOpenTimeslot <= firstOpen)
+      return;
+    firstOpen = firstOpenTimeslot;
+    for (int row = 0; row < capacity; row++) {
+      if (timeslot[row] >= 0 && timeslot[row] < firstOpen
+          && State.FILLED != state[row])
+        state[row] = State.EXPIRED;
+    }
+  }
+
+  /**
+   * State of the latest order for the timeslot, null if there is none.
+   */
+  State getState (int ts)
+  {
+    int row = ts % capacity;
+    return (timeslot[row] == ts) ? state[row] : null;
+  }
+
+  /**
+   * True if the latest order for the timeslot is still waiting for all
+   * or part of its volume.
+   */
+  boolean isOpen (int ts)
+  {
+    State s = getState(ts);
+    return State.SUBMITTED == s || State.PARTIAL == s;
+  }
+
+  /**
+   * Volume of the latest order for the timeslot, zero if none.
+   */
+  double getOrderedMWh (int ts)
+  {
+    int row = ts % capacity;
+    return (timeslot[row] == ts) ? orderedMWh[row] : 0.0;
+  }
+
+  /**
+   * Volume filled so far of the latest order for the timeslot.
+   */
+  double getFilledMWh (int ts)
+  {
+    int row = ts % capacity;
+    return (timeslot[row] == ts) ? filledMWh[row] : 0.0;
+  }
+
+  /**
+   * Volume filled over all our orders for the timeslot.
+   */
+  double getTotalMWh (int ts)
+  {
+    int row = ts % capacity;
+    return (timeslot[row] == ts) ? totalMWh[row] : 0.0;
+  }
+
+  /**
+   * Limit price of the latest order for the timeslot, NaN for a market
+   * order or none.
+   */
+  double getLimitPrice (int ts)
+  {
+    int row = ts % capacity;
+    return (timeslot[row] == ts) ? limitPrice[row] : Double.NaN;
+  }
+}
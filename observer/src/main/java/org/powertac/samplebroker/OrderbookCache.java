@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+
+import org.powertac.common.Orderbook;
+import org.powertac.common.OrderbookOrder;
+
+/**
+ * The latest orderbook of each open timeslot, kept as depth curves: the
+ * uncleared asks from cheapest up and the uncleared bids from highest
+ * down, each with the cumulative volume on offer at or better than its
+ * price. Questions like "what price would have bought X MWh" are then a
+ * binary search.
+ *
+ * Books are kept in a ring indexed by timeslot, with arrays that are
+ * reused from one book to the next. A book expires when its timeslot
+ * closes. Prices are per MWh and positive on both sides; market orders
+ * carry no price and are left out of the curves.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class OrderbookCache
+{
+  private final int capacity;
+
+  private final int[] timeslot; // of each row, -1 for none
+  private final double[] clearingPrice;
+  private final double[][] askPrice; // ascending
+  private final double[][] askDepth; // cumulative MWh
+  private final int[] askCount;
+  private final double[][] bidPrice; // descending
+  private final double[][] bidDepth;
+  private final int[] bidCount;
+
+  private int firstOpen = 0;
+
+  OrderbookCache (int capacity)
+  {
+    super();
+    this.capacity = capacity;
+    timeslot = new int[capacity];
+    Arrays.fill(timeslot, -1);
+    clearingPrice = new double[capacity];
+    askPrice = new double[capacity][8];
+    askDepth = new double[capacity][8];
+    askCount = new int[capacity];
+    bidPrice = new double[capacity][8];
+    bidDepth = new double[capacity][8];
+    bidCount = new int[capacity];
+  }
+
+  /**
+   * Replaces the book for the orderbook's timeslot. Books for timeslots
+   * that have already closed are ignored.
+   */
+  void update (Orderbook orderbook)
+  {
+    int ts = orderbook.getTimeslotIndex();
+    if (ts < firstOpen)
+      return;
+    int row = ts % capacity;
+    timeslot[row] = ts;
+    Double clearing = orderbook.getClearingPrice();
+    clearingPrice[row] = (null == clearing) ? Double.NaN : Math.abs(clearing);
+
+    int n = 0;
+    for (OrderbookOrder order : orderbook.getAsks()) {
+      if (null == order.getLimitPrice())
+        continue;
+      ensureCapacity(askPrice, askDepth, row, n + 1);
+      n = insert(askPrice[row], askDepth[row], n, order.getLimitPrice(),
+                 Math.abs(order.getMWh()), 1.0);
+    }
+    askCount[row] = accumulate(askDepth[row], n);
+
+    n = 0;
+    for (OrderbookOrder order : orderbook.getBids()) {
+      if (null == order.getLimitPrice())
+        continue;
+      ensureCapacity(bidPrice, bidDepth, row, n + 1);
+      n = insert(bidPrice[row], bidDepth[row], n, -order.getLimitPrice(),
+                 Math.abs(order.getMWh()), -1.0);
+    }
+    bidCount[row] = accumulate(bidDepth[row], n);
+  }
+
+  // Inserts into the first n entries kept in order of price * direction,
+  // and returns the new count. Books are short, and usually sorted.
+  private int insert (double[] prices, double[] volumes, int n,
+                      double price, double volume, double direction)
+  {
+    int i = n;
+    while (i > 0 && prices[i - 1] * direction > price * direction) {
+      prices[i] = prices[i - 1];
+      volumes[i] = volumes[i - 1];
+      i -= 1;
+    }
+    prices[i] = price;
+    volumes[i] = volume;
+    return n + 1;
+  }
+
+  private int accumulate (double[] volumes, int n)
+  {
+    for (int i = 1; i < n; i++)
+      volumes[i] += volumes[i - 1];
+    return n;
+  }
+
+  private void ensureCapacity (double[][] prices, double[][] volumes,
+                               int row, int size)
+  {
+    if (prices[row].length < size) {
+      prices[row] = Arrays.copyOf(prices[row], size * 2);
+      volumes[row] = Arrays.copyOf(volumes[row], size * 2);
+    }
+  }
+
+  /**
+   * Drops the books of timeslots before the given one, which have closed.
+   */
+  void expireBefore (int firstOpenTimeslot)
+  {
+    firstOpen = Math.max(firstOpen, firstOpenTimeslot);
+    for (int row = 0; row < capacity; row++) {
+      if (timeslot[row] >= 0 && timeslot[row] < firstOpen)
+        timeslot[row] = -1;
+    }
+  }
+
+  /**
+   * True if there is a book for the given timeslot.
+   */
+  boolean contains (int ts)
+  {
+    return ts >= firstOpen && timeslot[ts % capacity] == ts;
+  }
+
+  /**
+   * Clearing price of the latest book for the timeslot, NaN if it did
+   * not clear or there is no book.
+   */
+  double getClearingPrice (int ts)
+  {
+    if (!contains(ts))
+      return Double.NaN;
+    return clearingPrice[ts % capacity];
+  }
+
+  /**
+   * Price per MWh at which the book would have filled the given volume:
+   * the ask price reaching it when buying (mwh positive), the bid price
+   * reaching it when selling (mwh negative). NaN if there is no book or
+   * not enough depth.
+   */
+  double priceFor (int ts, double mwh)
+  {
+    if (!contains(ts))
+      return Double.NaN;
+    int row = ts % capacity;
+    double[] depth = (mwh > 0.0) ? askDepth[row] : bidDepth[row];
+    int n = (mwh > 0.0) ? askCount[row] : bidCount[row];
+    int index = search(depth, n, Math.abs(mwh), 1.0);
+    if (index >= n)
+      return Double.NaN;
+    return (mwh > 0.0) ? askPrice[row][index] : bidPrice[row][index];
+  }
+
+  /**
+   * Volume on offer at the given price per MWh or better: asks at or
+   * below it when buying, bids at or above it when selling.
+   */
+  double depthAt (int ts, double price, boolean buying)
+  {
+    if (!contains(ts))
+      return 0.0;
+    int row = ts % capacity;
+    double[] prices = buying ? askPrice[row] : bidPrice[row];
+    double[] depth = buying ? askDepth[row] : bidDepth[row];
+    int n = buying ? askCount[row] : bidCount[row];
+    // first entry beyond the price
+    int index = buying ? search(prices, n, Math.nextUp(price), 1.0)
+        : search(prices, n, Math.nextAfter(price, Double.NEGATIVE_INFINITY),
+                 -1.0);
+    return (0 == index) ? 0.0 : depth[index - 1];
+  }
+
+  // First of the n entries whose value, times direction, is at least
+  // target times direction; n if there is none
+  private int search (double[] values, int n, double target,
+                      double direction)
+  {
+    int low = 0;
+    int high = n;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] * direction < target * direction)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+}
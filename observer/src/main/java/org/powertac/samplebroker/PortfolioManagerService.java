@@ -18,28 +18,30 @@ package org.powertac.samplebroker;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-//io
-import java.io.*;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.Collections;
 
 import org.apache.log4j.Logger;
-import org.joda.time.Instant;
 import org.powertac.common.Broker;
-import org.powertac.common.Competition;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.Rate;
-import org.powertac.common.RegulationRate;
 import org.powertac.common.TariffSpecification;
 import org.powertac.common.TariffTransaction;
 import org.powertac.common.TimeService;
 import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.enumerations.PowerType;
-import org.powertac.common.msg.BalancingControlEvent;
-import org.powertac.common.msg.BalancingOrder;
 import org.powertac.common.msg.CustomerBootstrapData;
+import org.powertac.common.msg.SimStart;
 import org.powertac.common.msg.TariffRevoke;
 import org.powertac.common.msg.TariffStatus;
+import org.powertac.common.msg.TimeslotComplete;
 import org.powertac.common.repo.CustomerRepo;
 import org.powertac.common.repo.TariffRepo;
 import org.powertac.common.repo.TimeslotRepo;
@@ -49,6 +51,7 @@ import org.powertac.samplebroker.interfaces.BrokerContext;
 import org.powertac.samplebroker.interfaces.Initializable;
 import org.powertac.samplebroker.interfaces.MarketManager;
 import org.powertac.samplebroker.interfaces.PortfolioManager;
+import org.powertac.samplebroker.interfaces.UsageForecaster;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -91,15 +94,66 @@ implements PortfolioManager, Initializable, Activatable
   @Autowired
   private TimeService timeService;
 
+  @Autowired
+  private LearnedStateStore learnedStateStore;
+
+  @Autowired
+  private TelemetryService telemetry;
+
+  @Autowired
+  private LedgerService ledger;
+
+  @Autowired
+  private BalancingService balancing;
+
+  @Autowired
+  private TimeIndexService timeIndexService;
+
   // ---- Portfolio records -----
-  // Customer records indexed by power type and by tariff. Note that the
-  // CustomerRecord instances are NOT shared between these structures, because
-  // we need to keep track of subscriptions by tariff.
-  private HashMap<PowerType,
-                  HashMap<CustomerInfo, CustomerRecord>> customerProfiles;
-  private HashMap<TariffSpecification, 
-                  HashMap<CustomerInfo, CustomerRecord>> customerSubscriptions;
-  private HashMap<PowerType, List<TariffSpecification>> competingTariffs;
+  // Per-customer usage profiles, indexed by power type and customer, and
+  // our subscriptions, indexed by tariff and profile. Subscriptions share
+  // the profile of their customer.
+  private CustomerUsageStore usageStore;
+
+  // Live tariffs of all brokers, ours included, by id, broker and type,
+  // and running statistics of all but the default broker's
+  private TariffBook tariffBook;
+  private TariffStatistics tariffStatistics;
+
+  // Every tariff event of the game, never pruned
+  private TariffHistory tariffHistory;
+  private static final String DEFAULT_BROKER = "default broker";
+
+  // Message handlers update the records above under the monitor of this
+  // service. Activation and other readers work from the last published
+  // snapshot instead, so a burst of transactions never stalls them.
+  private volatile PortfolioSnapshot snapshot = null;
+
+  // Bootstrap data is queued as it arrives and folded into the usage
+  // store in one parallel pass before the first activation.
+  private ArrayList<PendingBootstrap> pendingBootstrap;
+
+  // Observed usage at hourly, daily and weekly resolution, one series per
+  // profile row and one per power type
+  private UsageHistory customerHistory;
+  private UsageHistory typeHistory;
+
+  // Customers grouped by the shape of their usage profiles. A few rows are
+  // refreshed at each timeslot boundary, round-robin.
+  private CustomerSegmentation segmentation;
+  private int segmentCursor = 0;
+
+  // Predicted split of customers across tariffs, cached per PowerType
+  private TariffChoiceEngine choiceEngine;
+
+  // Background search for time-of-use consumption tariffs
+  private TariffOptimizer tariffOptimizer;
+
+  // Primary and shadow tariff strategies
+  private StrategyEnsemble strategies;
+
+  // highest consumption rate we offer, from the customer's point of view
+  private static final double RATE_CEILING = -0.065;
 
   // Configurable parameters for tariff composition
   // Override defaults in src/main/resources/config/broker.config
@@ -131,6 +185,62 @@ implements PortfolioManager, Initializable, Activatable
    @ConfigurableValue(valueType = "Double",
           description = "lower bound")
   private double lowerbound = 0;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "threads for bootstrap ingestion, 0 for one per processor")
+  private int bootstrapThreads = 0;
+
+  @ConfigurableValue(valueType = "String",
+          description = "UsageForecaster implementation for customer profiles")
+  private String forecasterClass = EwmaUsageForecaster.class.getName();
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "timeslots kept in the hourly usage history")
+  private int historyHours = 14 * 24;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "days kept in the daily usage history")
+  private int historyDays = 13 * 7;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "weeks kept in the weekly usage history")
+  private int historyWeeks = 52;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "number of customer segments")
+  private int segmentCount = 8;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "profile rows re-segmented per timeslot")
+  private int segmentBatch = 64;
+
+  @ConfigurableValue(valueType = "Double",
+          description = "sensitivity of predicted tariff choice to price per kWh")
+  private double choiceRationality = 50.0;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "threads for tariff choice prediction, 0 for one per processor")
+  private int choiceThreads = 0;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "blocks of hours per day in time-of-use tariffs")
+  private int touBlocks = 6;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "msec per time-of-use tariff search, 0 to disable")
+  private int searchBudget = 2000;
+
+  @ConfigurableValue(valueType = "String",
+          description = "tariff strategy whose decisions are published: observer, greedy or sample")
+  private String primaryStrategy = "observer";
+
+  @ConfigurableValue(valueType = "String",
+          description = "comma-separated tariff strategies run in shadow mode")
+  private String shadowStrategies = "greedy,sample";
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "msec the shadow strategies are given each period")
+  private int strategyTimeout = 500;
   
   
 
@@ -153,116 +263,664 @@ implements PortfolioManager, Initializable, Activatable
   {
     this.brokerContext = context;
     propertiesService.configureMe(this);
-    customerProfiles = new HashMap<PowerType,
-        HashMap<CustomerInfo, CustomerRecord>>();
-    customerSubscriptions = new HashMap<TariffSpecification,
-        HashMap<CustomerInfo, CustomerRecord>>();
-    competingTariffs = new HashMap<PowerType, List<TariffSpecification>>();
+    usageStore = new CustomerUsageStore(context.getUsageRecordLength(),
+                                        createForecaster());
+    tariffBook = new TariffBook();
+    tariffStatistics = new TariffStatistics();
+    tariffHistory = new TariffHistory();
+    snapshot = null;
+    pendingBootstrap = new ArrayList<PendingBootstrap>();
+    customerHistory = new UsageHistory(timeIndexService, historyHours,
+                                       historyDays, historyWeeks);
+    typeHistory = new UsageHistory(timeIndexService, historyHours,
+                                   historyDays, historyWeeks);
+    segmentation = new CustomerSegmentation(segmentCount,
+                                            usageStore.getSlots());
+    segmentCursor = 0;
+    if (null != choiceEngine)
+      choiceEngine.shutdown();
+    choiceEngine = new TariffChoiceEngine(choiceRationality, choiceThreads);
+    if (null != tariffOptimizer)
+      tariffOptimizer.shutdown();
+    tariffOptimizer = new TariffOptimizer(timeIndexService, touBlocks,
+                                          searchBudget,
+                                          System.currentTimeMillis());
+    if (null != strategies)
+      strategies.shutdown();
+    strategies = createStrategies();
   }
   
+  // Instantiates the configured forecaster, falling back to the default
+  private UsageForecaster createForecaster ()
+  {
+    try {
+      return (UsageForecaster)Class.forName(forecasterClass).newInstance();
+    }
+    catch (Exception e) {
+      log.error("Cannot create forecaster " + forecasterClass + ": " + e);
+      return new EwmaUsageForecaster();
+    }
+  }
+
+  // Builds the configured strategies, falling back to the observer rules
+  // for an unknown primary
+  private StrategyEnsemble createStrategies ()
+  {
+    TariffStrategy primary = createStrategy(primaryStrategy);
+    if (null == primary)
+      primary = createStrategy("observer");
+    List<TariffStrategy> shadows = new ArrayList<TariffStrategy>();
+    for (String name : StrategyEnsemble.parseNames(shadowStrategies)) {
+      TariffStrategy shadow = createStrategy(name);
+      if (null != shadow)
+        shadows.add(shadow);
+    }
+    return new StrategyEnsemble(primary, shadows, strategyTimeout);
+  }
+
+  private TariffStrategy createStrategy (String name)
+  {
+    if ("observer".equals(name))
+      return new HeuristicTariffStrategy(name, 361, Double.NaN,
+                                         RATE_CEILING);
+    if ("greedy".equals(name))
+      return new HeuristicTariffStrategy(name, 0,
+                                         fixedPerKwh * (1.0 + defaultMargin),
+                                         RATE_CEILING);
+    if ("sample".equals(name))
+      return new SampleTariffStrategy(fixedPerKwh, defaultMargin);
+    log.error("Unknown tariff strategy " + name);
+    return null;
+  }
+
   // -------------- data access ------------------
   
   /**
-   * Returns the CustomerRecord for the given type and customer, creating it
-   * if necessary.
+   * Returns the usage profile row for the given type and customer,
+   * creating it if necessary.
    */
-  CustomerRecord getCustomerRecordByPowerType (PowerType type,
-                                               CustomerInfo customer)
+  int getProfileRow (PowerType type, CustomerInfo customer)
   {
-    HashMap<CustomerInfo, CustomerRecord> customerMap =
-        customerProfiles.get(type);
-    if (customerMap == null) {
-      customerMap = new HashMap<CustomerInfo, CustomerRecord>();
-      customerProfiles.put(type, customerMap);
-    }
-    CustomerRecord record = customerMap.get(customer);
-    if (record == null) {
-      record = new CustomerRecord(customer);
-      customerMap.put(customer, record);
+    int row = usageStore.findRow(type, customer);
+    if (row < 0) {
+      row = usageStore.addRow(type, customer);
+      // start from what we learned in earlier games, if anything
+      double[] learned = new double[usageStore.getSlots()];
+      if (learnedStateStore.copyCustomerProfile(customer.getName(), type,
+                                                learned)) {
+        usageStore.setProfile(row, learned);
+      }
     }
-    return record;
+    return row;
   }
   
   /**
-   * Returns the customer record for the given tariff spec and customer,
-   * creating it if necessary. 
+   * Returns the subscription for the given tariff spec and customer,
+   * creating it if necessary. The subscription shares the generic
+   * profile for this customer.
    */
-  CustomerRecord getCustomerRecordByTariff (TariffSpecification spec,
-                                            CustomerInfo customer)
+  int getSubscription (TariffSpecification spec, CustomerInfo customer)
   {
-    HashMap<CustomerInfo, CustomerRecord> customerMap =
-        customerSubscriptions.get(spec);
-    if (customerMap == null) {
-      customerMap = new HashMap<CustomerInfo, CustomerRecord>();
-      customerSubscriptions.put(spec, customerMap);
-    }
-    CustomerRecord record = customerMap.get(customer);
-    if (record == null) {
-      // seed with the generic record for this customer
-      record =
-          new CustomerRecord(getCustomerRecordByPowerType(spec.getPowerType(),
-                                                          customer));
-      customerMap.put(customer, record);
-    }
-    return record;
+    int row = getProfileRow(spec.getPowerType(), customer);
+    return usageStore.subscription(usageStore.addTariff(spec), row);
   }
   
   /**
-   * Finds the list of competing tariffs for the given PowerType.
+   * Returns the competing tariffs for the given PowerType, best rate
+   * first, as of the last published snapshot.
    */
   List<TariffSpecification> getCompetingTariffs (PowerType powerType)
   {
-    List<TariffSpecification> result = competingTariffs.get(powerType);
-    if (result == null) {
-      result = new ArrayList<TariffSpecification>();
-      competingTariffs.put(powerType, result);
+    return currentSnapshot(-1).getCompetingTariffs(powerType);
+  }
+
+  /**
+   * Returns the compiled form of every live tariff of the given PowerType,
+   * ours included, best rate first, as of the last published snapshot.
+   */
+  List<CompiledTariff> getCompiledTariffs (PowerType powerType)
+  {
+    return currentSnapshot(-1).getCompiledTariffs(powerType);
+  }
+
+  /**
+   * Predicts how the customers of the given PowerType split across its
+   * live tariffs. The prediction is reused until the tariffs change or
+   * the usage profiles are rebuilt, once a day; the work is done outside
+   * the monitor of this service.
+   */
+  TariffChoiceEngine.Prediction predictTariffChoice (PowerType type)
+  {
+    long key;
+    double[] profiles;
+    double[] populations;
+    List<CompiledTariff> tariffs;
+    int slots = usageStore.getSlots();
+    synchronized (this) {
+      key = ((long)tariffBook.getVersion() << 32)
+          | (usageStore.getProfileEpoch() & 0xffffffffL);
+      TariffChoiceEngine.Prediction cached = choiceEngine.getCached(type, key);
+      if (null != cached)
+        return cached;
+      int typeId = usageStore.findPowerTypeId(type);
+      int count = 0;
+      for (int row = 0; row < usageStore.getRowCount(); row++) {
+        if (usageStore.getRowPowerTypeId(row) == typeId)
+          count += 1;
+      }
+      profiles = new double[count * slots];
+      populations = new double[count];
+      double[] profile = new double[slots];
+      int customer = 0;
+      for (int row = 0; row < usageStore.getRowCount(); row++) {
+        if (usageStore.getRowPowerTypeId(row) != typeId)
+          continue;
+        usageStore.copyProfile(row, profile);
+        System.arraycopy(profile, 0, profiles, customer * slots, slots);
+        populations[customer] =
+            usageStore.getRowCustomer(row).getPopulation();
+        customer += 1;
+      }
+      tariffs = tariffBook.getCompiled(type);
+    }
+    return choiceEngine.predict(type, key, profiles, populations, slots,
+                                tariffs);
+  }
+
+  /**
+   * Predicts the subscribers, the revenue and the cost of serving them at
+   * market prices over the usage-record slots, that a candidate tariff
+   * would draw if it were published now.
+   */
+  TariffChoiceEngine.Estimate estimateTariff (TariffSpecification candidate)
+  {
+    CompiledTariff compiled =
+        CompiledTariff.compile(candidate, timeIndexService);
+    return predictTariffChoice(candidate.getPowerType())
+        .evaluate(compiled, supplyCost());
+  }
+
+  /**
+   * Starts a background search for a time-of-use consumption tariff,
+   * against the tariffs and profiles as they are now and the market price
+   * profile, from the given flat rate or the best schedule of the
+   * previous search, whichever does better. The next createTariffs()
+   * weighs what the search has found against its own flat rate.
+   */
+  private void startTariffSearch (final double startRate)
+  {
+    if (searchBudget <= 0)
+      return;
+    final TariffOptimizer.Schedule seed = tariffOptimizer.getBest();
+    tariffOptimizer.start(new Callable<TariffOptimizer.Problem>() {
+      @Override
+      public TariffOptimizer.Problem call ()
+      {
+        TariffChoiceEngine.Prediction prediction =
+            predictTariffChoice(PowerType.CONSUMPTION);
+        if (0 == prediction.getCustomerCount())
+          return null;
+        return new TariffOptimizer.Problem(PowerType.CONSUMPTION,
+                                           prediction, supplyCost(),
+                                           startRate, RATE_CEILING, seed);
+      }
+    });
+  }
+
+  // What the strategies see of the period ending now
+  private TariffStrategy.Observation observe (PortfolioSnapshot snap,
+                                              int timeslotIndex)
+  {
+    TariffStatistics.Summary stats = TariffStatistics.EMPTY;
+    if (!snap.getCompetingTariffs(PowerType.CONSUMPTION).isEmpty())
+      stats = snap.getStatistics(PowerType.CONSUMPTION);
+    return new TariffStrategy.Observation(timeslotIndex, CashPos, pubfee,
+                                          stats, snap.signups,
+                                          snap.consumes, snap.withdraws,
+                                          snap.tariffsSeen,
+                                          marketManager.getMeanMarketPrice());
+  }
+
+  // Market cost of a kWh in each usage-record slot; market prices are
+  // per MWh
+  private double[] supplyCost ()
+  {
+    double[] result = marketManager.getPriceProfile();
+    if (null == result) {
+      result = new double[usageStore.getSlots()];
+      Arrays.fill(result, marketManager.getMeanMarketPrice());
+    }
+    for (int i = 0; i < result.length; i++) {
+      result[i] /= 1000.0;
     }
     return result;
   }
 
   /**
-   * Adds a new competing tariff to the list.
+   * Adds a tariff of ours to the book and the repo. Caller must hold the
+   * monitor of this service.
    */
-  private void addCompetingTariff (TariffSpecification spec)
+  private void addOwnTariff (TariffSpecification spec)
   {
-    getCompetingTariffs(spec.getPowerType()).add(spec);
+    usageStore.addTariff(spec);
+    tariffHistory.recordPublication(timeslotRepo.currentSerialNumber(), spec);
+    bookTariff(spec);
+    tariffRepo.addSpecification(spec);
+  }
+
+  // Compiles a tariff and adds it to the book and the statistics, unless
+  // it's there already
+  private void bookTariff (TariffSpecification spec)
+  {
+    if (tariffBook.contains(spec.getId()))
+      return;
+    if (tariffBook.add(spec, CompiledTariff.compile(spec, timeIndexService))
+        && !DEFAULT_BROKER.equals(spec.getBroker().getUsername()))
+      tariffStatistics.add(spec);
+  }
+
+  // Takes a revoked tariff out of the book and the statistics
+  private TariffSpecification unbookTariff (long id)
+  {
+    TariffSpecification spec = tariffBook.remove(id);
+    if (null != spec
+        && !DEFAULT_BROKER.equals(spec.getBroker().getUsername()))
+      tariffStatistics.remove(spec);
+    return spec;
   }
 
   /**
-   * Returns total usage for a given timeslot (represented as a simple index).
+   * Returns the ids of the tariffs of the given type, or of all types if
+   * type is null, that were live at the end of the given timeslot,
+   * including tariffs revoked since.
+   */
+  synchronized long[] getTariffsAsOf (int timeslot, PowerType type)
+  {
+    int[] live = tariffHistory.liveAt(timeslot, type);
+    long[] result = new long[live.length];
+    for (int i = 0; i < live.length; i++) {
+      result[i] = tariffHistory.getTariffId(live[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the mean rate of the tariffs of the given type that a broker
+   * had live at every step timeslots from up to but not including to,
+   * NaN where it had none.
+   */
+  synchronized double[] getRateTrend (String broker, PowerType type,
+                                      int from, int to, int step)
+  {
+    return tariffHistory.rateTrend(broker, type, from, to, step);
+  }
+
+  /**
+   * Returns the number of subscribers one of our tariffs had at the end
+   * of the given timeslot, or -1 if the tariff was never seen.
+   */
+  synchronized int getSubscribersAt (long tariffId, int timeslot)
+  {
+    int tariff = tariffHistory.find(tariffId);
+    return (tariff < 0) ? -1 : tariffHistory.subscribersAt(tariff, timeslot);
+  }
+
+  /**
+   * Returns total usage for a given timeslot (represented as a simple
+   * index), as of the snapshot for the given activation.
+   */
+  @Override
+  public double collectUsage (int timeslotIndex, int index)
+  {
+    PortfolioSnapshot snap = currentSnapshot(timeslotIndex);
+    double result = snap.netUsage[index % snap.netUsage.length];
+    return -result; // convert to needed energy account balance
+  }
+
+  /**
+   * Returns total usage for each of the given timeslot indices, as of the
+   * snapshot for the given activation. A snapshot from an earlier timeslot
+   * is replaced before it is read, so the result does not depend on which
+   * service is activated first.
    */
   @Override
-  public double collectUsage (int index)
+  public double[] collectUsage (int timeslotIndex, int[] indices)
+  {
+    PortfolioSnapshot snap = currentSnapshot(timeslotIndex);
+    double[] result = new double[indices.length];
+    for (int i = 0; i < result.length; i++) {
+      // convert to needed energy account balance
+      result[i] = -snap.netUsage[indices[i] % snap.netUsage.length];
+    }
+    return result;
+  }
+
+  // -------------- snapshots ------------------
+
+  /**
+   * Returns the published snapshot, publishing a fresh one first if there
+   * is none yet or if it is older than the given epoch.
+   */
+  PortfolioSnapshot currentSnapshot (int epoch)
+  {
+    PortfolioSnapshot result = snapshot;
+    if (null == result || result.epoch < epoch) {
+      result = publishSnapshot(Math.max(epoch, 0));
+    }
+    return result;
+  }
+
+  /**
+   * Captures the current portfolio state and makes it visible to readers.
+   * This is the only place readers and writers share the monitor, and it
+   * copies O(slots + subscriptions) values. Any bootstrap data still
+   * queued is ingested first, so the first activation always sees it, and
+   * the batch of usage observations for the ending timeslot is handed to
+   * the forecaster.
+   */
+  synchronized PortfolioSnapshot publishSnapshot (int epoch)
+  {
+    ingestBootstrap();
+    usageStore.flushObservations();
+    if (subsetCount > 0) {
+      log.warn(subsetCount + " usage transactions by a subset of the "
+               + "subscribed population before ts " + epoch);
+      subsetCount = 0;
+    }
+    refreshSegments(segmentBatch);
+    PortfolioSnapshot result = new PortfolioSnapshot(epoch, snapshot);
+    snapshot = result;
+    return result;
+  }
+
+  /**
+   * Re-segments up to count profile rows, continuing where the last call
+   * stopped. Caller must hold the monitor of this service.
+   */
+  private void refreshSegments (int count)
   {
-    double result = 0.0;
-    for (HashMap<CustomerInfo, CustomerRecord> customerMap : customerSubscriptions.values()) {
-      for (CustomerRecord record : customerMap.values()) {
-        result += record.getUsage(index);
+    int rows = usageStore.getRowCount();
+    if (0 == rows)
+      return;
+    double[] profile = new double[usageStore.getSlots()];
+    for (int i = 0; i < Math.min(count, rows); i++) {
+      int row = segmentCursor++ % rows;
+      usageStore.copyProfile(row, profile);
+      segmentation.update(row, profile,
+                          usageStore.getRowCustomer(row).getPopulation());
+    }
+    segmentCursor %= rows;
+  }
+
+  /**
+   * Returns the customer segments as of the last published snapshot.
+   * Strategies can evaluate tariffs per segment instead of per customer.
+   */
+  List<CustomerSegmentation.Segment> getSegments ()
+  {
+    return currentSnapshot(-1).segments;
+  }
+
+  /**
+   * Immutable view of the portfolio as of the end of a timeslot. Parts that
+   * have not changed since the previous snapshot are shared with it.
+   */
+  final class PortfolioSnapshot
+  {
+    final int epoch;
+    final double[] netUsage;
+    final int tariffCount;
+    final int bookVersion;
+    final List<TariffSpecification> ownTariffs;
+    final Map<PowerType, List<TariffSpecification>> competing;
+    final Map<PowerType, TariffStatistics.Summary> statistics;
+    final Map<PowerType, List<CompiledTariff>> compiled;
+    final String[] subscriptionNames;
+    final int[] subscriptionPopulation;
+    final List<CustomerSegmentation.Segment> segments;
+    final int segmentVersion;
+
+    // transaction counts since the counters were last reset
+    final int tariffsSeen;
+    final int signups;
+    final int consumes;
+    final int withdraws;
+
+    // must be called while holding the monitor of the service
+    private PortfolioSnapshot (int epoch, PortfolioSnapshot previous)
+    {
+      super();
+      this.epoch = epoch;
+      netUsage = new double[usageStore.getSlots()];
+      usageStore.copyNetUsage(netUsage);
+      tariffCount = usageStore.getTariffCount();
+      bookVersion = tariffBook.getVersion();
+      if (null != previous && previous.bookVersion == bookVersion) {
+        ownTariffs = previous.ownTariffs;
+        competing = previous.competing;
+        statistics = previous.statistics;
+        compiled = previous.compiled;
+      }
+      else {
+        String me = brokerContext.getBrokerUsername();
+        ownTariffs = Collections.unmodifiableList(tariffBook.getTariffs(me));
+        HashMap<PowerType, List<TariffSpecification>> copy =
+            new HashMap<PowerType, List<TariffSpecification>>();
+        HashMap<PowerType, TariffStatistics.Summary> stats =
+            new HashMap<PowerType, TariffStatistics.Summary>();
+        HashMap<PowerType, List<CompiledTariff>> compiledCopy =
+            new HashMap<PowerType, List<CompiledTariff>>();
+        for (PowerType type : tariffBook.getPowerTypes()) {
+          stats.put(type, tariffStatistics.getSummary(type));
+          compiledCopy.put(type, Collections.unmodifiableList(
+              tariffBook.getCompiled(type)));
+          List<TariffSpecification> list = tariffBook.getTariffs(type);
+          for (Iterator<TariffSpecification> it = list.iterator();
+               it.hasNext(); ) {
+            if (me.equals(it.next().getBroker().getUsername()))
+              it.remove();
+          }
+          copy.put(type, Collections.unmodifiableList(list));
+        }
+        competing = Collections.unmodifiableMap(copy);
+        statistics = Collections.unmodifiableMap(stats);
+        compiled = Collections.unmodifiableMap(compiledCopy);
+      }
+      int subs = usageStore.getSubscriptionCount();
+      if (null != previous && previous.subscriptionNames.length == subs) {
+        subscriptionNames = previous.subscriptionNames;
+      }
+      else {
+        subscriptionNames = new String[subs];
+        int start = 0;
+        if (null != previous) {
+          start = previous.subscriptionNames.length;
+          System.arraycopy(previous.subscriptionNames, 0,
+                           subscriptionNames, 0, start);
+        }
+        for (int sub = start; sub < subs; sub++) {
+          TariffSpecification spec =
+              usageStore.getTariff(usageStore.getSubscriptionTariff(sub));
+          CustomerInfo customer =
+              usageStore.getRowCustomer(usageStore.getSubscriptionRow(sub));
+          subscriptionNames[sub] = customer.getName() + spec.getPowerType();
+        }
+      }
+      subscriptionPopulation = new int[subs];
+      usageStore.copyPopulations(subscriptionPopulation);
+      tariffsSeen = tariff_count;
+      signups = signupCount;
+      consumes = consumeCount;
+      withdraws = withdrawCount;
+      segmentVersion = segmentation.getVersion();
+      if (null != previous && previous.segmentVersion == segmentVersion) {
+        segments = previous.segments;
+      }
+      else {
+        segments = segmentation.getSegments();
       }
     }
-    return -result; // convert to needed energy account balance
+
+    /**
+     * Competing tariffs of the given type, best rate first, never null.
+     */
+    List<TariffSpecification> getCompetingTariffs (PowerType type)
+    {
+      List<TariffSpecification> result = competing.get(type);
+      if (null == result)
+        return Collections.emptyList();
+      return result;
+    }
+
+    /**
+     * Compiled tariffs of the given type, best rate first, never null.
+     */
+    List<CompiledTariff> getCompiledTariffs (PowerType type)
+    {
+      List<CompiledTariff> result = compiled.get(type);
+      if (null == result)
+        return Collections.emptyList();
+      return result;
+    }
+
+    /**
+     * Statistics of the tariffs of the given type, never null.
+     */
+    TariffStatistics.Summary getStatistics (PowerType type)
+    {
+      TariffStatistics.Summary result = statistics.get(type);
+      if (null == result)
+        return TariffStatistics.EMPTY;
+      return result;
+    }
   }
 
   // -------------- Message handlers -------------------
   /**
    * Handles CustomerBootstrapData by populating the customer model 
    * corresponding to the given customer and power type. This gives the
-   * broker a running start.
+   * broker a running start. The data is only queued here; it is folded
+   * into the profiles by ingestBootstrap().
    */
-  public void handleMessage (CustomerBootstrapData cbd)
+  public synchronized void handleMessage (CustomerBootstrapData cbd)
   {
     CustomerInfo customer =
             customerRepo.findByNameAndPowerType(cbd.getCustomerName(),
                                                 cbd.getPowerType());
-    CustomerRecord record = getCustomerRecordByPowerType(cbd.getPowerType(), customer);
-    int offset = (timeslotRepo.currentTimeslot().getSerialNumber()
-                  - cbd.getNetUsage().length);
-    int subs = record.subscribedPopulation;
-    record.subscribedPopulation = customer.getPopulation();
-    for (int i = 0; i < cbd.getNetUsage().length; i++) {
-      record.produceConsume(cbd.getNetUsage()[i], i);
+    int row = getProfileRow(cbd.getPowerType(), customer);
+    // a customer with no population contributes nothing
+    double scale = 0.0;
+    if (customer.getPopulation() > 0)
+      scale = 1.0 / customer.getPopulation();
+    pendingBootstrap.add(new PendingBootstrap(row, cbd.getNetUsage(), scale));
+  }
+
+  /**
+   * Handles the SimStart message, which follows the bootstrap data, by
+   * ingesting whatever bootstrap data has been queued.
+   */
+  public synchronized void handleMessage (SimStart ss)
+  {
+    ingestBootstrap();
+  }
+
+  /**
+   * Folds all queued bootstrap data into the usage store. Rows are split
+   * among worker threads by row number, so each row is written by one
+   * thread and sees its data in arrival order. Caller must hold the
+   * monitor of this service.
+   */
+  private void ingestBootstrap ()
+  {
+    if (pendingBootstrap.isEmpty())
+      return;
+    final PendingBootstrap[] jobs =
+        pendingBootstrap.toArray(new PendingBootstrap[pendingBootstrap.size()]);
+    pendingBootstrap.clear();
+    int threads = bootstrapThreads;
+    if (threads <= 0)
+      threads = Runtime.getRuntime().availableProcessors();
+    threads = Math.min(threads, jobs.length);
+    if (threads <= 1) {
+      for (PendingBootstrap job : jobs) {
+        usageStore.foldHistory(job.row, job.netUsage, job.scale);
+      }
+    }
+    else {
+      final int stride = threads;
+      ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+      for (int t = 0; t < threads; t++) {
+        final int share = t;
+        tasks.add(new Callable<Object>() {
+          @Override
+          public Object call ()
+          {
+            for (PendingBootstrap job : jobs) {
+              if (job.row % stride == share)
+                usageStore.foldHistory(job.row, job.netUsage, job.scale);
+            }
+            return null;
+          }
+        });
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        for (Future<Object> result : pool.invokeAll(tasks)) {
+          result.get();
+        }
+      }
+      catch (InterruptedException ie) {
+        log.warn("bootstrap ingestion interrupted");
+        Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException ee) {
+        log.error("bootstrap ingestion failed", ee.getCause());
+      }
+      finally {
+        pool.shutdown();
+      }
+    }
+    usageStore.rebuildNetUsage();
+    refreshSegments(usageStore.getRowCount());
+    log.info("ingested bootstrap data for " + jobs.length + " customers");
+    double[] profile = new double[usageStore.getSlots()];
+    for (PendingBootstrap job : jobs) {
+      usageStore.copyProfile(job.row, profile);
+      learnedStateStore.updateCustomerProfile(usageStore.getRowCustomer(job.row).getName(),
+                                              usageStore.getRowPowerType(job.row),
+                                              profile);
+    }
+  }
+
+  // Bootstrap usage for one profile row, waiting to be ingested
+  private static class PendingBootstrap
+  {
+    final int row;
+    final double[] netUsage;
+    final double scale; // converts to per-customer-unit usage
+
+    PendingBootstrap (int row, double[] netUsage, double scale)
+    {
+      super();
+      this.row = row;
+      this.netUsage = netUsage;
+      this.scale = scale;
+    }
+  }
+
+  /**
+   * Hands the current per-customer usage profiles to the learned-state
+   * store, so the next game starts from them.
+   */
+  private void saveLearnedProfiles ()
+  {
+    double[] profile = new double[usageStore.getSlots()];
+    for (int row = 0; row < usageStore.getRowCount(); row++) {
+      usageStore.copyProfile(row, profile);
+      learnedStateStore.updateCustomerProfile(usageStore.getRowCustomer(row).getName(),
+                                              usageStore.getRowPowerType(row),
+                                              profile);
     }
-    record.subscribedPopulation = subs;
   }
 
   /**
@@ -280,16 +938,19 @@ implements PortfolioManager, Initializable, Activatable
         // strange bug, seems harmless for now
         log.info("Resolution failed for broker " + theBroker.getUsername());
       // if it's ours, just log it, because we already put it in the repo
-      TariffSpecification original =
-              tariffRepo.findSpecificationById(spec.getId());
-      if (null == original)
+      if (!tariffBook.contains(spec.getId()))
         log.error("Spec " + spec.getId() + " not in local repo");
       log.info("published " + spec);
     }
     else {
       // otherwise, keep track of competing tariffs, and record in the repo
-      addCompetingTariff(spec);
+      tariffHistory.recordPublication(timeslotRepo.currentSerialNumber(),
+                                      spec);
+      bookTariff(spec);
       tariffRepo.addSpecification(spec);
+      learnedStateStore.recordCompetitorTariff(theBroker.getUsername(),
+                                               TariffBook.meanRate(spec),
+                                               spec.getSignupPayment());
     }
   }
   
@@ -304,12 +965,15 @@ implements PortfolioManager, Initializable, Activatable
   
   /**
    * Handles a TariffTransaction. We only care about certain types: PRODUCE,
-   * CONSUME, SIGNUP, and WITHDRAW.
+   * CONSUME, SIGNUP, and WITHDRAW. This is the busiest handler, and it
+   * allocates nothing once the customer and tariff are known; problems
+   * are counted here and logged once per timeslot.
    */
    
   private int signupCount = 0;
   private int consumeCount = 0;
   private int withdrawCount = 0;
+  private int subsetCount = 0; // usage reported by part of a subscription
   public synchronized void handleMessage(TariffTransaction ttx)
   {
     // make sure we have this tariff
@@ -320,54 +984,94 @@ implements PortfolioManager, Initializable, Activatable
     if (newSpec == null) {
       log.error("TariffTransaction type=" + ttx.getTxType()
                 + " for unknown spec");
+      return;
     }
-    else {
-      TariffSpecification oldSpec =
-              tariffRepo.findSpecificationById(newSpec.getId());
-      if (oldSpec != newSpec) {
-        log.error("Incoming spec " + newSpec.getId() + " not matched in repo");
-      }
+    else if (usageStore.findTariff(newSpec) < 0) {
+      // all our tariffs are in the store from the moment we create them
+      log.error("Incoming spec " + newSpec.getId() + " is not one of ours");
     }
     TariffTransaction.Type txType = ttx.getTxType();
-    CustomerRecord record = getCustomerRecordByTariff(ttx.getTariffSpec(),
-                                                      ttx.getCustomerInfo());
+    int sub = getSubscription(newSpec, ttx.getCustomerInfo());
     
     if (TariffTransaction.Type.SIGNUP == txType) {
       // keep track of customer counts
-	  //System.out.println("Signup! customer number: " + ttx.getCustomerCount());
-	  //System.out.println("Check subscribed number: " + record.subscribedPopulation);
-	  //System.out.println("=====================================");
-	
-      record.signup(ttx.getCustomerCount());
+      usageStore.signup(sub, ttx.getCustomerCount());
+      tariffHistory.recordSubscription(ttx.getPostedTimeslotIndex(),
+                                       newSpec.getId(),
+                                       ttx.getCustomerCount());
 	  signupCount++;
     }
     else if (TariffTransaction.Type.WITHDRAW == txType) {
       // customers presumably found a better deal
-	  //System.out.println("Quit! customer number: " + ttx.getCustomerCount());
-	  //System.out.println("Check subscribed number: " + record.subscribedPopulation);
-	  //System.out.println("=====================================");
-      record.withdraw(ttx.getCustomerCount());
+      usageStore.withdraw(sub, ttx.getCustomerCount());
+      tariffHistory.recordSubscription(ttx.getPostedTimeslotIndex(),
+                                       newSpec.getId(),
+                                       -ttx.getCustomerCount());
 	  withdrawCount++;
     }
     else if (TariffTransaction.Type.PRODUCE == txType) {
       // if ttx count and subscribe population don't match, it will be hard
       // to estimate per-individual production
-      if (ttx.getCustomerCount() != record.subscribedPopulation) {
-        log.warn("production by subset " + ttx.getCustomerCount() +
-                 " of subscribed population " + record.subscribedPopulation);
+      if (ttx.getCustomerCount() != usageStore.getPopulation(sub)) {
+        subsetCount++;
       }
-      record.produceConsume(ttx.getKWh(), ttx.getPostedTime());
+      usageStore.produceConsume(sub, ttx.getKWh(),
+                                ttx.getPostedTimeslotIndex());
+      recordHistory(sub, ttx.getKWh(), ttx.getPostedTimeslotIndex());
     }
     else if (TariffTransaction.Type.CONSUME == txType) {
-      if (ttx.getCustomerCount() != record.subscribedPopulation) {
-        log.warn("consumption by subset " + ttx.getCustomerCount() +
-                 " of subscribed population " + record.subscribedPopulation);
+      if (ttx.getCustomerCount() != usageStore.getPopulation(sub)) {
+        subsetCount++;
       }
-      record.produceConsume(ttx.getKWh(), ttx.getPostedTime());  
+      usageStore.produceConsume(sub, ttx.getKWh(),
+                                ttx.getPostedTimeslotIndex());
+      recordHistory(sub, ttx.getKWh(), ttx.getPostedTimeslotIndex());
 		consumeCount++;
     }
   }
 
+  // Adds observed usage to the customer and power-type histories
+  private void recordHistory (int sub, double kwh, int index)
+  {
+    int row = usageStore.getSubscriptionRow(sub);
+    customerHistory.record(row, index, kwh);
+    typeHistory.record(usageStore.getRowPowerTypeId(row), index, kwh);
+  }
+
+  /**
+   * Copies the observed usage history of a customer, or of all our
+   * customers of the given type if customer is null, into dest at the
+   * given resolution, oldest first. Returns the number of values copied.
+   */
+  synchronized int copyUsageHistory (PowerType type, CustomerInfo customer,
+                                     UsageHistory.Resolution resolution,
+                                     double[] dest)
+  {
+    if (null == customer) {
+      int id = usageStore.findPowerTypeId(type);
+      return (id < 0) ? 0 : typeHistory.copy(id, resolution, dest);
+    }
+    int row = usageStore.findRow(type, customer);
+    return (row < 0) ? 0 : customerHistory.copy(row, resolution, dest);
+  }
+
+  /**
+   * Writes the mean observed usage of each hour of the day over the
+   * hourly history into dest, for a customer or, if customer is null,
+   * for all our customers of the given type.
+   */
+  synchronized void copyHourOfDayMeans (PowerType type, CustomerInfo customer,
+                                        double[] dest)
+  {
+    if (null == customer) {
+      typeHistory.hourOfDayMeans(usageStore.findPowerTypeId(type), dest);
+    }
+    else {
+      customerHistory.hourOfDayMeans(usageStore.findRow(type, customer),
+                                     dest);
+    }
+  }
+
   /**
    * Handles a TariffRevoke message from the server, indicating that some
    * tariff has been revoked.
@@ -377,36 +1081,28 @@ implements PortfolioManager, Initializable, Activatable
     Broker source = tr.getBroker();
     log.info("Revoke tariff " + tr.getTariffId()
              + " from " + tr.getBroker().getUsername());
-	System.out.println("Revoke tariff " + tr.getTariffId()
-             + " from " + tr.getBroker().getUsername());
-    // if it's from some other broker, we need to remove it from the
-    // tariffRepo, and from the competingTariffs list
+    // drop it from the book; if it's from some other broker, we also
+    // need to remove it from the tariffRepo
+    TariffSpecification original = unbookTariff(tr.getTariffId());
+    tariffHistory.recordRevocation(timeslotRepo.currentSerialNumber(),
+                                   tr.getTariffId());
     if (!(source.getUsername().equals(brokerContext.getBrokerUsername()))) {
       log.info("clear out competing tariff");
-      TariffSpecification original =
-              tariffRepo.findSpecificationById(tr.getTariffId());
       if (null == original) {
         log.warn("Original tariff " + tr.getTariffId() + " not found");
         return;
       }
       tariffRepo.removeSpecification(original.getId());
-      List<TariffSpecification> candidates =
-              competingTariffs.get(original.getPowerType());
-      if (null == candidates) {
-        log.warn("Candidate list is null");
-        return;
-      }
-      candidates.remove(original);
     }
   }
 
   /**
-   * Handles a BalancingControlEvent, sent when a BalancingOrder is
-   * exercised by the DU.
+   * Handles a TimeslotComplete message by publishing a snapshot of the
+   * portfolio for the coming activation.
    */
-  public synchronized void handleMessage (BalancingControlEvent bce)
+  public void handleMessage (TimeslotComplete tc)
   {
-    log.info("BalancingControlEvent " + bce.getKwh());
+    publishSnapshot(tc.getTimeslotIndex());
   }
 
   // --------------- activation -----------------
@@ -419,48 +1115,39 @@ implements PortfolioManager, Initializable, Activatable
    private double old_mean = 0.0;
    private double old_min = 0.0;
    private double old_max = 0.0;
-   private double my_min=999;
    private double old_mean_signup = 0;
-   private double oldCashPos=0;
    private double CashPos=0;
    private double pubfee=0;
-   private boolean pubFlag = false;
-   private int interest = 3;
-   private boolean fwflag = true;
-   private FileWriter fw = null;
 
   @Override // from Activatable
-  public synchronized void activate (int timeslotIndex)
+  public void activate (int timeslotIndex)
   {
   
 	
-	System.out.println("timeslot is: " + timeslotIndex);
-	System.out.println("openfile flag: " + fwflag);
-	if(fwflag){
-	try{
-	fw = new FileWriter("stat.txt");
-	fwflag = false;
-	}
-	catch(IOException e){
-	}}	
-	
-	methods m = new methods();
+	PortfolioSnapshot snap = currentSnapshot(timeslotIndex);
 	Broker me = brokerContext.getBroker();
 	CashPos = me.getCashBalance();
-	if(pubFlag){
-		pubfee = oldCashPos - CashPos;
-		pubFlag = false;
-		System.out.println("Publication fee: " + pubfee);
+	if (timeIndexService.hourOfDay(timeslotIndex) == 0) {
+	  // once a day, refine the learned profiles and drop the rounding
+	  // error in the running usage totals
+	  synchronized (this) {
+	    saveLearnedProfiles();
+	    usageStore.rebuildNetUsage();
+	  }
 	}
+	// the fee charged for our latest publication
+	if (ledger.getLatest(LedgerService.Category.TARIFF_PUBLISH) != 0.0)
+		pubfee = -ledger.getLatest(LedgerService.Category.TARIFF_PUBLISH);
+	telemetry.record(new TelemetryService.Cash(timeslotIndex, CashPos, pubfee));
 	//fixedRateList.add(2.0);
 	//TariffSpecification contariff = null;
-    if (customerSubscriptions.size() == 0) {
-      // we (most likely) have no tariffs
-      //createInitialTariffs();
-	  pubFlag = true;
-    }
 
-	if (timeslotIndex%6 == 0&&timeslotIndex>360){
+	if (timeslotIndex%6 == 0) {
+	// every strategy decides on the same observations; only the
+	// primary's tariff is published
+	TariffStrategy.Decision decision =
+	    strategies.decide(observe(snap, timeslotIndex));
+	if (timeslotIndex>360) {
 	double mean_fixed = 0;
     double max_rate = 0;
     double min_rate = 0;	
@@ -474,62 +1161,24 @@ implements PortfolioManager, Initializable, Activatable
 	double diff_mean_fixed = 0;
 	double diff_min_fixed = 0;
 	double diff_max_fixed = 0;
-	List<TariffSpecification> tars = getCompetingTariffs(PowerType.CONSUMPTION);	
+	List<TariffSpecification> tars = snap.getCompetingTariffs(PowerType.CONSUMPTION);	
       if (null == tars || 0 == tars.size()){
-        System.out.println("No tariffs found");		
+        log.info("No competing tariffs found");
 		}
       else {	
-			double ratevalue;
-			List<Double> fixedRateList = new ArrayList<Double>();
-			List<Double> signupList = new ArrayList<Double>();
-			for (TariffSpecification tar: tars) {
-			//Brokers
-			Broker sourceBroker = tar.getBroker();
-			if (!(sourceBroker.getUsername().equals("default broker")))
-			{
-			
-			
-			List<Rate> ratev = tar.getRates();
-			for (Rate rates: ratev){
-			if(rates.isFixed()){
-			ratevalue = rates.getValue();
-			//System.out.println(ratevalue);
-			fixedRateList.add(ratevalue);
-			
-			}
-			}
-			signupList.add(tar.getSignupPayment());
+			if (snap.ownTariffs.isEmpty()) {
+				log.info("No tariffs for us found");
 			}
-			}
-			List<TariffSpecification> myspecs = tariffRepo.findTariffSpecificationsByBroker(brokerContext.getBroker());
-			if (null == myspecs || 0 == myspecs.size()){
-				System.out.println("No tariffs for us found");
-				}
-			else{
-				for(TariffSpecification myspec: myspecs){
-					if (PowerType.CONSUMPTION == myspec.getPowerType()) {
-						List<Rate> ratev = myspec.getRates();
-						for (Rate rates: ratev){
-						if(rates.isFixed()){
-						ratevalue = rates.getValue();
-						System.out.println(ratevalue);
-						fixedRateList.add(ratevalue);
-						
-						}
-						}
-						signupList.add(myspec.getSignupPayment());
-					}
-					
-				}
-			}
-			mean_fixed = m.mean(fixedRateList);
-			sd_fixed = m.sd(fixedRateList);
-			min_rate = Collections.min(fixedRateList);
-			max_rate = Collections.max(fixedRateList);
-			mean_signup = m.mean(signupList);
-			max_signup = Collections.max(signupList);
-			min_signup = Collections.min(signupList);
-			sd_signup = m.sd(signupList);
+			TariffStatistics.Summary stats =
+			    snap.getStatistics(PowerType.CONSUMPTION);
+			mean_fixed = stats.meanRate;
+			sd_fixed = stats.sdRate;
+			min_rate = stats.minRate;
+			max_rate = stats.maxRate;
+			mean_signup = stats.meanSignup;
+			max_signup = stats.maxSignup;
+			min_signup = stats.minSignup;
+			sd_signup = stats.sdSignup;
 			if (old_mean == 0){
 			diff_mean_fixed = 0;
 			diff_min_fixed = 0;
@@ -552,95 +1201,47 @@ implements PortfolioManager, Initializable, Activatable
 			//	max_rate = (-1)*max_rate;
 			//	diff_mean_fixed = (-1)*diff_mean_fixed;
 			//	diff_max_fixed = (-1)*diff_max_fixed;
-			double a_value = mean_fixed*(-10) + sd_fixed*(-10)+max_rate*(-10)+min_rate*(-10)+diff_mean_fixed*(-10)
-						   + mean_signup*(10) + sd_signup*(-10) + max_signup*(10) + min_signup*(10)+diff_mean_signup*(-10)
-						   + signupCount + tariff_count;
+			double a_value = stats.aggressiveValue(diff_mean_fixed, diff_mean_signup,
+			                                       snap.signups, snap.tariffsSeen);
 								
 			
 			
-				System.out.println("Period: " + dayn);
-				System.out.println("Mean of fixed rate: " + mean_fixed);
-				System.out.println("Max of fixed rate: " + max_rate);
-				System.out.println("Min of fixed rate: " + min_rate);
-				System.out.println("SD of fixed rate: " + sd_fixed);
-				System.out.println("rate of change of mean fixed rate: " + diff_mean_fixed);
-				System.out.println("Mean of signup: " + mean_signup);
-				System.out.println("Max of signup: " + max_signup);
-				System.out.println("Min of signup: " + min_signup);
-				System.out.println("SD of signup: " + sd_signup);
-				System.out.println("rate of change of mean signup: " + diff_mean_signup);				
-				System.out.println("Subscription of customers to Agent: "+ signupCount);
-				System.out.println("Number of tariffs publish in 6 timeslot: " + tariff_count );
-				System.out.println("Aggressive value: "+ a_value);
-			try{
-				fw.write("Period: " + dayn);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Mean of fixed rate: " + mean_fixed);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Max of fixed rate: " + max_rate);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Min of fixed rate: " + min_rate);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("SD of fixed rate: " + sd_fixed);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("rate of change of mean fixed rate: " + diff_mean_fixed);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Mean of signup: " + mean_signup);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Max of signup: " + max_signup);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Min of signup: " + min_signup);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("SD of signup: " + sd_signup);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("rate of change of mean signup: " + diff_mean_signup);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Subscription of customers to Agent: "+ signupCount);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Number of tariffs publish in 6 timeslot: " + tariff_count);
-				fw.write(System.getProperty("line.separator"));
-				fw.write("Aggressive value: "+ a_value);
-				fw.write("==========================================");
-				fw.write(System.getProperty("line.separator"));
-			    fw.write("==========================================");
-			    fw.write(System.getProperty("line.separator"));				
-				fw.flush();
-				
-				
-			}catch(IOException e){
-				e.printStackTrace();
-			}
+			telemetry.record(new TelemetryService.TariffPeriod(
+			    timeslotIndex, dayn, stats, diff_mean_fixed, diff_mean_signup,
+			    snap.signups, snap.tariffsSeen, a_value));
 		
 		
 		}
-		if(interest>0 && (my_min < max_rate)) //max should be lowest price
-		{	
-			createTariffs((max_rate+mean_fixed)/2);
-			interest--;
-		}
-		else if(signupCount == 0 || consumeCount == 0)
-		{
-			//create; 			//no one buy!!!! suck!!!!
-			System.out.println("case 2 publish, no one buy energy");
-			createTariffs(max_rate);
+		dayn++;
+	}
+		double searchRate =
+		    snap.getStatistics(PowerType.CONSUMPTION).meanRate;
+		if (0.0 == searchRate)
+			searchRate = fixedPerKwh;
+		if (null != decision) {
+			telemetry.record(new TelemetryService.Event(timeslotIndex,
+			    "publish", decision.toString()));
+			searchRate = createTariffs(decision.rate);
+			strategies.published(searchRate);
 		}
-		else if((CashPos-oldCashPos) > pubfee)
-		{
-			//create;
-			System.out.println("case 3 publish");
-			createTariffs(mean_fixed);
+		// a time-of-use schedule to weigh against the next decision
+		startTariffSearch(searchRate);
+		synchronized (this) {
+		  // keep anything counted since the snapshot was taken
+		  tariff_count -= snap.tariffsSeen;
+		  signupCount -= snap.signups;
+		  consumeCount -= snap.consumes;
+		  withdrawCount -= snap.withdraws;
 		}
-		
-		dayn++;
-		tariff_count = 0;
-		signupCount = 0;
-		consumeCount = 0;
-		withdrawCount = 0;
-		oldCashPos = CashPos;
 	}
+	// get balancing orders ready for the tariffs we had at the snapshot
+	balancing.refresh(snap.ownTariffs);
 	
   }
-	private void createTariffs (double minRate)
+	// Publishes a consumption tariff at about the given rate, or the best
+	// time-of-use schedule found so far if it is expected to earn more,
+	// and returns the mean rate of what was published
+	private double createTariffs (double minRate)
 	  {
 		//System.out.println("minRate: " + minRate);
 		double rateValue = minRate;
@@ -648,61 +1249,52 @@ implements PortfolioManager, Initializable, Activatable
 		//while(getp)
 		//{
 		rateValue = minRate * (1-Math.random()*0.01);
-		if (rateValue > -0.065)
+		if (rateValue > RATE_CEILING)
 		{
 		//getp = false;
-		rateValue = -0.065;
+		rateValue = RATE_CEILING;
 		}
 		//}
-		my_min = rateValue;	
-		TariffSpecification spec =
-		new TariffSpecification(brokerContext.getBroker(), PowerType.CONSUMPTION)
-			.withMinDuration(256000000)
-			.withSignupPayment(signupPayment)
-			.withEarlyWithdrawPayment(earlyWithdrawPayment);	
+		TariffSpecification spec = consumptionTariff();
 		Rate rate = new Rate().withValue(rateValue);
 		spec.addRate(rate);
-		customerSubscriptions.put(spec, new HashMap<CustomerInfo, CustomerRecord>());
-		tariffRepo.addSpecification(spec);
+		TariffChoiceEngine.Estimate estimate = estimateTariff(spec);
+		TariffOptimizer.Schedule schedule = tariffOptimizer.getBest();
+		if (null != schedule) {
+		  // the best time-of-use schedule found so far, on today's market
+		  TariffSpecification tou = schedule.addRates(consumptionTariff());
+		  TariffChoiceEngine.Estimate touEstimate = estimateTariff(tou);
+		  if (touEstimate.revenue - touEstimate.cost
+		      > estimate.revenue - estimate.cost) {
+		    spec = tou;
+		    estimate = touEstimate;
+		    rateValue = TariffBook.meanRate(spec);
+		  }
+		}
+		log.info("Tariff with " + spec.getRates().size() + " rates at mean "
+		         + rateValue + " expected to draw " + estimate.subscribers
+		         + " subscribers, profit " + (estimate.revenue - estimate.cost)
+		         + " per " + usageStore.getSlots() + " timeslots");
+		synchronized (this) {
+		  addOwnTariff(spec);
+		}
 		// = me.getCashBalance();
 		brokerContext.sendMessage(spec);
+		return rateValue;
 	  }  
+
+	private TariffSpecification consumptionTariff ()
+	  {
+		return new TariffSpecification(brokerContext.getBroker(),
+		                               PowerType.CONSUMPTION)
+			.withMinDuration(256000000)
+			.withSignupPayment(signupPayment)
+			.withEarlyWithdrawPayment(earlyWithdrawPayment);
+	  }
   
   
   
   
-class methods{
-
-public double sum(List<Double> a){
-	if(a.size() > 0){
-	double sum = 0;
-	for(Double i: a){
-	sum = sum + i;
-	}
-	return sum;
-	}
-	return 0;
-}
-public double mean (List<Double> a){
-	double sum = sum(a);
-	double mean = 0;
-	if (a.size() != 0){
-	mean = sum / (a.size() * 1.0);
-	return mean;
-	}
-	else
-	return 0;
-}
-public double sd (List<Double> a){
-    double sum = 0;
-    double mean = mean(a);
- 
-    for (double i : a)
-        sum += Math.pow((i - mean), 2);
-    return Math.sqrt( sum / ( a.size() - 1 ) ); 
-    }
-}
- 
   // Creates initial tariffs for the main power types. These are simple
   // fixed-rate two-part tariffs that give the broker a fixed margin.
   private void createInitialTariffs ()
@@ -715,7 +1307,6 @@ public double sd (List<Double> a){
     // create a tariff that's better than what's available
 	double rateValue;
 	rateValue = ((marketPrice + fixedPerKwh) * (1.0 + defaultMargin) * (1-Math.random()*0.1));
-	my_min = rateValue;	
 	TariffSpecification spec =
     new TariffSpecification(brokerContext.getBroker(), PowerType.CONSUMPTION)
 		.withMinDuration(256000000)
@@ -723,8 +1314,9 @@ public double sd (List<Double> a){
 		.withEarlyWithdrawPayment(earlyWithdrawPayment);	
     Rate rate = new Rate().withValue(rateValue);
     spec.addRate(rate);
-    customerSubscriptions.put(spec, new HashMap<CustomerInfo, CustomerRecord>());
-    tariffRepo.addSpecification(spec);
+    synchronized (this) {
+      addOwnTariff(spec);
+    }
 	// = me.getCashBalance();
     brokerContext.sendMessage(spec);
 	
@@ -737,8 +1329,9 @@ public double sd (List<Double> a){
 		.withEarlyWithdrawPayment(earlyWithdrawPayment);	
 		rate = new Rate().withValue(rateValue);
 		spec2.addRate(rate);
-		customerSubscriptions.put(spec2, new HashMap<CustomerInfo, CustomerRecord>());
-		tariffRepo.addSpecification(spec2);
+		synchronized (this) {
+		  addOwnTariff(spec2);
+		}
 		brokerContext.sendMessage(spec2);	
 	
 	
@@ -756,7 +1349,7 @@ public double sd (List<Double> a){
 		.withEarlyWithdrawPayment(earlyWithdrawPayment);	
       rate = new Rate().withValue(rateValue);
       spec2.addRate(rate);
-      customerSubscriptions.put(spec2, new HashMap<CustomerInfo, CustomerRecord>());
+      usageStore.addTariff(spec2);
       tariffRepo.addSpecification(spec2);
       brokerContext.sendMessage(spec2);
 		break;
@@ -769,38 +1362,13 @@ public double sd (List<Double> a){
   // Checks to see whether our tariffs need fine-tuning
   private void improveTariffs()
   {
-    // quick magic-number hack to inject a balancing order
+    // balancing orders are offered by the BalancingService
     int timeslotIndex = timeslotRepo.currentTimeslot().getSerialNumber();
-    if (371 == timeslotIndex) {
-      for (TariffSpecification spec :
-           tariffRepo.findTariffSpecificationsByBroker(brokerContext.getBroker())) {
-        if (PowerType.INTERRUPTIBLE_CONSUMPTION == spec.getPowerType()) {
-          BalancingOrder order = new BalancingOrder(brokerContext.getBroker(),
-                                                    spec, 
-                                                    0.5,
-                                                    spec.getRates().get(0).getMinValue() * 0.9);
-          brokerContext.sendMessage(order);
-        }
-        else if (spec.hasRegulationRate()) {
-          // supports both up-regulation and down-regulation
-          RegulationRate rr = spec.getRegulationRates().get(0);
-          double up = -rr.getUpRegulationPayment();
-          double down = -rr.getDownRegulationPayment();
-          BalancingOrder bup = new BalancingOrder(brokerContext.getBroker(),
-                                                 spec, 1.0, up * 0.5);
-          BalancingOrder bdown = new BalancingOrder(brokerContext.getBroker(),
-                                                    spec, -1.0, down * 0.9);
-          brokerContext.sendMessage(bup);
-          brokerContext.sendMessage(bdown);
-        }
-      }
-    }
     // magic-number hack to supersede a tariff
     if (380 == timeslotIndex) {
       // find the existing CONSUMPTION tariff
       TariffSpecification oldc = null;
-      List<TariffSpecification> candidates =
-        tariffRepo.findTariffSpecificationsByBroker(brokerContext.getBroker());
+      List<TariffSpecification> candidates = currentSnapshot(-1).ownTariffs;
       if (null == candidates || 0 == candidates.size())
         log.error("No tariffs found for broker");
       else {
@@ -826,7 +1394,9 @@ public double sd (List<Double> a){
           if (null != oldc)
             spec.addSupersedes(oldc.getId());
           //mungId(spec, 6);
-          tariffRepo.addSpecification(spec);
+          synchronized (this) {
+            addOwnTariff(spec);
+          }
           brokerContext.sendMessage(spec);
           // revoke the old one
           TariffRevoke revoke =
@@ -838,37 +1408,42 @@ public double sd (List<Double> a){
   }
 
   // ------------- test-support methods ----------------
-  double getUsageForCustomer (CustomerInfo customer,
-                              TariffSpecification tariffSpec,
-                              int index)
+  synchronized double getUsageForCustomer (CustomerInfo customer,
+                                           TariffSpecification tariffSpec,
+                                           int index)
   {
-    CustomerRecord record = getCustomerRecordByTariff(tariffSpec, customer);
-    return record.getUsage(index);
+    ingestBootstrap();
+    usageStore.flushObservations();
+    int sub = getSubscription(tariffSpec, customer);
+    return usageStore.getProfileValue(usageStore.getSubscriptionRow(sub),
+                                      index)
+        * usageStore.getPopulation(sub);
   }
   
   // test-support method
-  HashMap<PowerType, double[]> getRawUsageForCustomer (CustomerInfo customer)
+  synchronized HashMap<PowerType, double[]> getRawUsageForCustomer (CustomerInfo customer)
   {
+    ingestBootstrap();
+    usageStore.flushObservations();
     HashMap<PowerType, double[]> result = new HashMap<PowerType, double[]>();
-    for (PowerType type : customerProfiles.keySet()) {
-      CustomerRecord record = customerProfiles.get(type).get(customer);
-      if (record != null) {
-        result.put(type, record.usage);
+    for (int row = 0; row < usageStore.getRowCount(); row++) {
+      if (usageStore.getRowCustomer(row) == customer) {
+        double[] usage = new double[usageStore.getSlots()];
+        usageStore.copyProfile(row, usage);
+        result.put(usageStore.getRowPowerType(row), usage);
       }
     }
     return result;
   }
 
-  // test-support method
+  // test-support method, reads the last published snapshot
   HashMap<String, Integer> getCustomerCounts()
   {
+    PortfolioSnapshot snap = currentSnapshot(-1);
     HashMap<String, Integer> result = new HashMap<String, Integer>();
-    for (TariffSpecification spec : customerSubscriptions.keySet()) {
-      HashMap<CustomerInfo, CustomerRecord> customerMap = customerSubscriptions.get(spec);
-      for (CustomerRecord record : customerMap.values()) {
-        result.put(record.customer.getName() + spec.getPowerType(), 
-                    record.subscribedPopulation);
-      }
+    for (int sub = 0; sub < snap.subscriptionNames.length; sub++) {
+      result.put(snap.subscriptionNames[sub],
+                 snap.subscriptionPopulation[sub]);
     }
     return result;
   }
@@ -909,107 +1484,4 @@ public double sd (List<Double> a){
 //      return null;
 //    }
 //  }
-
-  //-------------------- Customer-model recording ---------------------
-  /**
-   * Keeps track of customer status and usage. Usage is stored
-   * per-customer-unit, but reported as the product of the per-customer
-   * quantity and the subscribed population. This allows the broker to use
-   * historical usage data as the subscribed population shifts.
-   */
-  class CustomerRecord
-  {
-    CustomerInfo customer;
-    int subscribedPopulation = 0;
-    double[] usage;
-    double alpha = 0.3;
-    
-    /**
-     * Creates an empty record
-     */
-    CustomerRecord (CustomerInfo customer)
-    {
-      super();
-      this.customer = customer;
-      this.usage = new double[brokerContext.getUsageRecordLength()];
-    }
-    
-    CustomerRecord (CustomerRecord oldRecord)
-    {
-      super();
-      this.customer = oldRecord.customer;
-      this.usage = Arrays.copyOf(oldRecord.usage, brokerContext.getUsageRecordLength());
-    }
-    
-    // Returns the CustomerInfo for this record
-    CustomerInfo getCustomerInfo ()
-    {
-      return customer;
-    }
-    
-    // Adds new individuals to the count
-    void signup (int population)
-    {
-      subscribedPopulation = Math.min(customer.getPopulation(),
-                                      subscribedPopulation + population);
-    }
-    
-    // Removes individuals from the count
-    void withdraw (int population)
-    {
-      subscribedPopulation -= population;
-    }
-    
-    // Customer produces or consumes power. We assume the kwh value is negative
-    // for production, positive for consumption
-    void produceConsume (double kwh, Instant when)
-    {
-      int index = getIndex(when);
-      produceConsume(kwh, index);
-    }
-    
-    // store profile data at the given index
-    void produceConsume (double kwh, int rawIndex)
-    {
-      int index = getIndex(rawIndex);
-      double kwhPerCustomer = 0.0;
-      if (subscribedPopulation > 0) {
-        kwhPerCustomer = kwh / (double)subscribedPopulation;
-      }
-      double oldUsage = usage[index];
-      if (oldUsage == 0.0) {
-        // assume this is the first time
-        usage[index] = kwhPerCustomer;
-      }
-      else {
-        // exponential smoothing
-        usage[index] = alpha * kwhPerCustomer + (1.0 - alpha) * oldUsage;
-      }
-      log.debug("consume " + kwh + " at " + index +
-                ", customer " + customer.getName());
-    }
-    
-    double getUsage (int index)
-    {
-      if (index < 0) {
-        log.warn("usage requested for negative index " + index);
-        index = 0;
-      }
-      return (usage[getIndex(index)] * (double)subscribedPopulation);
-    }
-    
-    // we assume here that timeslot index always matches the number of
-    // timeslots that have passed since the beginning of the simulation.
-    int getIndex (Instant when)
-    {
-      int result = (int)((when.getMillis() - timeService.getBase()) /
-                         (Competition.currentCompetition().getTimeslotDuration()));
-      return result;
-    }
-    
-    private int getIndex (int rawIndex)
-    {
-      return rawIndex % usage.length;
-    }
-  }
 }
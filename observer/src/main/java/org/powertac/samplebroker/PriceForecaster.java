@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+/**
+ * Streaming forecast of cleared prices by timeslot of the week and lead
+ * time. Each cell keeps an exponentially-weighted mean and variance of
+ * the prices cleared in it, so an update is a constant amount of work.
+ * An extra cell per timeslot of the week pools all leads, and stands in
+ * for leads that have not cleared yet.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class PriceForecaster
+{
+  private final int weekSlots;
+  private final int leads;
+  private final double alpha;
+
+  // per timeslot of the week, leads first and then the pooled cell
+  private final double[] mean;
+  private final double[] variance;
+  private final int[] count;
+
+  PriceForecaster (int weekSlots, int leads, double alpha)
+  {
+    super();
+    this.weekSlots = weekSlots;
+    this.leads = leads;
+    this.alpha = alpha;
+    mean = new double[weekSlots * (leads + 1)];
+    variance = new double[weekSlots * (leads + 1)];
+    count = new int[weekSlots * (leads + 1)];
+  }
+
+  int getWeekSlots ()
+  {
+    return weekSlots;
+  }
+
+  int getLeads ()
+  {
+    return leads;
+  }
+
+  /**
+   * Adds a cleared price for the given timeslot of the week and lead.
+   */
+  void update (int slotOfWeek, int lead, double price)
+  {
+    int base = (slotOfWeek % weekSlots) * (leads + 1);
+    update(base + Math.max(0, Math.min(leads - 1, lead)), price);
+    update(base + leads, price);
+  }
+
+  private void update (int cell, double price)
+  {
+    if (0 == count[cell]) {
+      mean[cell] = price;
+      variance[cell] = 0.0;
+    }
+    else {
+      double delta = price - mean[cell];
+      mean[cell] += alpha * delta;
+      variance[cell] = (1.0 - alpha) * (variance[cell] + alpha * delta * delta);
+    }
+    count[cell] += 1;
+  }
+
+  // the lead cell if it has data, else the pooled one, else -1
+  private int cell (int slotOfWeek, int lead)
+  {
+    int base = (slotOfWeek % weekSlots) * (leads + 1);
+    int cell = base + Math.max(0, Math.min(leads - 1, lead));
+    if (count[cell] > 0)
+      return cell;
+    if (count[base + leads] > 0)
+      return base + leads;
+    return -1;
+  }
+
+  /**
+   * Forecast price for the given timeslot of the week and lead, NaN if
+   * nothing has cleared in that timeslot of the week.
+   */
+  double forecast (int slotOfWeek, int lead)
+  {
+    int cell = cell(slotOfWeek, lead);
+    return (cell < 0) ? Double.NaN : mean[cell];
+  }
+
+  /**
+   * Forecast price for the given timeslot of the week over all leads,
+   * NaN if nothing has cleared in it.
+   */
+  double forecast (int slotOfWeek)
+  {
+    int cell = (slotOfWeek % weekSlots) * (leads + 1) + leads;
+    return (0 == count[cell]) ? Double.NaN : mean[cell];
+  }
+
+  /**
+   * Standard deviation of the price about the forecast for the given
+   * timeslot of the week over all leads, NaN if nothing has cleared in it.
+   */
+  double deviation (int slotOfWeek)
+  {
+    int cell = (slotOfWeek % weekSlots) * (leads + 1) + leads;
+    return (0 == count[cell]) ? Double.NaN : Math.sqrt(variance[cell]);
+  }
+
+  /**
+   * Standard deviation of the price about the forecast, NaN if there is
+   * no forecast.
+   */
+  double deviation (int slotOfWeek, int lead)
+  {
+    int cell = cell(slotOfWeek, lead);
+    return (cell < 0) ? Double.NaN : Math.sqrt(variance[cell]);
+  }
+
+  /**
+   * Number of prices seen for the given timeslot of the week and lead.
+   */
+  int getCount (int slotOfWeek, int lead)
+  {
+    return count[(slotOfWeek % weekSlots) * (leads + 1)
+                 + Math.max(0, Math.min(leads - 1, lead))];
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+/**
+ * The rule of the sample broker: publish one fixed-rate tariff with a
+ * fixed margin over the mean market price, and leave it alone.
+ *
+ * @author agent
+ */
+class SampleTariffStrategy implements TariffStrategy
+{
+  private final double fixedPerKwh;
+  private final double margin;
+  private boolean published = false;
+
+  SampleTariffStrategy (double fixedPerKwh, double margin)
+  {
+    super();
+    this.fixedPerKwh = fixedPerKwh;
+    this.margin = margin;
+  }
+
+  @Override
+  public String getName ()
+  {
+    return "sample";
+  }
+
+  @Override
+  public Decision decide (Observation observation)
+  {
+    if (published)
+      return null;
+    published = true;
+    // market prices are per MWh, but tariffs are per kWh
+    double marketPrice = observation.meanMarketPrice / 1000.0;
+    return new Decision((marketPrice + fixedPerKwh) * (1.0 + margin),
+                        "fixed margin");
+  }
+
+  @Override
+  public void published (double rate)
+  {
+    // nothing more to decide
+  }
+}
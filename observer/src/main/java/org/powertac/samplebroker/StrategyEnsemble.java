@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a primary tariff strategy and any number of shadow strategies on
+ * the same observations. The primary runs on the calling thread and its
+ * decision is the one returned; the shadows run on worker threads at the
+ * same time, and are given until a timeout to finish. Every decision is
+ * logged, and counted per strategy, so strategies can be compared on
+ * live data.
+ *
+ * A shadow that misses the timeout keeps running, and is skipped until
+ * it has finished, so no strategy is ever called concurrently with
+ * itself. A shadow that fails is logged and skipped for that period.
+ *
+ * @author agent
+ */
+class StrategyEnsemble
+{
+  static private Logger log = Logger.getLogger(StrategyEnsemble.class);
+
+  private final TariffStrategy primary;
+  private final TariffStrategy[] shadows;
+  private final long timeout; // msec
+  private final Future<?>[] running;
+
+  // per strategy, primary first
+  private final int[] decisions;
+  private final int[] publications;
+  private final int[] missed;
+  private final TariffStrategy.Decision[] latest;
+
+  private ExecutorService pool = null;
+
+  StrategyEnsemble (TariffStrategy primary, List<TariffStrategy> shadows,
+                    long timeout)
+  {
+    super();
+    this.primary = primary;
+    this.shadows = shadows.toArray(new TariffStrategy[shadows.size()]);
+    this.timeout = timeout;
+    running = new Future<?>[this.shadows.length];
+    decisions = new int[this.shadows.length + 1];
+    publications = new int[this.shadows.length + 1];
+    missed = new int[this.shadows.length + 1];
+    latest = new TariffStrategy.Decision[this.shadows.length + 1];
+  }
+
+  int getStrategyCount ()
+  {
+    return shadows.length + 1;
+  }
+
+  /**
+   * Strategy by index, the primary being number zero.
+   */
+  TariffStrategy getStrategy (int index)
+  {
+    return (0 == index) ? primary : shadows[index - 1];
+  }
+
+  /**
+   * Number of periods the strategy decided in.
+   */
+  int getDecisionCount (int index)
+  {
+    return decisions[index];
+  }
+
+  /**
+   * Number of periods in which the strategy would have published.
+   */
+  int getPublicationCount (int index)
+  {
+    return publications[index];
+  }
+
+  /**
+   * Number of periods the strategy missed, by timeout or failure.
+   */
+  int getMissedCount (int index)
+  {
+    return missed[index];
+  }
+
+  /**
+   * The strategy's decision in the latest period, null for none.
+   */
+  TariffStrategy.Decision getLatest (int index)
+  {
+    return latest[index];
+  }
+
+  /**
+   * Runs every strategy on the observation and returns the decision of
+   * the primary.
+   */
+  TariffStrategy.Decision decide (final TariffStrategy.Observation observation)
+  {
+    List<Future<TariffStrategy.Decision>> pending =
+        new ArrayList<Future<TariffStrategy.Decision>>(shadows.length);
+    for (int s = 0; s < shadows.length; s++) {
+      if (null != running[s] && !running[s].isDone()) {
+        log.warn("shadow " + shadows[s].getName() + " still busy at ts "
+                 + observation.timeslot);
+        pending.add(null);
+        continue;
+      }
+      final TariffStrategy shadow = shadows[s];
+      Future<TariffStrategy.Decision> future =
+          getPool().submit(new Callable<TariffStrategy.Decision>() {
+        @Override
+        public TariffStrategy.Decision call ()
+        {
+          return shadow.decide(observation);
+        }
+      });
+      pending.add(future);
+      running[s] = future;
+    }
+
+    TariffStrategy.Decision result = primary.decide(observation);
+    record(0, result, observation.timeslot);
+
+    long deadline = System.currentTimeMillis() + timeout;
+    for (int s = 0; s < shadows.length; s++) {
+      TariffStrategy.Decision decision = null;
+      boolean done = false;
+      if (null != pending.get(s)) {
+        try {
+          long wait = Math.max(0L, deadline - System.currentTimeMillis());
+          decision = pending.get(s).get(wait, TimeUnit.MILLISECONDS);
+          done = true;
+        }
+        catch (TimeoutException te) {
+          log.warn("shadow " + shadows[s].getName() + " missed ts "
+                   + observation.timeslot);
+        }
+        catch (ExecutionException ee) {
+          log.error("shadow " + shadows[s].getName() + " failed",
+                    ee.getCause());
+        }
+        catch (CancellationException ce) {
+          log.warn("shadow " + shadows[s].getName() + " cancelled");
+        }
+        catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (done)
+        record(s + 1, decision, observation.timeslot);
+      else {
+        missed[s + 1] += 1;
+        latest[s + 1] = null;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Tells the primary the mean rate of the tariff published for its
+   * decision. The shadows keep the rates they decided on.
+   */
+  void published (double rate)
+  {
+    primary.published(rate);
+  }
+
+  private void record (int index, TariffStrategy.Decision decision,
+                       int timeslot)
+  {
+    decisions[index] += 1;
+    latest[index] = decision;
+    if (null != decision)
+      publications[index] += 1;
+    log.info("ts " + timeslot + ((0 == index) ? " primary " : " shadow ")
+             + getStrategy(index).getName() + ": "
+             + ((null == decision) ? "no tariff" : decision.toString()));
+  }
+
+  /**
+   * Stops the worker threads, abandoning any shadow still running.
+   */
+  synchronized void shutdown ()
+  {
+    if (null != pool) {
+      pool.shutdownNow();
+      pool = null;
+    }
+  }
+
+  private synchronized ExecutorService getPool ()
+  {
+    if (null == pool) {
+      pool = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable task)
+        {
+          Thread thread = new Thread(task, "tariff-strategy");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return pool;
+  }
+
+  /**
+   * Lists the strategies, for building an ensemble from names.
+   */
+  static List<String> parseNames (String names)
+  {
+    List<String> result = new ArrayList<String>();
+    if (null == names)
+      return result;
+    for (String name : names.split(",")) {
+      if (name.trim().length() > 0)
+        result.add(name.trim());
+    }
+    return result;
+  }
+}
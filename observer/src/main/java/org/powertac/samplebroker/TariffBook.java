@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Live tariffs of every broker, indexed by id, by broker and by PowerType.
+ * Within a PowerType the tariffs are kept in order of their mean rate,
+ * best for the customer first, in a treap whose nodes count their
+ * subtrees. That makes the best tariff and the rank of a rate O(log n)
+ * queries. Lookup by id and broker are hash lookups, and revocation
+ * unlinks the tariff from those indexes in constant time and from the
+ * rate order in O(log n).
+ *
+ * The customer is better off the higher the rate: consumption rates are
+ * negative, so the least negative is best, and production rates are
+ * positive.
+ *
+ * Each tariff may carry its compiled form, which goes when the tariff is
+ * revoked.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class TariffBook
+{
+  private HashMap<Long, Entry> byId = new HashMap<Long, Entry>();
+  private HashMap<String, LinkedHashSet<Entry>> byBroker =
+      new HashMap<String, LinkedHashSet<Entry>>();
+  private HashMap<PowerType, Entry> byType = new HashMap<PowerType, Entry>();
+  private int version = 0;
+
+  TariffBook ()
+  {
+    super();
+  }
+
+  /**
+   * Mean value of the rates in a tariff, fixed rates at their value and
+   * variable rates at their expected mean.
+   */
+  static double meanRate (TariffSpecification spec)
+  {
+    List<Rate> rates = spec.getRates();
+    if (null == rates || rates.isEmpty())
+      return 0.0;
+    double sum = 0.0;
+    for (Rate rate : rates) {
+      sum += rate.isFixed() ? rate.getMinValue() : rate.getExpectedMean();
+    }
+    return sum / rates.size();
+  }
+
+  /**
+   * Adds a tariff. Returns false if a tariff with the same id is already
+   * in the book.
+   */
+  boolean add (TariffSpecification spec)
+  {
+    return add(spec, null);
+  }
+
+  /**
+   * Adds a tariff along with its compiled form.
+   */
+  boolean add (TariffSpecification spec, CompiledTariff compiled)
+  {
+    if (byId.containsKey(spec.getId()))
+      return false;
+    Entry entry = new Entry(spec, meanRate(spec), compiled);
+    byId.put(spec.getId(), entry);
+    String broker = spec.getBroker().getUsername();
+    LinkedHashSet<Entry> entries = byBroker.get(broker);
+    if (null == entries) {
+      entries = new LinkedHashSet<Entry>();
+      byBroker.put(broker, entries);
+    }
+    entries.add(entry);
+    byType.put(spec.getPowerType(),
+               insert(byType.get(spec.getPowerType()), entry));
+    version += 1;
+    return true;
+  }
+
+  /**
+   * Removes the tariff with the given id, returning it, or null if it is
+   * not in the book.
+   */
+  TariffSpecification remove (long id)
+  {
+    Entry entry = byId.remove(id);
+    if (null == entry)
+      return null;
+    TariffSpecification spec = entry.spec;
+    LinkedHashSet<Entry> entries =
+        byBroker.get(spec.getBroker().getUsername());
+    entries.remove(entry);
+    if (entries.isEmpty())
+      byBroker.remove(spec.getBroker().getUsername());
+    Entry root = delete(byType.get(spec.getPowerType()), entry);
+    if (null == root)
+      byType.remove(spec.getPowerType());
+    else
+      byType.put(spec.getPowerType(), root);
+    version += 1;
+    return spec;
+  }
+
+  TariffSpecification get (long id)
+  {
+    Entry entry = byId.get(id);
+    return (null == entry) ? null : entry.spec;
+  }
+
+  /**
+   * Compiled form of the tariff with the given id, or null if it is not
+   * in the book or was added without one.
+   */
+  CompiledTariff getCompiled (long id)
+  {
+    Entry entry = byId.get(id);
+    return (null == entry) ? null : entry.compiled;
+  }
+
+  /**
+   * Compiled forms of the tariffs of the given type, best rate first.
+   * Tariffs added without one are left out.
+   */
+  List<CompiledTariff> getCompiled (PowerType type)
+  {
+    Entry root = byType.get(type);
+    ArrayList<CompiledTariff> result =
+        new ArrayList<CompiledTariff>(size(root));
+    collectCompiled(root, result);
+    return result;
+  }
+
+  boolean contains (long id)
+  {
+    return byId.containsKey(id);
+  }
+
+  int size ()
+  {
+    return byId.size();
+  }
+
+  /**
+   * Number of tariffs of the given type.
+   */
+  int size (PowerType type)
+  {
+    return size(byType.get(type));
+  }
+
+  /**
+   * Incremented whenever a tariff is added or removed.
+   */
+  int getVersion ()
+  {
+    return version;
+  }
+
+  /**
+   * PowerTypes with at least one tariff in the book.
+   */
+  List<PowerType> getPowerTypes ()
+  {
+    return new ArrayList<PowerType>(byType.keySet());
+  }
+
+  /**
+   * Tariffs of the given broker, in order of arrival.
+   */
+  List<TariffSpecification> getTariffs (String broker)
+  {
+    LinkedHashSet<Entry> entries = byBroker.get(broker);
+    if (null == entries)
+      return Collections.emptyList();
+    ArrayList<TariffSpecification> result =
+        new ArrayList<TariffSpecification>(entries.size());
+    for (Entry entry : entries) {
+      result.add(entry.spec);
+    }
+    return result;
+  }
+
+  /**
+   * Tariffs of the given type, best rate first.
+   */
+  List<TariffSpecification> getTariffs (PowerType type)
+  {
+    Entry root = byType.get(type);
+    ArrayList<TariffSpecification> result =
+        new ArrayList<TariffSpecification>(size(root));
+    collect(root, result);
+    return result;
+  }
+
+  /**
+   * Tariff of the given type with the best mean rate, or null if there
+   * is none.
+   */
+  TariffSpecification getBest (PowerType type)
+  {
+    Entry best = first(byType.get(type));
+    return (null == best) ? null : best.spec;
+  }
+
+  /**
+   * Best mean rate among tariffs of the given type, or NaN if there are
+   * none.
+   */
+  double getBestRate (PowerType type)
+  {
+    Entry best = first(byType.get(type));
+    return (null == best) ? Double.NaN : best.rate;
+  }
+
+  /**
+   * Tariff of the given type at the given rank, zero being the best, or
+   * null if there are not that many.
+   */
+  TariffSpecification getByRank (PowerType type, int rank)
+  {
+    Entry node = byType.get(type);
+    if (rank < 0 || rank >= size(node))
+      return null;
+    while (true) {
+      int left = size(node.left);
+      if (rank < left) {
+        node = node.left;
+      }
+      else if (rank == left) {
+        return node.spec;
+      }
+      else {
+        rank -= left + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  /**
+   * Number of tariffs of the given type with a strictly better mean rate
+   * than the given one, which is the rank a tariff with that rate would
+   * take.
+   */
+  int rank (PowerType type, double rate)
+  {
+    Entry node = byType.get(type);
+    int result = 0;
+    while (null != node) {
+      if (node.rate > rate) {
+        result += size(node.left) + 1;
+        node = node.right;
+      }
+      else {
+        node = node.left;
+      }
+    }
+    return result;
+  }
+
+  // ------------- rate order ----------------
+
+  private static Entry first (Entry node)
+  {
+    if (null == node)
+      return null;
+    while (null != node.left)
+      node = node.left;
+    return node;
+  }
+
+  private static int size (Entry node)
+  {
+    return (null == node) ? 0 : node.size;
+  }
+
+  // negative if a comes before b: higher rate first, then older id
+  private static int compare (Entry a, Entry b)
+  {
+    if (a.rate != b.rate)
+      return (a.rate > b.rate) ? -1 : 1;
+    long ida = a.spec.getId();
+    long idb = b.spec.getId();
+    return (ida < idb) ? -1 : ((ida == idb) ? 0 : 1);
+  }
+
+  private static Entry insert (Entry root, Entry entry)
+  {
+    if (null == root)
+      return entry;
+    if (compare(entry, root) < 0) {
+      root.left = insert(root.left, entry);
+      if (root.left.priority > root.priority)
+        root = rotateRight(root);
+    }
+    else {
+      root.right = insert(root.right, entry);
+      if (root.right.priority > root.priority)
+        root = rotateLeft(root);
+    }
+    root.size = size(root.left) + size(root.right) + 1;
+    return root;
+  }
+
+  private static Entry delete (Entry root, Entry entry)
+  {
+    if (null == root)
+      return null;
+    if (root == entry) {
+      // rotate it down until one side is empty
+      if (null == root.left)
+        return root.right;
+      if (null == root.right)
+        return root.left;
+      if (root.left.priority > root.right.priority) {
+        root = rotateRight(root);
+        root.right = delete(root.right, entry);
+      }
+      else {
+        root = rotateLeft(root);
+        root.left = delete(root.left, entry);
+      }
+    }
+    else if (compare(entry, root) < 0) {
+      root.left = delete(root.left, entry);
+    }
+    else {
+      root.right = delete(root.right, entry);
+    }
+    root.size = size(root.left) + size(root.right) + 1;
+    return root;
+  }
+
+  private static Entry rotateRight (Entry node)
+  {
+    Entry top = node.left;
+    node.left = top.right;
+    top.right = node;
+    node.size = size(node.left) + size(node.right) + 1;
+    top.size = size(top.left) + node.size + 1;
+    return top;
+  }
+
+  private static Entry rotateLeft (Entry node)
+  {
+    Entry top = node.right;
+    node.right = top.left;
+    top.left = node;
+    node.size = size(node.left) + size(node.right) + 1;
+    top.size = node.size + size(top.right) + 1;
+    return top;
+  }
+
+  private static void collect (Entry node, List<TariffSpecification> result)
+  {
+    while (null != node) {
+      collect(node.left, result);
+      result.add(node.spec);
+      node = node.right;
+    }
+  }
+
+  private static void collectCompiled (Entry node,
+                                       List<CompiledTariff> result)
+  {
+    while (null != node) {
+      collectCompiled(node.left, result);
+      if (null != node.compiled)
+        result.add(node.compiled);
+      node = node.right;
+    }
+  }
+
+  // A tariff in the book, and its node in the rate order of its type
+  private static final class Entry
+  {
+    final TariffSpecification spec;
+    final double rate;
+    final CompiledTariff compiled;
+    final int priority;
+    Entry left;
+    Entry right;
+    int size = 1;
+
+    Entry (TariffSpecification spec, double rate, CompiledTariff compiled)
+    {
+      super();
+      this.spec = spec;
+      this.rate = rate;
+      this.compiled = compiled;
+      // scrambled id, so the shape of the tree does not follow the
+      // order tariffs arrive in
+      long h = spec.getId() * 0x9E3779B97F4A7C15L;
+      this.priority = (int)(h ^ (h >>> 32));
+    }
+  }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Predicts how customer populations split across the live tariffs of
+ * their PowerType, with a logit model over the cost of each tariff to
+ * each customer. Charges are divided by the customer's energy use, so
+ * the model works on effective prices per kWh and the rationality
+ * parameter means the same for small and large customers: a tariff that
+ * is 0.01 per kWh cheaper is exp(0.01 * rationality) times as attractive.
+ *
+ * Customers are split into chunks that are evaluated in parallel. Each
+ * prediction is cached per PowerType under a key the caller derives from
+ * the tariff set and the profiles, and a candidate tariff is evaluated
+ * against a cached prediction with one dot product per customer.
+ *
+ * @author agent
+ */
+class TariffChoiceEngine
+{
+  static private Logger log = Logger.getLogger(TariffChoiceEngine.class);
+
+  // customers per parallel task
+  private static final int CHUNK = 32;
+
+  private final double rationality;
+  private final int threads;
+  private ExecutorService pool = null;
+  private HashMap<PowerType, Prediction> cache =
+      new HashMap<PowerType, Prediction>();
+
+  /**
+   * Creates an engine using the given number of threads, or one per
+   * processor if threads is not positive.
+   */
+  TariffChoiceEngine (double rationality, int threads)
+  {
+    super();
+    this.rationality = rationality;
+    this.threads = (threads > 0) ? threads
+        : Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Returns the cached prediction for the given type if it was made under
+   * the given key, otherwise null.
+   */
+  synchronized Prediction getCached (PowerType type, long key)
+  {
+    Prediction result = cache.get(type);
+    return (null != result && result.key == key) ? result : null;
+  }
+
+  /**
+   * Predicts the split of the given customers across the given tariffs,
+   * and caches the result. Profiles are per customer, slots values per
+   * customer back to back, and must not be changed afterwards.
+   */
+  Prediction predict (PowerType type, long key, double[] profiles,
+                      double[] populations, int slots,
+                      List<CompiledTariff> tariffs)
+  {
+    final Prediction result =
+        new Prediction(key, rationality, profiles, populations, slots,
+                       tariffs.toArray(new CompiledTariff[tariffs.size()]));
+    int customers = populations.length;
+    if (threads <= 1 || customers <= CHUNK) {
+      result.evaluate(0, customers);
+    }
+    else {
+      ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+      for (int start = 0; start < customers; start += CHUNK) {
+        final int from = start;
+        final int to = Math.min(customers, start + CHUNK);
+        tasks.add(new Callable<Object>() {
+          @Override
+          public Object call ()
+          {
+            result.evaluate(from, to);
+            return null;
+          }
+        });
+      }
+      try {
+        for (Future<Object> done : getPool().invokeAll(tasks)) {
+          done.get();
+        }
+      }
+      catch (InterruptedException ie) {
+        log.warn("tariff choice prediction interrupted");
+        Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException ee) {
+        log.error("tariff choice prediction failed", ee.getCause());
+      }
+    }
+    result.summarize();
+    synchronized (this) {
+      cache.put(type, result);
+    }
+    return result;
+  }
+
+  /**
+   * Stops the worker threads, if any.
+   */
+  synchronized void shutdown ()
+  {
+    if (null != pool) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  private synchronized ExecutorService getPool ()
+  {
+    if (null == pool) {
+      pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable task)
+        {
+          Thread thread = new Thread(task, "tariff-choice");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return pool;
+  }
+
+  /**
+   * Predicted shares of each tariff in each customer's population, with
+   * what is needed to add one more tariff to the choice.
+   */
+  static final class Prediction
+  {
+    private final long key;
+    private final double rationality;
+    private final double[] profiles;
+    private final double[] populations;
+    private final int slots;
+    private final CompiledTariff[] tariffs;
+
+    // per customer and tariff
+    private final double[] charges;
+    private final double[] shares;
+    // per customer: energy use, best effective price, and sum of the
+    // exponentials relative to it
+    private final double[] scale;
+    private final double[] best;
+    private final double[] sum;
+    // per tariff
+    private final double[] subscribers;
+    private final double[] revenue;
+
+    private Prediction (long key, double rationality, double[] profiles,
+                        double[] populations, int slots,
+                        CompiledTariff[] tariffs)
+    {
+      super();
+      this.key = key;
+      this.rationality = rationality;
+      this.profiles = profiles;
+      this.populations = populations;
+      this.slots = slots;
+      this.tariffs = tariffs;
+      int customers = populations.length;
+      charges = new double[customers * tariffs.length];
+      shares = new double[customers * tariffs.length];
+      scale = new double[customers];
+      best = new double[customers];
+      sum = new double[customers];
+      subscribers = new double[tariffs.length];
+      revenue = new double[tariffs.length];
+    }
+
+    // fills in the customers from up to but not including to
+    private void evaluate (int from, int to)
+    {
+      int count = tariffs.length;
+      double[] profile = new double[slots];
+      for (int c = from; c < to; c++) {
+        System.arraycopy(profiles, c * slots, profile, 0, slots);
+        int offset = c * count;
+        double energy = 0.0;
+        for (int i = 0; i < slots; i++) {
+          energy += Math.abs(profile[i]);
+        }
+        scale[c] = (energy > 0.0) ? energy : 1.0;
+        for (int t = 0; t < count; t++) {
+          charges[offset + t] = tariffs[t].charge(profile);
+        }
+        double top = -Double.MAX_VALUE;
+        for (int t = 0; t < count; t++) {
+          top = Math.max(top, charges[offset + t] / scale[c]);
+        }
+        double total = 0.0;
+        for (int t = 0; t < count; t++) {
+          double weight = Math.exp(rationality
+                                   * (charges[offset + t] / scale[c] - top));
+          shares[offset + t] = weight;
+          total += weight;
+        }
+        for (int t = 0; t < count; t++) {
+          shares[offset + t] /= total;
+        }
+        best[c] = top;
+        sum[c] = total;
+      }
+    }
+
+    private void summarize ()
+    {
+      int count = tariffs.length;
+      for (int c = 0; c < populations.length; c++) {
+        int offset = c * count;
+        for (int t = 0; t < count; t++) {
+          double subscribed = populations[c] * shares[offset + t];
+          subscribers[t] += subscribed;
+          revenue[t] -= subscribed * charges[offset + t];
+        }
+      }
+    }
+
+    int getCustomerCount ()
+    {
+      return populations.length;
+    }
+
+    int getTariffCount ()
+    {
+      return tariffs.length;
+    }
+
+    CompiledTariff getTariff (int tariff)
+    {
+      return tariffs[tariff];
+    }
+
+    /**
+     * Predicted fraction of a customer's population on a tariff.
+     */
+    double getShare (int customer, int tariff)
+    {
+      return shares[customer * tariffs.length + tariff];
+    }
+
+    /**
+     * Predicted number of subscribers to a tariff.
+     */
+    double getSubscribers (int tariff)
+    {
+      return subscribers[tariff];
+    }
+
+    /**
+     * Predicted revenue of a tariff to its broker over the slot grid.
+     */
+    double getRevenue (int tariff)
+    {
+      return revenue[tariff];
+    }
+
+    int getSlots ()
+    {
+      return slots;
+    }
+
+    /**
+     * Copies the per-customer profile of a customer into dest.
+     */
+    void copyProfile (int customer, double[] dest)
+    {
+      System.arraycopy(profiles, customer * slots, dest, 0, slots);
+    }
+
+    double getPopulation (int customer)
+    {
+      return populations[customer];
+    }
+
+    /**
+     * Predicts the subscribers and revenue a further tariff would draw if
+     * it were published alongside the current ones.
+     */
+    Estimate evaluate (CompiledTariff candidate)
+    {
+      return evaluate(candidate, null);
+    }
+
+    /**
+     * Like evaluate(candidate), and if supplyCost is not null, also
+     * predicts the cost of serving the subscribers, given the market cost
+     * of a kWh in each slot, the way a TariffOptimizer search does.
+     */
+    Estimate evaluate (CompiledTariff candidate, double[] supplyCost)
+    {
+      double[] profile = new double[slots];
+      double[] candidateCharges = new double[populations.length];
+      double[] costs =
+          (null == supplyCost) ? null : new double[populations.length];
+      for (int c = 0; c < populations.length; c++) {
+        System.arraycopy(profiles, c * slots, profile, 0, slots);
+        candidateCharges[c] = candidate.charge(profile);
+        if (null == costs)
+          continue;
+        for (int slot = 0; slot < slots; slot++) {
+          costs[c] -= profile[slot] * supplyCost[slot % supplyCost.length];
+        }
+      }
+      return evaluate(candidateCharges, costs);
+    }
+
+    /**
+     * Predicts the take-up of a further tariff from its charge to one
+     * member of each customer, as CompiledTariff.charge() would give it.
+     * If costs is not null, it holds the broker's cost of serving one
+     * member of each customer, and the estimate includes the total.
+     */
+    Estimate evaluate (double[] candidateCharges, double[] costs)
+    {
+      double subscribed = 0.0;
+      double income = 0.0;
+      double spent = 0.0;
+      for (int c = 0; c < populations.length; c++) {
+        double charge = candidateCharges[c];
+        double share = 1.0;
+        if (tariffs.length > 0) {
+          // relative to whichever is larger, so exp cannot overflow
+          double x = rationality * (charge / scale[c] - best[c]);
+          share = (x > 0.0) ? 1.0 / (sum[c] * Math.exp(-x) + 1.0)
+              : Math.exp(x) / (sum[c] + Math.exp(x));
+        }
+        double members = populations[c] * share;
+        subscribed += members;
+        income -= members * charge;
+        if (null != costs)
+          spent += members * costs[c];
+      }
+      return new Estimate(subscribed, income, spent);
+    }
+  }
+
+  /**
+   * Predicted take-up of a candidate tariff.
+   */
+  static final class Estimate
+  {
+    final double subscribers;
+    final double revenue; // to the broker, over the slot grid
+    final double cost; // of serving the subscribers, if known
+
+    Estimate (double subscribers, double revenue, double cost)
+    {
+      super();
+      this.subscribers = subscribers;
+      this.revenue = revenue;
+      this.cost = cost;
+    }
+  }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Append-only record of every tariff seen in the game: publications,
+ * revocations, supersessions and subscription changes, each stamped with
+ * its timeslot. Nothing is ever removed, so the market can be
+ * reconstructed as of any earlier timeslot, and a broker's pricing can be
+ * followed over time.
+ *
+ * Tariffs are numbered in order of publication, and what is needed about
+ * each is kept in parallel arrays. Events are kept in parallel arrays too,
+ * in timeslot order, chained per tariff, with an index from each timeslot
+ * to its first event. Broker names and PowerTypes are stored as small
+ * integers.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class TariffHistory
+{
+  enum Event { PUBLISH, REVOKE, SUPERSEDE, SUBSCRIBE }
+
+  private static final Event[] EVENTS = Event.values();
+  private static final int NEVER = Integer.MAX_VALUE;
+
+  // tariffs, by number
+  private int tariffCount = 0;
+  private long[] tariffId;
+  private int[] tariffBroker;
+  private byte[] tariffType;
+  private double[] tariffRate;
+  private double[] tariffSignup;
+  private double[] tariffPeriodic;
+  private int[] published;
+  private int[] revoked;
+  private int[] supersededBy; // tariff number, or -1
+  private int[] subscribers; // as of the latest event
+  private int[] firstEvent;
+  private int[] lastEvent;
+  private LongIntMap byId = new LongIntMap(16);
+
+  // events, in timeslot order
+  private int eventCount = 0;
+  private byte[] eventKind;
+  private int[] eventTimeslot;
+  private int[] eventTariff;
+  private int[] eventDelta; // subscription change
+  private int[] nextEvent; // of the same tariff, or -1
+
+  // first event at or after each timeslot, from timeslot zero
+  private int[] timeslotStart = new int[0];
+  private int latest = -1;
+
+  private ArrayList<String> brokers = new ArrayList<String>();
+  private HashMap<String, Integer> brokerIndex = new HashMap<String, Integer>();
+  private ArrayList<PowerType> types = new ArrayList<PowerType>();
+  private HashMap<PowerType, Integer> typeIndex =
+      new HashMap<PowerType, Integer>();
+
+  TariffHistory ()
+  {
+    super();
+    tariffId = new long[16];
+    tariffBroker = new int[16];
+    tariffType = new byte[16];
+    tariffRate = new double[16];
+    tariffSignup = new double[16];
+    tariffPeriodic = new double[16];
+    published = new int[16];
+    revoked = new int[16];
+    supersededBy = new int[16];
+    subscribers = new int[16];
+    firstEvent = new int[16];
+    lastEvent = new int[16];
+    eventKind = new byte[64];
+    eventTimeslot = new int[64];
+    eventTariff = new int[64];
+    eventDelta = new int[64];
+    nextEvent = new int[64];
+  }
+
+  // ------------------- recording ---------------------
+
+  /**
+   * Records the publication of a tariff, and the supersession of any
+   * tariffs it replaces. A tariff already recorded is ignored.
+   */
+  void recordPublication (int timeslot, TariffSpecification spec)
+  {
+    if (LongIntMap.NONE != byId.get(spec.getId()))
+      return;
+    ensureTariffs(tariffCount + 1);
+    int t = tariffCount++;
+    byId.put(spec.getId(), t);
+    tariffId[t] = spec.getId();
+    tariffBroker[t] = brokerNumber(spec.getBroker().getUsername());
+    tariffType[t] = (byte)typeNumber(spec.getPowerType());
+    tariffRate[t] = TariffBook.meanRate(spec);
+    tariffSignup[t] = spec.getSignupPayment();
+    tariffPeriodic[t] = spec.getPeriodicPayment();
+    published[t] = NEVER;
+    revoked[t] = NEVER;
+    supersededBy[t] = -1;
+    subscribers[t] = 0;
+    firstEvent[t] = -1;
+    lastEvent[t] = -1;
+    int e = append(timeslot, Event.PUBLISH, t, 0);
+    published[t] = eventTimeslot[e];
+    if (null != spec.getSupersedes()) {
+      for (Long old : spec.getSupersedes()) {
+        int o = byId.get(old);
+        if (LongIntMap.NONE != o) {
+          append(timeslot, Event.SUPERSEDE, o, 0);
+          supersededBy[o] = t;
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the revocation of a tariff. Returns false if the tariff is
+   * unknown or already revoked.
+   */
+  boolean recordRevocation (int timeslot, long id)
+  {
+    int t = byId.get(id);
+    if (LongIntMap.NONE == t || NEVER != revoked[t])
+      return false;
+    int e = append(timeslot, Event.REVOKE, t, 0);
+    revoked[t] = eventTimeslot[e];
+    return true;
+  }
+
+  /**
+   * Records a change in the number of subscribers to a tariff. Returns
+   * false if the tariff is unknown.
+   */
+  boolean recordSubscription (int timeslot, long id, int delta)
+  {
+    int t = byId.get(id);
+    if (LongIntMap.NONE == t)
+      return false;
+    append(timeslot, Event.SUBSCRIBE, t, delta);
+    subscribers[t] += delta;
+    return true;
+  }
+
+  // Appends an event, at the latest timeslot if the given one is earlier,
+  // so events stay in timeslot order. Returns the event number.
+  private int append (int timeslot, Event kind, int tariff, int delta)
+  {
+    timeslot = Math.max(timeslot, Math.max(latest, 0));
+    ensureEvents(eventCount + 1);
+    if (timeslot > latest) {
+      if (timeslot >= timeslotStart.length) {
+        int old = timeslotStart.length;
+        timeslotStart = Arrays.copyOf(timeslotStart,
+                                      Math.max(timeslot + 1, old * 2));
+        Arrays.fill(timeslotStart, old, timeslotStart.length, -1);
+      }
+      // timeslots with no events start where the next one does
+      for (int ts = latest + 1; ts <= timeslot; ts++) {
+        timeslotStart[ts] = eventCount;
+      }
+      latest = timeslot;
+    }
+    int e = eventCount++;
+    eventKind[e] = (byte)kind.ordinal();
+    eventTimeslot[e] = timeslot;
+    eventTariff[e] = tariff;
+    eventDelta[e] = delta;
+    nextEvent[e] = -1;
+    if (firstEvent[tariff] < 0)
+      firstEvent[tariff] = e;
+    else
+      nextEvent[lastEvent[tariff]] = e;
+    lastEvent[tariff] = e;
+    return e;
+  }
+
+  private int brokerNumber (String username)
+  {
+    Integer result = brokerIndex.get(username);
+    if (null == result) {
+      result = brokers.size();
+      brokers.add(username);
+      brokerIndex.put(username, result);
+    }
+    return result;
+  }
+
+  private int typeNumber (PowerType type)
+  {
+    Integer result = typeIndex.get(type);
+    if (null == result) {
+      result = types.size();
+      types.add(type);
+      typeIndex.put(type, result);
+    }
+    return result;
+  }
+
+  /**
+   * Reserves room for the given number of events in total, and for
+   * timeslots up to the given one, so recording them allocates nothing.
+   */
+  void ensureCapacity (int events, int timeslot)
+  {
+    ensureEvents(events);
+    if (timeslot >= timeslotStart.length) {
+      int old = timeslotStart.length;
+      timeslotStart = Arrays.copyOf(timeslotStart, timeslot + 1);
+      Arrays.fill(timeslotStart, old, timeslotStart.length, -1);
+    }
+  }
+
+  private void ensureTariffs (int count)
+  {
+    if (count <= tariffId.length)
+      return;
+    int capacity = Math.max(count, tariffId.length * 2);
+    tariffId = Arrays.copyOf(tariffId, capacity);
+    tariffBroker = Arrays.copyOf(tariffBroker, capacity);
+    tariffType = Arrays.copyOf(tariffType, capacity);
+    tariffRate = Arrays.copyOf(tariffRate, capacity);
+    tariffSignup = Arrays.copyOf(tariffSignup, capacity);
+    tariffPeriodic = Arrays.copyOf(tariffPeriodic, capacity);
+    published = Arrays.copyOf(published, capacity);
+    revoked = Arrays.copyOf(revoked, capacity);
+    supersededBy = Arrays.copyOf(supersededBy, capacity);
+    subscribers = Arrays.copyOf(subscribers, capacity);
+    firstEvent = Arrays.copyOf(firstEvent, capacity);
+    lastEvent = Arrays.copyOf(lastEvent, capacity);
+  }
+
+  private void ensureEvents (int count)
+  {
+    if (count <= eventKind.length)
+      return;
+    int capacity = Math.max(count, eventKind.length * 2);
+    eventKind = Arrays.copyOf(eventKind, capacity);
+    eventTimeslot = Arrays.copyOf(eventTimeslot, capacity);
+    eventTariff = Arrays.copyOf(eventTariff, capacity);
+    eventDelta = Arrays.copyOf(eventDelta, capacity);
+    nextEvent = Arrays.copyOf(nextEvent, capacity);
+  }
+
+  // -------------------- access -----------------------
+
+  int getTariffCount ()
+  {
+    return tariffCount;
+  }
+
+  int getEventCount ()
+  {
+    return eventCount;
+  }
+
+  /**
+   * Latest timeslot with an event, or -1 if there are none.
+   */
+  int getLatestTimeslot ()
+  {
+    return latest;
+  }
+
+  List<String> getBrokers ()
+  {
+    return Collections.unmodifiableList(brokers);
+  }
+
+  /**
+   * Number of the tariff with the given id, or -1 if it was never seen.
+   */
+  int find (long id)
+  {
+    return byId.get(id);
+  }
+
+  long getTariffId (int tariff)
+  {
+    return tariffId[tariff];
+  }
+
+  String getBroker (int tariff)
+  {
+    return brokers.get(tariffBroker[tariff]);
+  }
+
+  PowerType getPowerType (int tariff)
+  {
+    return types.get(tariffType[tariff]);
+  }
+
+  double getMeanRate (int tariff)
+  {
+    return tariffRate[tariff];
+  }
+
+  double getSignupPayment (int tariff)
+  {
+    return tariffSignup[tariff];
+  }
+
+  double getPeriodicPayment (int tariff)
+  {
+    return tariffPeriodic[tariff];
+  }
+
+  int getPublished (int tariff)
+  {
+    return published[tariff];
+  }
+
+  /**
+   * Timeslot of revocation, or -1 if the tariff is still live.
+   */
+  int getRevoked (int tariff)
+  {
+    return (NEVER == revoked[tariff]) ? -1 : revoked[tariff];
+  }
+
+  /**
+   * Number of the tariff that superseded this one, or -1.
+   */
+  int getSupersededBy (int tariff)
+  {
+    return supersededBy[tariff];
+  }
+
+  Event getEventKind (int event)
+  {
+    return EVENTS[eventKind[event]];
+  }
+
+  int getEventTimeslot (int event)
+  {
+    return eventTimeslot[event];
+  }
+
+  int getEventTariff (int event)
+  {
+    return eventTariff[event];
+  }
+
+  int getEventDelta (int event)
+  {
+    return eventDelta[event];
+  }
+
+  /**
+   * First event at or after the given timeslot; getEventCount() if there
+   * is none.
+   */
+  int firstEventAt (int timeslot)
+  {
+    if (timeslot <= 0)
+      return 0;
+    if (timeslot > latest)
+      return eventCount;
+    return timeslotStart[timeslot];
+  }
+
+  // ------------------ time travel --------------------
+
+  /**
+   * Whether a tariff was live at the end of the given timeslot.
+   */
+  boolean isLive (int tariff, int timeslot)
+  {
+    return published[tariff] <= timeslot && revoked[tariff] > timeslot;
+  }
+
+  /**
+   * Numbers of the tariffs of the given type, or of all types if type is
+   * null, that were live at the end of the given timeslot, in order of
+   * publication.
+   */
+  int[] liveAt (int timeslot, PowerType type)
+  {
+    Integer wanted = (null == type) ? null : typeIndex.get(type);
+    if (null != type && null == wanted)
+      return new int[0];
+    int[] result = new int[tariffCount];
+    int count = 0;
+    for (int t = 0; t < tariffCount; t++) {
+      if (isLive(t, timeslot)
+          && (null == wanted || tariffType[t] == wanted))
+        result[count++] = t;
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Subscribers to a tariff at the end of the given timeslot, from the
+   * subscription changes recorded up to then.
+   */
+  int subscribersAt (int tariff, int timeslot)
+  {
+    if (timeslot >= latest)
+      return subscribers[tariff];
+    int result = 0;
+    for (int e = firstEvent[tariff];
+         e >= 0 && eventTimeslot[e] <= timeslot; e = nextEvent[e]) {
+      result += eventDelta[e];
+    }
+    return result;
+  }
+
+  /**
+   * Mean rate of the tariffs of the given type that a broker had live at
+   * the end of each of the timeslots from, from + step, ... up to but not
+   * including to. Entries are NaN where the broker had none.
+   */
+  double[] rateTrend (String broker, PowerType type,
+                      int from, int to, int step)
+  {
+    int count = Math.max(0, (to - from + step - 1) / step);
+    double[] sum = new double[count];
+    int[] live = new int[count];
+    Integer b = brokerIndex.get(broker);
+    Integer k = typeIndex.get(type);
+    if (null != b && null != k) {
+      for (int t = 0; t < tariffCount; t++) {
+        if (tariffBroker[t] != b || tariffType[t] != k)
+          continue;
+        // the samples within the tariff's lifetime
+        int first = Math.max(0, (published[t] - from + step - 1) / step);
+        int last = (NEVER == revoked[t]) ? count
+            : Math.min(count,
+                       Math.max(0, (revoked[t] - from + step - 1) / step));
+        for (int i = first; i < last; i++) {
+          sum[i] += tariffRate[t];
+          live[i] += 1;
+        }
+      }
+    }
+    double[] result = new double[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = (live[i] > 0) ? sum[i] / live[i] : Double.NaN;
+    }
+    return result;
+  }
+
+  /**
+   * Number of tariffs a broker published in the given range of
+   * timeslots, from up to but not including to.
+   */
+  int publications (String broker, int from, int to)
+  {
+    Integer b = brokerIndex.get(broker);
+    if (null == b)
+      return 0;
+    int result = 0;
+    for (int e = firstEventAt(from); e < firstEventAt(to); e++) {
+      if (Event.PUBLISH.ordinal() == eventKind[e]
+          && tariffBroker[eventTariff[e]] == b)
+        result += 1;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.Broker;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Searches time-of-use rate schedules for the one that earns the most
+ * over the usage-record slots, as predicted by a TariffChoiceEngine
+ * prediction, after paying the market price of the energy. A schedule
+ * has one price per block of hours, for weekdays and for weekends.
+ *
+ * The search is a hill-climb with restarts around the best schedule so
+ * far. It runs on a background thread until its time budget is spent or
+ * a new search is started, and the best schedule found is available at
+ * any time. Each step changes the price of one block, or of all of them,
+ * and is scored in O(customers) from per-customer block usage worked out
+ * before the search starts.
+ *
+ * @author agent
+ */
+class TariffOptimizer
+{
+  static private Logger log = Logger.getLogger(TariffOptimizer.class);
+
+  // failed steps before the step size is halved
+  private static final int PATIENCE = 50;
+
+  private final TimeIndexService timeIndex;
+  private final int blocks; // per day
+  private final long budget; // msec per search
+  private final Random random;
+
+  private ExecutorService pool = null;
+  private volatile int generation = 0;
+  private volatile Schedule best = null;
+
+  /**
+   * Creates an optimizer that splits the day into the given number of
+   * blocks, which should divide 24, and spends up to budget msec on each
+   * search.
+   */
+  TariffOptimizer (TimeIndexService timeIndex, int blocks, long budget,
+                   long seed)
+  {
+    super();
+    this.timeIndex = timeIndex;
+    this.blocks = Math.max(1, Math.min(24, blocks));
+    this.budget = budget;
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Returns the best schedule found by the latest search, or null if none
+   * has been found yet.
+   */
+  Schedule getBest ()
+  {
+    return best;
+  }
+
+  /**
+   * Starts a search in the background, abandoning any search still
+   * running. The problem is set up on the background thread as well.
+   */
+  synchronized void start (final Callable<Problem> setup)
+  {
+    final int mine = ++generation;
+    getPool().execute(new Runnable() {
+      @Override
+      public void run ()
+      {
+        try {
+          Problem problem = setup.call();
+          if (null != problem && mine == generation)
+            search(problem, mine);
+        }
+        catch (Exception e) {
+          log.error("tariff search failed", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Runs a search to completion on the calling thread, and returns the
+   * best schedule found.
+   */
+  Schedule search (Problem problem)
+  {
+    return search(problem, generation);
+  }
+
+  /**
+   * Abandons any search in progress and stops the background thread.
+   */
+  synchronized void shutdown ()
+  {
+    generation += 1;
+    if (null != pool) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  private synchronized ExecutorService getPool ()
+  {
+    if (null == pool) {
+      pool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable task)
+        {
+          Thread thread = new Thread(task, "tariff-optimizer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return pool;
+  }
+
+  // block of a slot: weekday blocks first, then weekend blocks
+  int blockOf (int slot)
+  {
+    int block = timeIndex.hourOfDay(slot) * blocks / 24;
+    return (timeIndex.dayOfWeek(slot) > 5) ? blocks + block : block;
+  }
+
+  private Schedule search (Problem problem, int mine)
+  {
+    long deadline = System.currentTimeMillis() + budget;
+    TariffChoiceEngine.Prediction prediction = problem.prediction;
+    int customers = prediction.getCustomerCount();
+    int slots = prediction.getSlots();
+    int width = 2 * blocks;
+    double sign = problem.type.isProduction() ? 1.0 : -1.0;
+
+    // signed usage of one member of each customer in each block, and
+    // the cost of serving it, which no schedule changes
+    double[] usage = new double[customers * width];
+    double[] costs = new double[customers];
+    int[] block = new int[slots];
+    for (int slot = 0; slot < slots; slot++) {
+      block[slot] = blockOf(slot);
+    }
+    double[] profile = new double[slots];
+    for (int c = 0; c < customers; c++) {
+      prediction.copyProfile(c, profile);
+      for (int slot = 0; slot < slots; slot++) {
+        usage[c * width + block[slot]] += sign * profile[slot];
+        costs[c] -= profile[slot]
+            * problem.supplyCost[slot % problem.supplyCost.length];
+      }
+    }
+
+    // start from the flat rate, or from the earlier schedule if it does
+    // better
+    double[] prices = new double[width];
+    Arrays.fill(prices, problem.startRate);
+    clamp(prices, problem);
+    double[] charges = new double[customers];
+    for (int c = 0; c < customers; c++) {
+      charges[c] = CompiledTariff.dot(usage, c * width, prices, width);
+    }
+    TariffChoiceEngine.Estimate estimate = prediction.evaluate(charges, costs);
+    double score = estimate.revenue - estimate.cost;
+    Schedule seed = problem.seed;
+    if (null != seed && seed.prices.length == width) {
+      double[] seedPrices = seed.prices.clone();
+      clamp(seedPrices, problem);
+      double[] seedCharges = new double[customers];
+      for (int c = 0; c < customers; c++) {
+        seedCharges[c] =
+            CompiledTariff.dot(usage, c * width, seedPrices, width);
+      }
+      TariffChoiceEngine.Estimate seedEstimate =
+          prediction.evaluate(seedCharges, costs);
+      if (seedEstimate.revenue - seedEstimate.cost > score) {
+        prices = seedPrices;
+        charges = seedCharges;
+        estimate = seedEstimate;
+        score = estimate.revenue - estimate.cost;
+      }
+    }
+    Schedule result =
+        new Schedule(problem.type, blocks, prices, estimate, 0);
+    if (mine == generation)
+      best = result;
+
+    double initialStep = Math.max(0.001, 0.1 * Math.abs(problem.startRate));
+    double step = initialStep;
+    double[] trialPrices = new double[width];
+    double[] trialCharges = new double[customers];
+    int failures = 0;
+    int steps = 0;
+    while (mine == generation && System.currentTimeMillis() < deadline) {
+      steps += 1;
+      System.arraycopy(prices, 0, trialPrices, 0, width);
+      double delta = step * (random.nextBoolean() ? 1.0 : -1.0)
+          * (0.5 + random.nextDouble());
+      int moved = random.nextInt(width + 1);
+      if (moved == width) {
+        // shift the whole schedule
+        for (int b = 0; b < width; b++) {
+          trialPrices[b] += delta;
+        }
+      }
+      else {
+        trialPrices[moved] += delta;
+      }
+      clamp(trialPrices, problem);
+      for (int c = 0; c < customers; c++) {
+        if (moved == width)
+          trialCharges[c] =
+              CompiledTariff.dot(usage, c * width, trialPrices, width);
+        else
+          trialCharges[c] = charges[c] + usage[c * width + moved]
+              * (trialPrices[moved] - prices[moved]);
+      }
+      TariffChoiceEngine.Estimate trial =
+          prediction.evaluate(trialCharges, costs);
+      double trialScore = trial.revenue - trial.cost;
+      if (trialScore > score) {
+        double[] swap = prices;
+        prices = trialPrices;
+        trialPrices = swap;
+        swap = charges;
+        charges = trialCharges;
+        trialCharges = swap;
+        score = trialScore;
+        failures = 0;
+        if (score > result.getScore()) {
+          result = new Schedule(problem.type, blocks, prices, trial, steps);
+          if (mine == generation)
+            best = result;
+        }
+      }
+      else if (++failures >= PATIENCE) {
+        failures = 0;
+        step /= 2.0;
+        if (step < initialStep / 64.0) {
+          // restart near the best schedule so far
+          step = initialStep;
+          System.arraycopy(result.prices, 0, prices, 0, width);
+          for (int b = 0; b < width; b++) {
+            prices[b] += step * random.nextGaussian();
+          }
+          clamp(prices, problem);
+          for (int c = 0; c < customers; c++) {
+            charges[c] = CompiledTariff.dot(usage, c * width, prices, width);
+          }
+          estimate = prediction.evaluate(charges, costs);
+          score = estimate.revenue - estimate.cost;
+        }
+      }
+    }
+    log.info("tariff search: " + steps + " steps, best profit "
+             + result.getScore() + " with " + result.getSubscribers()
+             + " subscribers");
+    return result;
+  }
+
+  // keeps prices on the right side of zero and of the ceiling
+  private void clamp (double[] prices, Problem problem)
+  {
+    for (int b = 0; b < prices.length; b++) {
+      if (problem.type.isProduction())
+        prices[b] = Math.max(0.0, Math.min(problem.ceiling, prices[b]));
+      else
+        prices[b] = Math.min(problem.ceiling, prices[b]);
+    }
+  }
+
+  /**
+   * What a search works from: a tariff-choice prediction for one
+   * PowerType, the market cost of a kWh in each usage-record slot, a
+   * starting rate, and the highest rate allowed, from the customer's
+   * point of view. A schedule from an earlier search may be given, and
+   * is started from if it does better than the flat starting rate.
+   */
+  static final class Problem
+  {
+    final PowerType type;
+    final TariffChoiceEngine.Prediction prediction;
+    final double[] supplyCost;
+    final double startRate;
+    final double ceiling;
+    final Schedule seed;
+
+    Problem (PowerType type, TariffChoiceEngine.Prediction prediction,
+             double[] supplyCost, double startRate, double ceiling,
+             Schedule seed)
+    {
+      super();
+      this.type = type;
+      this.prediction = prediction;
+      this.supplyCost = supplyCost;
+      this.startRate = Math.min(startRate, ceiling);
+      this.ceiling = ceiling;
+      this.seed = seed;
+    }
+  }
+
+  /**
+   * A time-of-use schedule and how it is expected to do. Immutable.
+   */
+  static final class Schedule
+  {
+    private final PowerType type;
+    private final int blocks;
+    private final double[] prices;
+    private final TariffChoiceEngine.Estimate estimate;
+    private final int step;
+
+    private Schedule (PowerType type, int blocks, double[] prices,
+                      TariffChoiceEngine.Estimate estimate, int step)
+    {
+      super();
+      this.type = type;
+      this.blocks = blocks;
+      this.prices = prices.clone();
+      this.estimate = estimate;
+      this.step = step;
+    }
+
+    PowerType getPowerType ()
+    {
+      return type;
+    }
+
+    /**
+     * Rate value of a block, weekday blocks first.
+     */
+    double getPrice (int block)
+    {
+      return prices[block];
+    }
+
+    double getScore ()
+    {
+      return estimate.revenue - estimate.cost;
+    }
+
+    double getSubscribers ()
+    {
+      return estimate.subscribers;
+    }
+
+    double getRevenue ()
+    {
+      return estimate.revenue;
+    }
+
+    /**
+     * Search step at which this schedule was found.
+     */
+    int getStep ()
+    {
+      return step;
+    }
+
+    /**
+     * Adds one rate per block to the given tariff.
+     */
+    TariffSpecification addRates (TariffSpecification spec)
+    {
+      for (int weekend = 0; weekend < 2; weekend++) {
+        for (int b = 0; b < blocks; b++) {
+          // the first hour of each block, as blockOf() assigns them
+          int begin = (b * 24 + blocks - 1) / blocks;
+          int end = ((b + 1) * 24 + blocks - 1) / blocks;
+          spec.addRate(new Rate().withValue(prices[weekend * blocks + b])
+                       .withWeeklyBegin(weekend * 5 + 1)
+                       .withWeeklyEnd(weekend * 2 + 5)
+                       .withDailyBegin(begin).withDailyEnd(end));
+        }
+      }
+      return spec;
+    }
+
+    /**
+     * Returns a new tariff for the given broker with this schedule.
+     */
+    TariffSpecification toSpecification (Broker broker)
+    {
+      return addRates(new TariffSpecification(broker, type));
+    }
+  }
+}
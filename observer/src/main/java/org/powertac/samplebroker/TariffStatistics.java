@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Running statistics of the fixed rates and signup payments of the live
+ * tariffs of each PowerType. Tariffs are added as they are published and
+ * removed as they are revoked; mean and variance are kept with Welford's
+ * method, and minimum and maximum with a sorted count of the values, so
+ * an update costs O(log n) and every query is O(1).
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class TariffStatistics
+{
+  private HashMap<PowerType, RunningStats[]> byType =
+      new HashMap<PowerType, RunningStats[]>();
+
+  private static final int RATES = 0;
+  private static final int SIGNUPS = 1;
+
+  /**
+   * Statistics of a type with no tariffs.
+   */
+  static final Summary EMPTY =
+      new Summary(new RunningStats(), new RunningStats());
+
+  TariffStatistics ()
+  {
+    super();
+  }
+
+  /**
+   * Adds the fixed rates and the signup payment of a tariff.
+   */
+  void add (TariffSpecification spec)
+  {
+    RunningStats[] stats = byType.get(spec.getPowerType());
+    if (null == stats) {
+      stats = new RunningStats[] {new RunningStats(), new RunningStats()};
+      byType.put(spec.getPowerType(), stats);
+    }
+    for (Rate rate : spec.getRates()) {
+      if (rate.isFixed())
+        stats[RATES].add(rate.getMinValue());
+    }
+    stats[SIGNUPS].add(spec.getSignupPayment());
+  }
+
+  /**
+   * Takes out a tariff that was added earlier.
+   */
+  void remove (TariffSpecification spec)
+  {
+    RunningStats[] stats = byType.get(spec.getPowerType());
+    if (null == stats)
+      return;
+    for (Rate rate : spec.getRates()) {
+      if (rate.isFixed())
+        stats[RATES].remove(rate.getMinValue());
+    }
+    stats[SIGNUPS].remove(spec.getSignupPayment());
+  }
+
+  /**
+   * Current statistics of the given type; all zero if no tariffs of that
+   * type have been seen.
+   */
+  Summary getSummary (PowerType type)
+  {
+    RunningStats[] stats = byType.get(type);
+    if (null == stats)
+      return EMPTY;
+    return new Summary(stats[RATES], stats[SIGNUPS]);
+  }
+
+  /**
+   * Mean, variance, minimum and maximum of a multiset of values that
+   * can be removed again.
+   */
+  static final class RunningStats
+  {
+    private int count = 0;
+    private double mean = 0.0;
+    private double m2 = 0.0; // sum of squared deviations from the mean
+    private TreeMap<Double, int[]> values = new TreeMap<Double, int[]>();
+    private double min = 0.0;
+    private double max = 0.0;
+
+    void add (double x)
+    {
+      count += 1;
+      double delta = x - mean;
+      mean += delta / count;
+      m2 += delta * (x - mean);
+      int[] n = values.get(x);
+      if (null == n)
+        values.put(x, new int[] {1});
+      else
+        n[0] += 1;
+      if (1 == count || x < min)
+        min = x;
+      if (1 == count || x > max)
+        max = x;
+    }
+
+    /**
+     * Removes one copy of x. Returns false if there is none.
+     */
+    boolean remove (double x)
+    {
+      int[] n = values.get(x);
+      if (null == n)
+        return false;
+      if (0 == --n[0])
+        values.remove(x);
+      count -= 1;
+      if (0 == count) {
+        mean = 0.0;
+        m2 = 0.0;
+        min = 0.0;
+        max = 0.0;
+        return true;
+      }
+      double delta = x - mean;
+      mean -= delta / count;
+      m2 = Math.max(0.0, m2 - delta * (x - mean));
+      min = values.firstKey();
+      max = values.lastKey();
+      return true;
+    }
+
+    int getCount ()
+    {
+      return count;
+    }
+
+    double getMean ()
+    {
+      return mean;
+    }
+
+    /**
+     * Sample variance, zero for fewer than two values.
+     */
+    double getVariance ()
+    {
+      return (count < 2) ? 0.0 : m2 / (count - 1);
+    }
+
+    double getStandardDeviation ()
+    {
+      return Math.sqrt(getVariance());
+    }
+
+    double getMin ()
+    {
+      return min;
+    }
+
+    double getMax ()
+    {
+      return max;
+    }
+  }
+
+  /**
+   * Immutable copy of the statistics of one PowerType.
+   */
+  static final class Summary
+  {
+    final int rateCount;
+    final double meanRate;
+    final double sdRate;
+    final double minRate;
+    final double maxRate;
+    final int signupCount;
+    final double meanSignup;
+    final double sdSignup;
+    final double minSignup;
+    final double maxSignup;
+
+    private Summary (RunningStats rates, RunningStats signups)
+    {
+      super();
+      rateCount = rates.getCount();
+      meanRate = rates.getMean();
+      sdRate = rates.getStandardDeviation();
+      minRate = rates.getMin();
+      maxRate = rates.getMax();
+      signupCount = signups.getCount();
+      meanSignup = signups.getMean();
+      sdSignup = signups.getStandardDeviation();
+      minSignup = signups.getMin();
+      maxSignup = signups.getMax();
+    }
+
+    /**
+     * Weighted score of how aggressively the market is competing: rate
+     * levels, spreads and changes in the means count against it, signup
+     * payment levels for it. The changes since the last look, our recent
+     * signups and the number of tariffs published come from the caller.
+     */
+    double aggressiveValue (double diffMeanRate, double diffMeanSignup,
+                            int signups, int tariffsPublished)
+    {
+      return -10.0 * (meanRate + sdRate + maxRate + minRate + diffMeanRate)
+          + 10.0 * (meanSignup + maxSignup + minSignup)
+          - 10.0 * (sdSignup + diffMeanSignup)
+          + signups + tariffsPublished;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+/**
+ * Decides when to publish a consumption tariff, and at what rate, from
+ * what the portfolio manager observed over the last period. Strategies
+ * keep whatever state they need between periods and see nothing else of
+ * the broker, so several can run side by side on the same observations;
+ * only the decision of the primary one is acted on.
+ *
+ * @author agent
+ */
+interface TariffStrategy
+{
+  /**
+   * Short name, for configuration and logs.
+   */
+  String getName ();
+
+  /**
+   * Returns the tariff to publish, or null to publish nothing. The
+   * primary is called on the activation thread and shadows on worker
+   * threads; no strategy is called concurrently with itself.
+   */
+  Decision decide (Observation observation);
+
+  /**
+   * Tells the strategy the mean rate of the tariff published for its
+   * latest decision, which may differ from the rate it decided on. Only
+   * the primary strategy is told.
+   */
+  void published (double rate);
+
+  /**
+   * What the portfolio manager saw over one period. Immutable.
+   */
+  static final class Observation
+  {
+    final int timeslot;
+    final double cash; // our balance
+    final double publicationFee; // as last measured
+    final TariffStatistics.Summary consumption; // competing tariffs
+    final int signups; // in this period
+    final int consumes;
+    final int withdraws;
+    final int tariffsSeen;
+    final double meanMarketPrice; // per MWh
+
+    Observation (int timeslot, double cash, double publicationFee,
+                 TariffStatistics.Summary consumption, int signups,
+                 int consumes, int withdraws, int tariffsSeen,
+                 double meanMarketPrice)
+    {
+      super();
+      this.timeslot = timeslot;
+      this.cash = cash;
+      this.publicationFee = publicationFee;
+      this.consumption = consumption;
+      this.signups = signups;
+      this.consumes = consumes;
+      this.withdraws = withdraws;
+      this.tariffsSeen = tariffsSeen;
+      this.meanMarketPrice = meanMarketPrice;
+    }
+  }
+
+  /**
+   * A consumption tariff to publish: its rate, from the customer's point
+   * of view, and why.
+   */
+  static final class Decision
+  {
+    final double rate;
+    final String reason;
+
+    Decision (double rate, String reason)
+    {
+      super();
+      this.rate = rate;
+      this.reason = reason;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return rate + " (" + reason + ")";
+    }
+  }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.common.msg.SimEnd;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Collects typed telemetry records from the other services and writes
+ * them to CSV files in the background, one file per record type and
+ * session. Recording a record only puts it in a lock-free queue, so no
+ * file or console I/O happens on the activation path. A daemon thread
+ * drains the queue, and starts a new set of files each time the broker is
+ * initialized for a game.
+ *
+ * Records queued before a session change are written to the files of the
+ * session they were recorded in.
+ *
+ * @author agent
+ */
+@Service
+public class TelemetryService
+implements Initializable
+{
+  static private Logger log = Logger.getLogger(TelemetryService.class);
+
+  // how long the writer sleeps when the queue is empty
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  @Autowired
+  private BrokerPropertiesService propertiesService;
+
+  @ConfigurableValue(valueType = "Boolean",
+          description = "write telemetry files")
+  private volatile boolean enabled = true;
+
+  @ConfigurableValue(valueType = "String",
+          description = "directory for telemetry files")
+  private String directory = "log";
+
+  @ConfigurableValue(valueType = "String",
+          description = "telemetry file name prefix")
+  private String prefix = "telemetry";
+
+  private final ConcurrentLinkedQueue<Record> queue =
+      new ConcurrentLinkedQueue<Record>();
+  private int sessionCount = 0;
+  private Thread writer = null;
+
+  public TelemetryService ()
+  {
+    super();
+  }
+
+  /**
+   * Per-game initialization. Starts a new session, and the writer thread
+   * if it is not running yet.
+   */
+  @Override
+  public synchronized void initialize (BrokerContext context)
+  {
+    propertiesService.configureMe(this);
+    if (!enabled)
+      return;
+    sessionCount += 1;
+    String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+    queue.offer(new Rotate(new File(directory),
+                           prefix + "-" + stamp + "-" + sessionCount));
+    if (null == writer) {
+      writer = new Thread(new Runnable() {
+        @Override
+        public void run ()
+        {
+          drain();
+        }
+      }, "telemetry-writer");
+      writer.setDaemon(true);
+      writer.start();
+    }
+  }
+
+  /**
+   * Queues a record for writing. Never blocks.
+   */
+  public void record (Record record)
+  {
+    if (enabled)
+      queue.offer(record);
+  }
+
+  /**
+   * Closes the files of the session at the end of the game.
+   */
+  public void handleMessage (SimEnd se)
+  {
+    if (enabled)
+      queue.offer(new Rotate(null, null));
+  }
+
+  /**
+   * Number of records waiting to be written.
+   */
+  int getBacklog ()
+  {
+    return queue.size();
+  }
+
+  // The writer thread: writes whatever is queued, flushes, and sleeps
+  // when there is nothing to do
+  private void drain ()
+  {
+    Session session = null;
+    while (true) {
+      Record record = queue.poll();
+      if (null == record) {
+        if (null != session)
+          session.flush();
+        LockSupport.parkNanos(IDLE_NANOS);
+        continue;
+      }
+      if (record instanceof Rotate) {
+        if (null != session)
+          session.close();
+        Rotate rotate = (Rotate)record;
+        session = (null == rotate.name) ? null
+            : new Session(rotate.directory, rotate.name);
+      }
+      else if (null != session) {
+        session.write(record);
+      }
+    }
+  }
+
+  // The open files of one session, by record type
+  private static class Session
+  {
+    private final File directory;
+    private final String name;
+    private final Map<String, Writer> files = new HashMap<String, Writer>();
+    private final StringBuilder line = new StringBuilder();
+
+    Session (File directory, String name)
+    {
+      super();
+      this.directory = directory;
+      this.name = name;
+      directory.mkdirs();
+    }
+
+    void write (Record record)
+    {
+      try {
+        Writer out = files.get(record.getType());
+        if (null == out) {
+          File file = new File(directory, name + "-" + record.getType()
+                                          + ".csv");
+          out = new BufferedWriter(new FileWriter(file));
+          files.put(record.getType(), out);
+          out.write("timeslot," + record.getHeader());
+          out.write('\n');
+        }
+        line.setLength(0);
+        line.append(record.timeslot).append(',');
+        record.appendValues(line);
+        line.append('\n');
+        out.append(line);
+      }
+      catch (IOException ioe) {
+        log.error("telemetry write failed: " + ioe);
+      }
+    }
+
+    void flush ()
+    {
+      for (Writer out : files.values()) {
+        try {
+          out.flush();
+        }
+        catch (IOException ioe) {
+          log.error("telemetry flush failed: " + ioe);
+        }
+      }
+    }
+
+    void close ()
+    {
+      for (Writer out : files.values()) {
+        try {
+          out.close();
+        }
+        catch (IOException ioe) {
+          log.error("telemetry close failed: " + ioe);
+        }
+      }
+      files.clear();
+    }
+  }
+
+  // ------------------ record types ---------------------
+
+  /**
+   * A telemetry record. Each type has its own file, with one column per
+   * value after the timeslot. Records are immutable.
+   */
+  public static abstract class Record
+  {
+    final int timeslot;
+
+    Record (int timeslot)
+    {
+      super();
+      this.timeslot = timeslot;
+    }
+
+    abstract String getType ();
+
+    // comma-separated column names, without the timeslot
+    abstract String getHeader ();
+
+    // comma-separated values, without the timeslot
+    abstract void appendValues (StringBuilder out);
+  }
+
+  // Marks the start of a session, or the end if name is null
+  private static final class Rotate extends Record
+  {
+    final File directory;
+    final String name;
+
+    Rotate (File directory, String name)
+    {
+      super(-1);
+      this.directory = directory;
+      this.name = name;
+    }
+
+    @Override
+    String getType ()
+    {
+      return "rotate";
+    }
+
+    @Override
+    String getHeader ()
+    {
+      return "";
+    }
+
+    @Override
+    void appendValues (StringBuilder out)
+    {
+    }
+  }
+
+  /**
+   * Statistics of the competing consumption tariffs over one period, and
+   * how our tariffs did.
+   */
+  public static final class TariffPeriod extends Record
+  {
+    final int period;
+    final TariffStatistics.Summary stats;
+    final double diffMeanRate;
+    final double diffMeanSignup;
+    final int signups;
+    final int tariffsSeen;
+    final double aggressiveValue;
+
+    TariffPeriod (int timeslot, int period, TariffStatistics.Summary stats,
+                  double diffMeanRate, double diffMeanSignup, int signups,
+                  int tariffsSeen, double aggressiveValue)
+    {
+      super(timeslot);
+      this.period = period;
+      this.stats = stats;
+      this.diffMeanRate = diffMeanRate;
+      this.diffMeanSignup = diffMeanSignup;
+      this.signups = signups;
+      this.tariffsSeen = tariffsSeen;
+      this.aggressiveValue = aggressiveValue;
+    }
+
+    @Override
+    String getType ()
+    {
+      return "tariffs";
+    }
+
+    @Override
+    String getHeader ()
+    {
+      return "period,meanRate,maxRate,minRate,sdRate,diffMeanRate,"
+          + "meanSignup,maxSignup,minSignup,sdSignup,diffMeanSignup,"
+          + "signups,tariffsSeen,aggressiveValue";
+    }
+
+    @Override
+    void appendValues (StringBuilder out)
+    {
+      out.append(period).append(',')
+          .append(stats.meanRate).append(',')
+          .append(stats.maxRate).append(',')
+          .append(stats.minRate).append(',')
+          .append(stats.sdRate).append(',')
+          .append(diffMeanRate).append(',')
+          .append(stats.meanSignup).append(',')
+          .append(stats.maxSignup).append(',')
+          .append(stats.minSignup).append(',')
+          .append(stats.sdSignup).append(',')
+          .append(diffMeanSignup).append(',')
+          .append(signups).append(',')
+          .append(tariffsSeen).append(',')
+          .append(aggressiveValue);
+    }
+  }
+
+  /**
+   * Our cash position at the start of a timeslot.
+   */
+  public static final class Cash extends Record
+  {
+    final double cash;
+    final double publicationFee;
+
+    Cash (int timeslot, double cash, double publicationFee)
+    {
+      super(timeslot);
+      this.cash = cash;
+      this.publicationFee = publicationFee;
+    }
+
+    @Override
+    String getType ()
+    {
+      return "cash";
+    }
+
+    @Override
+    String getHeader ()
+    {
+      return "cash,publicationFee";
+    }
+
+    @Override
+    void appendValues (StringBuilder out)
+    {
+      out.append(cash).append(',').append(publicationFee);
+    }
+  }
+
+  /**
+   * Something that happened, with a short kind and a free-text detail.
+   */
+  public static final class Event extends Record
+  {
+    final String kind;
+    final String detail;
+
+    Event (int timeslot, String kind, String detail)
+    {
+      super(timeslot);
+      this.kind = kind;
+      this.detail = detail;
+    }
+
+    @Override
+    String getType ()
+    {
+      return "events";
+    }
+
+    @Override
+    String getHeader ()
+    {
+      return "kind,detail";
+    }
+
+    @Override
+    void appendValues (StringBuilder out)
+    {
+      out.append(kind).append(",\"")
+          .append(detail.replace("\"", "\"\"")).append('"');
+    }
+  }
+}
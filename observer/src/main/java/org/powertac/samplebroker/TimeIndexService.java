@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.powertac.common.Competition;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.stereotype.Service;
+
+/**
+ * Maps timestamps and timeslot serial numbers to usage-record slots, hour
+ * of day and day of week. Everything is worked out once per game from the
+ * Competition message and kept in tables covering one week of timeslots,
+ * so lookups are a modulo and an array read, with no static lookups or
+ * date arithmetic.
+ *
+ * Days of the week follow Joda conventions, Monday is 1. Until the
+ * Competition arrives, the game is assumed to start at midnight on a
+ * Monday with hour-long timeslots.
+ *
+ * @author agent
+ */
+@Service
+public class TimeIndexService implements Initializable
+{
+  static private Logger log = Logger.getLogger(TimeIndexService.class);
+
+  static final int MINUTES_PER_WEEK = 7 * 24 * 60;
+
+  private int usageRecordLength = 7 * 24;
+
+  // Replaced as a whole, so readers on other threads see consistent tables
+  private volatile Tables tables = new Tables(0L, 60, 0, 0, 7 * 24);
+
+  public TimeIndexService ()
+  {
+    super();
+  }
+
+  @Override
+  public void initialize (BrokerContext context)
+  {
+    usageRecordLength = context.getUsageRecordLength();
+    tables = new Tables(0L, 60, 0, 0, usageRecordLength);
+  }
+
+  /**
+   * Handles the Competition instance that arrives at beginning of game,
+   * and computes the tables for it.
+   */
+  public void handleMessage (Competition comp)
+  {
+    long base = comp.getSimulationBaseTime().getMillis();
+    DateTime start = new DateTime(base, DateTimeZone.UTC);
+    int minuteOfWeek = (start.getDayOfWeek() - 1) * 24 * 60
+        + start.getMinuteOfDay();
+    int length = comp.getTimeslotLength();
+    if (MINUTES_PER_WEEK % length != 0) {
+      log.warn("Timeslot length " + length
+               + " min does not divide a week; day and hour will drift");
+    }
+    tables = new Tables(base, length, minuteOfWeek,
+                        comp.getDeactivateTimeslotsAhead(),
+                        usageRecordLength);
+  }
+
+  // ------------- lookups ----------------
+
+  /**
+   * Timeslot serial number containing the given time.
+   */
+  public int timeslotIndex (long millis)
+  {
+    Tables t = tables;
+    return (int)((millis - t.base) / t.duration);
+  }
+
+  /**
+   * Start time, in milliseconds, of the given timeslot serial number.
+   */
+  public long timeslotStart (int serial)
+  {
+    Tables t = tables;
+    return t.base + serial * t.duration;
+  }
+
+  /**
+   * Usage-record slot of the given timeslot serial number.
+   */
+  public int slotIndex (int serial)
+  {
+    return serial % usageRecordLength;
+  }
+
+  /**
+   * Hour of the day, 0 to 23, at the start of the given timeslot.
+   */
+  public int hourOfDay (int serial)
+  {
+    Tables t = tables;
+    return t.hourOfDay[(serial + t.offset) % t.weekSlots];
+  }
+
+  /**
+   * Day of the week, Monday is 1, at the start of the given timeslot.
+   */
+  public int dayOfWeek (int serial)
+  {
+    Tables t = tables;
+    return t.dayOfWeek[(serial + t.offset) % t.weekSlots];
+  }
+
+  /**
+   * Timeslot of the week, counted from Monday midnight, of the given
+   * timeslot serial number.
+   */
+  public int slotOfWeek (int serial)
+  {
+    Tables t = tables;
+    return (serial + t.offset) % t.weekSlots;
+  }
+
+  /**
+   * Number of the day, counted from the Monday before the start of the
+   * game, containing the start of the given timeslot.
+   */
+  public int dayNumber (int serial)
+  {
+    Tables t = tables;
+    return (serial + t.offset) / Math.max(1, t.weekSlots / 7);
+  }
+
+  /**
+   * Number of the week, counted from the Monday before the start of the
+   * game, containing the start of the given timeslot.
+   */
+  public int weekNumber (int serial)
+  {
+    Tables t = tables;
+    return (serial + t.offset) / t.weekSlots;
+  }
+
+  /**
+   * Usage-record slot for the timeslot starting at the given day of week
+   * and hour, or -1 if there is none or the record length does not divide
+   * a week, in which case the same hour maps to different slots.
+   */
+  public int slotFor (int dayOfWeek, int hour)
+  {
+    Tables t = tables;
+    int minute = ((dayOfWeek - 1) * 24 + hour) * 60;
+    if (minute % t.length != 0)
+      return -1;
+    int slotOfWeek = minute / t.length;
+    if (slotOfWeek < 0 || slotOfWeek >= t.weekSlots)
+      return -1;
+    return t.recordSlot[slotOfWeek];
+  }
+
+  /**
+   * Number of timeslots ahead of the current one in which trading is
+   * closed.
+   */
+  public int getDeactivateTimeslotsAhead ()
+  {
+    return tables.deactivateAhead;
+  }
+
+  /**
+   * Length of a timeslot in minutes.
+   */
+  public int getTimeslotLength ()
+  {
+    return tables.length;
+  }
+
+  public int getUsageRecordLength ()
+  {
+    return usageRecordLength;
+  }
+
+  // Per-game tables, indexed by timeslot of the week
+  private static final class Tables
+  {
+    final long base;
+    final long duration;
+    final int length; // minutes per timeslot
+    final int weekSlots;
+    final int offset; // timeslot of the week of serial number zero
+    final int deactivateAhead;
+    final int[] hourOfDay;
+    final int[] dayOfWeek;
+    final int[] recordSlot;
+
+    Tables (long base, int length, int minuteOfWeek, int deactivateAhead,
+            int recordLength)
+    {
+      super();
+      this.base = base;
+      this.length = length;
+      this.duration = length * 60000L;
+      this.deactivateAhead = deactivateAhead;
+      weekSlots = Math.max(1, MINUTES_PER_WEEK / length);
+      offset = (minuteOfWeek / length) % weekSlots;
+      hourOfDay = new int[weekSlots];
+      dayOfWeek = new int[weekSlots];
+      recordSlot = new int[weekSlots];
+      boolean aligned = (weekSlots % recordLength == 0);
+      for (int s = 0; s < weekSlots; s++) {
+        int minute = s * length;
+        hourOfDay[s] = (minute / 60) % 24;
+        dayOfWeek[s] = minute / (24 * 60) + 1;
+        // serial numbers with this slot of the week
+        int serial = ((s - offset) % weekSlots + weekSlots) % weekSlots;
+        recordSlot[s] = aligned ? serial % recordLength : -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+
+/**
+ * Bounded usage history at three resolutions for a growing set of series.
+ * Each series keeps its most recent timeslots in an hourly ring, and
+ * rolls completed days and weeks up into daily and weekly rings, so memory
+ * is fixed per series however long the game runs. All rings of all
+ * series live in three dense arrays.
+ *
+ * Days and weeks follow the calendar of the game, as given by the time
+ * index service, so they start at midnight and on Monday whatever the
+ * simulation base time. Values are summed, so a daily entry holds the
+ * total of the timeslots of its day.
+ *
+ * Not thread-safe; the owner is responsible for synchronization.
+ *
+ * @author agent
+ */
+class UsageHistory
+{
+  static final int HOURS_PER_DAY = 24;
+
+  enum Resolution { HOURLY, DAILY, WEEKLY }
+
+  private final TimeIndexService timeIndex;
+  private final int hours;
+  private final int days;
+  private final int weeks;
+
+  private int seriesCount = 0;
+  private double[] hourly;
+  private double[] daily;
+  private double[] weekly;
+  private double[] daySum; // running total of the current day
+  private double[] weekSum; // running total of the current week
+
+  private int first = -1; // first timeslot seen
+  private int current = -1; // latest timeslot seen
+
+  UsageHistory (TimeIndexService timeIndex, int hours, int days, int weeks)
+  {
+    super();
+    this.timeIndex = timeIndex;
+    this.hours = hours;
+    this.days = days;
+    this.weeks = weeks;
+    allocate(8);
+  }
+
+  int getSeriesCount ()
+  {
+    return seriesCount;
+  }
+
+  int getCurrentIndex ()
+  {
+    return current;
+  }
+
+  /**
+   * Adds kwh to the given series at the given timeslot, advancing the
+   * history first if the timeslot is new. Values older than the current
+   * day are kept in the hourly ring only, and values that have already
+   * dropped out of it are ignored.
+   */
+  void record (int series, int rawIndex, double kwh)
+  {
+    ensureSeries(series + 1);
+    advance(rawIndex);
+    if (rawIndex <= current - hours)
+      return;
+    hourly[series * hours + rawIndex % hours] += kwh;
+    if (timeIndex.dayNumber(rawIndex) == timeIndex.dayNumber(current))
+      daySum[series] += kwh;
+    if (timeIndex.weekNumber(rawIndex) == timeIndex.weekNumber(current))
+      weekSum[series] += kwh;
+  }
+
+  /**
+   * Moves the history forward to the given timeslot, closing any days and
+   * weeks that end on the way. Does nothing if it is not later than the
+   * latest timeslot seen.
+   */
+  void advance (int rawIndex)
+  {
+    if (current < 0) {
+      first = rawIndex;
+      current = rawIndex;
+      return;
+    }
+    int day = timeIndex.dayNumber(current);
+    int week = timeIndex.weekNumber(current);
+    while (current < rawIndex) {
+      current += 1;
+      if (timeIndex.dayNumber(current) != day) {
+        int cell = day % days;
+        day = timeIndex.dayNumber(current);
+        for (int s = 0; s < seriesCount; s++) {
+          daily[s * days + cell] = daySum[s];
+          daySum[s] = 0.0;
+        }
+      }
+      if (timeIndex.weekNumber(current) != week) {
+        int cell = week % weeks;
+        week = timeIndex.weekNumber(current);
+        for (int s = 0; s < seriesCount; s++) {
+          weekly[s * weeks + cell] = weekSum[s];
+          weekSum[s] = 0.0;
+        }
+      }
+      int cell = current % hours;
+      for (int s = 0; s < seriesCount; s++) {
+        hourly[s * hours + cell] = 0.0;
+      }
+    }
+  }
+
+  /**
+   * Copies the history of a series at the given resolution into dest,
+   * oldest first, and returns the number of values copied. Hourly values
+   * run up to the latest timeslot, which may still be open; daily and
+   * weekly values cover completed days and weeks only.
+   */
+  int copy (int series, Resolution resolution, double[] dest)
+  {
+    if (current < 0 || series < 0 || series >= seriesCount)
+      return 0;
+    int length;
+    int last;
+    int count;
+    double[] ring;
+    if (Resolution.HOURLY == resolution) {
+      length = hours;
+      ring = hourly;
+      last = current;
+      count = current - first + 1;
+    }
+    else if (Resolution.DAILY == resolution) {
+      length = days;
+      ring = daily;
+      last = timeIndex.dayNumber(current) - 1;
+      count = last - timeIndex.dayNumber(first) + 1;
+    }
+    else {
+      length = weeks;
+      ring = weekly;
+      last = timeIndex.weekNumber(current) - 1;
+      count = last - timeIndex.weekNumber(first) + 1;
+    }
+    count = Math.min(Math.min(count, length), dest.length);
+    if (count <= 0)
+      return 0;
+    int offset = series * length;
+    for (int i = 0; i < count; i++) {
+      dest[i] = ring[offset + (last - count + 1 + i) % length];
+    }
+    return count;
+  }
+
+  /**
+   * Writes the mean of each hour of the day over the hourly ring into
+   * dest, which must be HOURS_PER_DAY long. The open timeslot is left out.
+   */
+  void hourOfDayMeans (int series, double[] dest)
+  {
+    Arrays.fill(dest, 0.0);
+    int[] counts = new int[HOURS_PER_DAY];
+    if (series >= 0 && series < seriesCount) {
+      int start = Math.max(first, current - hours + 1);
+      for (int t = start; t < current; t++) {
+        int hour = timeIndex.hourOfDay(t);
+        dest[hour] += hourly[series * hours + t % hours];
+        counts[hour] += 1;
+      }
+    }
+    for (int h = 0; h < HOURS_PER_DAY; h++) {
+      if (counts[h] > 0)
+        dest[h] /= counts[h];
+    }
+  }
+
+  // Makes room for at least n series
+  private void ensureSeries (int n)
+  {
+    if (n > daySum.length) {
+      allocate(Math.max(n, daySum.length * 2));
+    }
+    if (n > seriesCount)
+      seriesCount = n;
+  }
+
+  private void allocate (int capacity)
+  {
+    if (null == hourly) {
+      hourly = new double[capacity * hours];
+      daily = new double[capacity * days];
+      weekly = new double[capacity * weeks];
+      daySum = new double[capacity];
+      weekSum = new double[capacity];
+    }
+    else {
+      hourly = Arrays.copyOf(hourly, capacity * hours);
+      daily = Arrays.copyOf(daily, capacity * days);
+      weekly = Arrays.copyOf(weekly, capacity * weeks);
+      daySum = Arrays.copyOf(daySum, capacity);
+      weekSum = Arrays.copyOf(weekSum, capacity);
+    }
+  }
+}
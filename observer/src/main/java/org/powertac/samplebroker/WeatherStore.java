@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import java.util.Arrays;
+
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.WeatherReport;
+
+/**
+ * Weather by target timeslot: the latest forecast made at each lead time,
+ * and the report once the timeslot has been observed. Each timeslot has
+ * the same four features, temperature, wind speed, wind direction and
+ * cloud cover, in that order. Timeslots are kept in a ring, so a
+ * timeslot is evicted when a later one takes its row, or explicitly once
+ * it is old enough.
+ *
+ * Unknown values are NaN. Not thread-safe; the owner is responsible for
+ * synchronization.
+ *
+ * @author agent
+ */
+class WeatherStore
+{
+  static final int TEMPERATURE = 0;
+  static final int WIND_SPEED = 1;
+  static final int WIND_DIRECTION = 2;
+  static final int CLOUD_COVER = 3;
+  static final int FEATURES = 4;
+
+  private final int capacity; // timeslots
+  private final int leads; // forecast leads are 1 to leads
+
+  private final int[] timeslot; // of each row, -1 for none
+  private final double[] forecast; // row, lead, feature
+  private final double[] latest; // row, feature: shortest lead so far
+  private final int[] latestLead;
+  private final double[] observed; // row, feature
+
+  private int oldest = 0;
+
+  WeatherStore (int capacity, int leads)
+  {
+    super();
+    this.capacity = capacity;
+    this.leads = leads;
+    timeslot = new int[capacity];
+    Arrays.fill(timeslot, -1);
+    forecast = new double[capacity * leads * FEATURES];
+    latest = new double[capacity * FEATURES];
+    latestLead = new int[capacity];
+    observed = new double[capacity * FEATURES];
+  }
+
+  // The row for the timeslot, taking it over if it holds an older one;
+  // -1 if the timeslot is too old
+  private int row (int ts)
+  {
+    if (ts < oldest)
+      return -1;
+    int row = ts % capacity;
+    if (timeslot[row] == ts)
+      return row;
+    if (timeslot[row] > ts)
+      return -1;
+    timeslot[row] = ts;
+    Arrays.fill(forecast, row * leads * FEATURES,
+                (row + 1) * leads * FEATURES, Double.NaN);
+    Arrays.fill(latest, row * FEATURES, (row + 1) * FEATURES, Double.NaN);
+    latestLead[row] = Integer.MAX_VALUE;
+    Arrays.fill(observed, row * FEATURES, (row + 1) * FEATURES, Double.NaN);
+    return row;
+  }
+
+  /**
+   * Records each prediction of the forecast against its target timeslot.
+   */
+  void record (WeatherForecast wf)
+  {
+    int origin = wf.getTimeslotIndex();
+    for (WeatherForecastPrediction p : wf.getPredictions()) {
+      int lead = p.getForecastTime();
+      if (lead < 1 || lead > leads)
+        continue;
+      int row = row(origin + lead);
+      if (row < 0)
+        continue;
+      int offset = (row * leads + lead - 1) * FEATURES;
+      set(forecast, offset, p.getTemperature(), p.getWindSpeed(),
+          p.getWindDirection(), p.getCloudCover());
+      if (lead <= latestLead[row]) {
+        latestLead[row] = lead;
+        System.arraycopy(forecast, offset, latest, row * FEATURES, FEATURES);
+      }
+    }
+  }
+
+  /**
+   * Records the observed weather of the report's timeslot.
+   */
+  void record (WeatherReport report)
+  {
+    int row = row(report.getTimeslotIndex());
+    if (row < 0)
+      return;
+    set(observed, row * FEATURES, report.getTemperature(),
+        report.getWindSpeed(), report.getWindDirection(),
+        report.getCloudCover());
+  }
+
+  private void set (double[] values, int offset, double temperature,
+                    double windSpeed, double windDirection, double cloudCover)
+  {
+    values[offset + TEMPERATURE] = temperature;
+    values[offset + WIND_SPEED] = windSpeed;
+    values[offset + WIND_DIRECTION] = windDirection;
+    values[offset + CLOUD_COVER] = cloudCover;
+  }
+
+  /**
+   * Drops the timeslots before the given one.
+   */
+  void evictBefore (int ts)
+  {
+    if (ts <= oldest)
+      return;
+    oldest = ts;
+    for (int row = 0; row < capacity; row++) {
+      if (timeslot[row] >= 0 && timeslot[row] < oldest)
+        timeslot[row] = -1;
+    }
+  }
+
+  private int find (int ts)
+  {
+    if (ts < oldest)
+      return -1;
+    int row = ts % capacity;
+    return (timeslot[row] == ts) ? row : -1;
+  }
+
+  /**
+   * Best known weather for each of the timeslots: the report if there is
+   * one, else the forecast with the shortest lead. Features of timeslot i
+   * go to dest[i * FEATURES + feature]. Returns the number of timeslots
+   * with known weather.
+   */
+  int copyFeatures (int[] timeslots, double[] dest)
+  {
+    int found = 0;
+    for (int i = 0; i < timeslots.length; i++) {
+      int row = find(timeslots[i]);
+      if (row < 0) {
+        Arrays.fill(dest, i * FEATURES, (i + 1) * FEATURES, Double.NaN);
+        continue;
+      }
+      double[] source =
+          Double.isNaN(observed[row * FEATURES]) ? latest : observed;
+      System.arraycopy(source, row * FEATURES, dest, i * FEATURES, FEATURES);
+      if (!Double.isNaN(source[row * FEATURES]))
+        found += 1;
+    }
+    return found;
+  }
+
+  /**
+   * One feature of the forecast for the timeslot made the given number of
+   * timeslots ahead.
+   */
+  double getForecast (int ts, int lead, int feature)
+  {
+    int row = find(ts);
+    if (row < 0 || lead < 1 || lead > leads)
+      return Double.NaN;
+    return forecast[(row * leads + lead - 1) * FEATURES + feature];
+  }
+
+  /**
+   * One feature of the observed weather of the timeslot.
+   */
+  double getObserved (int ts, int feature)
+  {
+    int row = find(ts);
+    return (row < 0) ? Double.NaN : observed[row * FEATURES + feature];
+  }
+}
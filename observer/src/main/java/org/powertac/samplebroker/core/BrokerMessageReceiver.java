@@ -15,6 +15,10 @@
  */
 package org.powertac.samplebroker.core;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -26,7 +30,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /**
- * Receives incoming jms messages for the broker
+ * Receives incoming jms messages for the broker. Messages of a priority
+ * type are routed on the jms thread as they arrive; all others are
+ * handed, in arrival order, to a single dispatch thread, so a priority
+ * message never waits for the handlers of the messages before it.
  * @author Nguyen Nguyen, John Collins
  */
 @Service
@@ -40,6 +47,8 @@ public class BrokerMessageReceiver implements MessageListener
   @Autowired 
   MessageDispatcher messageDispatcher;
 
+  private ExecutorService dispatcher = null;
+
   @Override
   public void onMessage (Message message)
   {
@@ -57,6 +66,47 @@ public class BrokerMessageReceiver implements MessageListener
     log.info("onMessage(String) - received message:\n" + xml);
     Object message = converter.fromXML(xml);
     log.debug("onMessage(String) - received message of type " + message.getClass().getSimpleName());
-    messageDispatcher.routeMessage(message);
+    if (messageDispatcher.isPriority(message))
+      messageDispatcher.routeMessage(message);
+    else
+      getDispatcher().execute(new Route(message));
+  }
+
+  private synchronized ExecutorService getDispatcher ()
+  {
+    if (null == dispatcher) {
+      dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable task)
+        {
+          Thread thread = new Thread(task, "message-dispatcher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return dispatcher;
+  }
+
+  // routes one message, keeping a failing handler from killing the thread
+  class Route implements Runnable
+  {
+    private Object message;
+
+    Route (Object message)
+    {
+      this.message = message;
+    }
+
+    @Override
+    public void run ()
+    {
+      try {
+        messageDispatcher.routeMessage(message);
+      }
+      catch (RuntimeException e) {
+        log.error("failed to route " + message.getClass().getSimpleName(), e);
+      }
+    }
   }
 }
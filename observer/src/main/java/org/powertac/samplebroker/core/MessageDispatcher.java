@@ -59,6 +59,7 @@ public class MessageDispatcher
   private JmsManagementService jmsManagementService; 
 
   private HashMap<Class<?>, Set<Object>> registrations;
+  private Set<Class<?>> priorityTypes;
   String key = ""; // server registration secret
 
   /**
@@ -68,6 +69,7 @@ public class MessageDispatcher
   {
     super();
     registrations = new HashMap<Class<?>, Set<Object>>();
+    priorityTypes = new HashSet<Class<?>>();
   }
   
   void setKey (String key)
@@ -89,6 +91,22 @@ public class MessageDispatcher
     reg.add(handler);
   }
   
+  /**
+   * Marks a message type to be routed ahead of others waiting.
+   */
+  public void registerPriorityMessage (Class<?> messageType)
+  {
+    priorityTypes.add(messageType);
+  }
+
+  /**
+   * True just in case the message is of a priority type.
+   */
+  public boolean isPriority (Object message)
+  {
+    return priorityTypes.contains(message.getClass());
+  }
+
   /**
    * Routes incoming messages from the server
    */
@@ -368,6 +368,15 @@ implements BrokerContext
     router.registerMessageHandler(handler, messageType);
   }
 
+  /**
+   * Delegates priority registrations to the router
+   */
+  @Override
+  public void registerPriorityMessage (Class<?> messageType)
+  {
+    router.registerPriorityMessage(messageType);
+  }
+
   // ------------ process messages -------------
   /**
    * Incoming messages for brokers include:
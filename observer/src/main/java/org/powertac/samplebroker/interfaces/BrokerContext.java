@@ -38,6 +38,12 @@ public interface BrokerContext
    * Delegates registrations to the router
    */
   public void registerMessageHandler (Object handler, Class<?> messageType);
+
+  /**
+   * Marks a message type as time-critical. Such messages are routed as
+   * soon as they arrive, ahead of other messages still waiting.
+   */
+  public void registerPriorityMessage (Class<?> messageType);
   
   /**
    * Sends an outgoing message. May need to be reimplemented in a remote broker.
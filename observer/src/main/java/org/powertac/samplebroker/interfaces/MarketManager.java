@@ -26,4 +26,21 @@ public interface MarketManager
    * Returns the mean price observed in the market
    */
   public double getMeanMarketPrice ();
+
+  /**
+   * Returns the expected price per MWh in each usage-record slot: the
+   * hour-of-week clearing-price forecast where it has observations, else
+   * the bootstrap or learned price profile, else the mean market price.
+   * Null if neither a forecast nor a profile is known yet
+   */
+  public double[] getPriceProfile ();
+
+  /**
+   * Copies the best known weather for each of the given timeslots into
+   * dest: temperature, wind speed, wind direction and cloud cover, four
+   * values per timeslot, NaN where unknown. Observed weather is preferred
+   * to forecasts, and short-lead forecasts to long ones. Returns the
+   * number of timeslots with known weather.
+   */
+  public int copyWeather (int[] timeslots, double[] dest);
 }
\ No newline at end of file
@@ -23,7 +23,15 @@ public interface PortfolioManager
 {
   /**
    * Returns total net expected usage across all subscriptions for the given
-   * index (normally a timeslot serial number).
+   * index (normally a timeslot serial number), as of the activation for
+   * the given timeslot.
    */
-  public double collectUsage (int index); 
+  public double collectUsage (int timeslotIndex, int index);
+
+  /**
+   * Returns total net expected usage across all subscriptions for each of
+   * the given indices, in the same order, as of the activation for the
+   * given timeslot. Each lookup costs O(1).
+   */
+  public double[] collectUsage (int timeslotIndex, int[] indices);
 }
\ No newline at end of file
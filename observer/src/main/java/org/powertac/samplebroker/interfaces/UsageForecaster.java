@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker.interfaces;
+
+/**
+ * Model of per-customer usage used by the portfolio manager. Profiles are
+ * kept in one dense array with one row of slots values per (customer,
+ * power type) pair, row-major, holding expected usage per customer unit.
+ * The portfolio manager owns that array and sums it into its usage
+ * totals; implementations write into it and may keep whatever other
+ * state they need, indexed by row number. Rows are numbered from zero
+ * and new rows may appear at any time.
+ *
+ * The profile array is the whole model: the expected usage of a customer
+ * in a timeslot is the value of the timeslot's slot in its row, and that
+ * is what the order sizes are built from. A heavier model must therefore
+ * express what it predicts as the profile values it writes.
+ *
+ * Implementations need a public no-argument constructor, and are selected
+ * by class name through portfolioManagerService.forecasterClass.
+ *
+ * @author agent
+ */
+public interface UsageForecaster
+{
+  /**
+   * Folds the observations of one timeslot into the profiles. Entry i
+   * gives the observed per-customer usage of row rows[i] in the given
+   * slot; only the first count entries are valid, and a row appears more
+   * than once if several of its subscriptions reported, in arrival order.
+   * Only that slot of the observed rows may be changed in profiles.
+   */
+  public void update (double[] profiles, int slots, int slot,
+                      int[] rows, double[] observed, int count);
+
+  /**
+   * Folds a usage history, starting at slot zero, into one row. Each
+   * value must be multiplied by scale to get per-customer usage. Called
+   * at game start, concurrently for different rows.
+   */
+  public void fold (double[] profiles, int slots, int row,
+                    double[] history, double scale);
+}
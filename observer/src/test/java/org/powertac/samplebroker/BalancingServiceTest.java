@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.powertac.common.Broker;
+import org.powertac.common.Rate;
+import org.powertac.common.RegulationRate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.common.msg.BalanceReport;
+import org.powertac.common.msg.BalancingControlEvent;
+import org.powertac.common.msg.BalancingOrder;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.core.PowerTacBroker;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests for the balancing order fast path.
+ */
+public class BalancingServiceTest
+{
+  private Broker bob;
+  private PowerTacBroker broker;
+  private BalancingService balancing;
+  private TariffSpecification interruptible;
+  private TariffSpecification regulating;
+  private TariffSpecification plain;
+  private List<TariffSpecification> tariffs;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    bob = new Broker("Bob");
+    broker = mock(PowerTacBroker.class);
+    when(broker.getBroker()).thenReturn(bob);
+    balancing = new BalancingService();
+    ReflectionTestUtils.setField(balancing, "propertiesService",
+                                 mock(BrokerPropertiesService.class));
+    balancing.initialize(broker);
+
+    interruptible =
+        new TariffSpecification(bob, PowerType.INTERRUPTIBLE_CONSUMPTION);
+    interruptible.addRate(new Rate().withValue(-0.2));
+    regulating = new TariffSpecification(bob, PowerType.CONSUMPTION);
+    regulating.addRate(new Rate().withValue(-0.1));
+    regulating.addRate(new RegulationRate().withUpRegulationPayment(0.1)
+                       .withDownRegulationPayment(-0.05));
+    plain = new TariffSpecification(bob, PowerType.CONSUMPTION);
+    plain.addRate(new Rate().withValue(-0.1));
+    tariffs = new ArrayList<TariffSpecification>();
+    tariffs.add(interruptible);
+    tariffs.add(regulating);
+    tariffs.add(plain);
+  }
+
+  private List<BalancingOrder> sent (int times)
+  {
+    ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+    verify(broker, times(times)).sendMessage(captor.capture());
+    List<BalancingOrder> result = new ArrayList<BalancingOrder>();
+    for (Object msg : captor.getAllValues())
+      result.add((BalancingOrder)msg);
+    return result;
+  }
+
+  @Test
+  public void testRegistersPriorityMessages ()
+  {
+    verify(broker).registerPriorityMessage(BalanceReport.class);
+    verify(broker).registerPriorityMessage(BalancingControlEvent.class);
+  }
+
+  @Test
+  public void testOffersNewTariffsOnce ()
+  {
+    balancing.refresh(tariffs);
+    assertEquals(2, balancing.getTariffCount());
+    List<BalancingOrder> orders = sent(3);
+    assertEquals(0.5, orders.get(0).getExerciseRatio(), 1e-9);
+    assertEquals(-0.18, orders.get(0).getPrice(), 1e-9);
+    assertEquals(1.0, orders.get(1).getExerciseRatio(), 1e-9);
+    assertEquals(-0.05, orders.get(1).getPrice(), 1e-9);
+    assertEquals(-1.0, orders.get(2).getExerciseRatio(), 1e-9);
+    assertEquals(0.045, orders.get(2).getPrice(), 1e-9);
+
+    balancing.refresh(tariffs);
+    sent(3);
+    assertEquals(BalancingService.NORMAL,
+                 balancing.getOfferedLevel(regulating.getId(),
+                                           BalancingService.DOWN));
+    assertEquals(-1, balancing.getOfferedLevel(interruptible.getId(),
+                                               BalancingService.DOWN));
+  }
+
+  @Test
+  public void testReactsToImbalance ()
+  {
+    balancing.refresh(tariffs);
+    BalanceReport report = new BalanceReport(370);
+    report.addImbalance(-2000.0);
+    balancing.handleMessage(report);
+    // up-regulation of both tariffs moves to the scarce price
+    List<BalancingOrder> orders = sent(5);
+    assertEquals(-0.18 + 0.18 * 0.2, orders.get(3).getPrice(), 1e-9);
+    assertEquals(BalancingService.SCARCE,
+                 balancing.getOfferedLevel(regulating.getId(),
+                                           BalancingService.UP));
+    assertEquals(BalancingService.NORMAL,
+                 balancing.getOfferedLevel(regulating.getId(),
+                                           BalancingService.DOWN));
+
+    // nothing more to send until the orders are rebuilt
+    report = new BalanceReport(371);
+    report.addImbalance(10.0);
+    balancing.handleMessage(report);
+    sent(5);
+    balancing.refresh(tariffs);
+    sent(7);
+    assertEquals(BalancingService.NORMAL,
+                 balancing.getOfferedLevel(regulating.getId(),
+                                           BalancingService.UP));
+    assertEquals(7, balancing.getReactionCount());
+  }
+
+  @Test
+  public void testControlEvent ()
+  {
+    balancing.refresh(tariffs);
+    balancing.handleMessage(new BalancingControlEvent(regulating, -30.0,
+                                                      1.5, 370));
+    sent(4);
+    assertEquals(BalancingService.SCARCE,
+                 balancing.getOfferedLevel(regulating.getId(),
+                                           BalancingService.DOWN));
+    assertEquals(-30.0, balancing.getExercisedKWh(regulating.getId()), 1e-9);
+    assertEquals(1.5, balancing.getPayments(regulating.getId()), 1e-9);
+
+    // a tariff we no longer have is dropped
+    tariffs.remove(regulating);
+    balancing.refresh(tariffs);
+    assertEquals(1, balancing.getTariffCount());
+    assertEquals(0.0, balancing.getExercisedKWh(regulating.getId()), 1e-9);
+  }
+}
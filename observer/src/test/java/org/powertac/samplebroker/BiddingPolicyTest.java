@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for the bidding policy table.
+ */
+public class BiddingPolicyTest
+{
+  private BiddingPolicy policy = new BiddingPolicy(24);
+
+  @After
+  public void tearDown ()
+  {
+    policy.shutdown();
+  }
+
+  private BiddingPolicy.Model model (double spread)
+  {
+    double[] spreads = new double[BiddingPolicy.HOURS];
+    Arrays.fill(spreads, spread);
+    return new BiddingPolicy.Model(spreads, 0.01, 0.5);
+  }
+
+  @Test
+  public void testNormal ()
+  {
+    assertEquals(0.5, BiddingPolicy.normal(0.0), 1e-7);
+    assertEquals(0.975, BiddingPolicy.normal(1.96), 1e-4);
+    assertEquals(0.025, BiddingPolicy.normal(-1.96), 1e-4);
+    assertEquals(0, BiddingPolicy.bucketOf(-0.5));
+    assertEquals(5, BiddingPolicy.bucketOf(100.0));
+  }
+
+  @Test
+  public void testRatios ()
+  {
+    BiddingPolicy.Table table = policy.solveNow(model(0.2));
+    assertSame(table, policy.getTable());
+    // with one try left, bid up to what balancing would cost
+    assertEquals(1.5, table.getRatio(3, 1, 1.0), 0.011);
+    assertEquals(0.5, table.getRatio(3, 1, -1.0), 0.011);
+    for (int tries = 2; tries <= 24; tries++) {
+      assertTrue("bids fall with more tries",
+                 table.getRatio(3, tries, 1.0)
+                 <= table.getRatio(3, tries - 1, 1.0));
+      assertTrue("asks rise with more tries",
+                 table.getRatio(3, tries, -1.0)
+                 >= table.getRatio(3, tries - 1, -1.0));
+    }
+    assertTrue("less than balancing", table.getRatio(3, 24, 1.0) < 1.2);
+    assertTrue("large orders move the price",
+               table.getRatio(3, 24, 30.0) > table.getRatio(3, 24, 0.5));
+    assertEquals("tries beyond the table", table.getRatio(3, 24, 1.0),
+                 table.getRatio(3, 100, 1.0), 1e-12);
+  }
+
+  @Test
+  public void testBackground () throws Exception
+  {
+    assertNull(policy.getTable());
+    policy.start(model(0.1));
+    for (int i = 0; i < 100 && null == policy.getTable(); i++)
+      Thread.sleep(20);
+    assertNotNull("published", policy.getTable());
+  }
+}
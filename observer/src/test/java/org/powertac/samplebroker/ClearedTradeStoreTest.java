@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for the cleared-trade store and the price forecaster.
+ */
+public class ClearedTradeStoreTest
+{
+  @Test
+  public void testRing ()
+  {
+    ClearedTradeStore store = new ClearedTradeStore(4, 3);
+    assertTrue(Double.isNaN(store.getPrice(5, 1)));
+    assertTrue(store.record(5, 1, 30.0, 2.0));
+    assertTrue(store.record(5, 1, 60.0, 1.0));
+    assertTrue(store.record(5, 9, 20.0, 1.0));
+    assertEquals("weighted at one lead", 40.0, store.getPrice(5, 1), 1e-9);
+    assertEquals(3.0, store.getMWh(5, 1), 1e-9);
+    assertEquals("long leads pooled", 20.0, store.getPrice(5, 2), 1e-9);
+    assertEquals(4.0, store.getTotalMWh(5), 1e-9);
+    assertEquals(35.0, store.getMeanPrice(5), 1e-9);
+    assertTrue(Double.isNaN(store.getPrice(5, 0)));
+
+    // timeslot 9 takes the row of timeslot 5
+    assertTrue(store.record(9, 0, 50.0, 1.0));
+    assertFalse(store.contains(5));
+    assertTrue(Double.isNaN(store.getPrice(5, 1)));
+    assertTrue("old row cleared", Double.isNaN(store.getPrice(9, 1)));
+    assertFalse("too old", store.record(5, 1, 10.0, 1.0));
+    assertEquals(50.0, store.getPrice(9, 0), 1e-9);
+  }
+
+  @Test
+  public void testForecast ()
+  {
+    PriceForecaster forecaster = new PriceForecaster(168, 24, 0.5);
+    assertTrue(Double.isNaN(forecaster.forecast(10, 3)));
+    forecaster.update(10, 3, 40.0);
+    assertEquals("first price", 40.0, forecaster.forecast(10, 3), 1e-9);
+    assertEquals("no spread yet", 0.0, forecaster.deviation(10, 3), 1e-9);
+    forecaster.update(10, 3, 20.0);
+    assertEquals(30.0, forecaster.forecast(10, 3), 1e-9);
+    assertEquals(10.0, forecaster.deviation(10, 3), 1e-9);
+    assertEquals(2, forecaster.getCount(10, 3));
+
+    assertEquals("pooled for other leads", 30.0,
+                 forecaster.forecast(10, 12), 1e-9);
+    assertEquals(0, forecaster.getCount(10, 12));
+    forecaster.update(10 + 168, 12, 60.0);
+    assertEquals("same slot next week", 60.0,
+                 forecaster.forecast(10, 12), 1e-9);
+    assertEquals(45.0, forecaster.forecast(10), 1e-9);
+    assertTrue("other slots unknown", Double.isNaN(forecaster.forecast(11)));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Competition;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.core.PowerTacBroker;
+
+/**
+ * Tests for tariffs compiled to price vectors.
+ */
+public class CompiledTariffTest
+{
+  private TimeIndexService timeIndexService;
+  private Broker broker;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    PowerTacBroker context = mock(PowerTacBroker.class);
+    when(context.getUsageRecordLength()).thenReturn(7*24);
+    timeIndexService = new TimeIndexService();
+    timeIndexService.initialize(context);
+    // a Thursday, 6 am
+    DateTime base = new DateTime(2011, 2, 3, 6, 0, 0, 0, DateTimeZone.UTC);
+    Competition comp = Competition.newInstance("compiled-tariff-test")
+        .withSimulationBaseTime(base.getMillis())
+        .withTimeslotLength(60);
+    timeIndexService.handleMessage(comp);
+    broker = new Broker("Alice");
+  }
+
+  @Test
+  public void testTimeOfUse ()
+  {
+    // cheap at night, dear on weekday daytime
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .withPeriodicPayment(-1.0);
+    spec.addRate(new Rate().withValue(-0.10));
+    spec.addRate(new Rate().withValue(-0.20)
+                 .withWeeklyBegin(1).withWeeklyEnd(5)
+                 .withDailyBegin(8).withDailyEnd(17));
+    CompiledTariff compiled = CompiledTariff.compile(spec, timeIndexService);
+    assertEquals("slots", 168, compiled.getSlots());
+    assertEquals("tiers", 1, compiled.getTierCount());
+    for (int slot = 0; slot < 168; slot++) {
+      int day = timeIndexService.dayOfWeek(slot);
+      int hour = timeIndexService.hourOfDay(slot);
+      boolean peak = day <= 5 && hour >= 8 && hour < 17;
+      // consumption prices are per kWh used, sign flipped
+      assertEquals("price at " + slot, peak ? 0.20 : 0.10,
+                   compiled.getPrice(slot), 1e-12);
+    }
+
+    // one kWh in every slot, consumption negative
+    double[] profile = new double[168];
+    Arrays.fill(profile, -1.0);
+    double expected = 0.0;
+    for (int slot = 0; slot < 168; slot++) {
+      expected -= compiled.getPrice(slot);
+    }
+    assertEquals("usage", expected, compiled.usageCharge(profile), 1e-9);
+    assertEquals("with periodic", expected - 7.0,
+                 compiled.charge(profile), 1e-9);
+  }
+
+  @Test
+  public void testProduction ()
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.PRODUCTION);
+    spec.addRate(new Rate().withValue(0.05));
+    CompiledTariff compiled = CompiledTariff.compile(spec, timeIndexService);
+    double[] profile = new double[168];
+    Arrays.fill(profile, 2.0);
+    assertEquals("paid to the producer", 0.05 * 2.0 * 168,
+                 compiled.usageCharge(profile), 1e-9);
+  }
+
+  @Test
+  public void testTiers ()
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION);
+    spec.addRate(new Rate().withValue(-0.10));
+    spec.addRate(new Rate().withValue(-0.30).withTierThreshold(10.0));
+    CompiledTariff compiled = CompiledTariff.compile(spec, timeIndexService);
+    assertEquals("tiers", 2, compiled.getTierCount());
+    assertEquals(10.0, compiled.getThreshold(1), 1e-12);
+    assertEquals(0.30, compiled.getPrice(1, 5), 1e-12);
+
+    // 2 kWh an hour: the first five hours of each day are in the first
+    // tier, the rest in the second
+    double[] profile = new double[168];
+    Arrays.fill(profile, -2.0);
+    double expected = 0.0;
+    double today = 0.0;
+    for (int slot = 0; slot < 168; slot++) {
+      if (0 == timeIndexService.hourOfDay(slot))
+        today = 0.0;
+      expected -= 2.0 * ((today >= 10.0) ? 0.30 : 0.10);
+      today += 2.0;
+    }
+    assertEquals("tiered", expected, compiled.usageCharge(profile), 1e-9);
+  }
+
+  @Test
+  public void testBookKeepsCompiledForm ()
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION);
+    spec.addRate(new Rate().withValue(-0.10));
+    TariffBook book = new TariffBook();
+    CompiledTariff compiled = CompiledTariff.compile(spec, timeIndexService);
+    book.add(spec, compiled);
+    assertSame(compiled, book.getCompiled(spec.getId()));
+    assertEquals(1, book.getCompiled(PowerType.CONSUMPTION).size());
+    book.remove(spec.getId());
+    assertNull("dropped on revoke", book.getCompiled(spec.getId()));
+  }
+}
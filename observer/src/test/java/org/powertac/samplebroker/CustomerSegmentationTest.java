@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for online customer segmentation.
+ */
+public class CustomerSegmentationTest
+{
+  private CustomerSegmentation segmentation;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    segmentation = new CustomerSegmentation(3, 24);
+  }
+
+  // usage that peaks during the day or during the night, times size
+  private double[] profile (boolean day, double size)
+  {
+    double[] result = new double[24];
+    for (int h = 0; h < 24; h++) {
+      boolean daytime = (h >= 8 && h < 20);
+      result[h] = size * ((daytime == day) ? 2.0 : 0.5);
+    }
+    return result;
+  }
+
+  @Test
+  public void testGroupsByShape ()
+  {
+    segmentation.update(0, profile(true, 1.0), 10);
+    segmentation.update(1, profile(false, 1.0), 10);
+    segmentation.update(2, profile(true, 5.0), 100);
+    segmentation.update(3, profile(false, 0.2), 1000);
+    segmentation.update(4, new double[24], 50); // never used anything
+    assertEquals("same shape", segmentation.getCluster(0),
+                 segmentation.getCluster(2));
+    assertEquals("same shape", segmentation.getCluster(1),
+                 segmentation.getCluster(3));
+    assertFalse("different shape",
+                segmentation.getCluster(0) == segmentation.getCluster(1));
+    assertEquals("unassigned", -1, segmentation.getCluster(4));
+
+    List<CustomerSegmentation.Segment> segments = segmentation.getSegments();
+    assertEquals("two segments", 2, segments.size());
+    for (CustomerSegmentation.Segment segment : segments) {
+      assertEquals("members", 2, segment.getMembers());
+      if (segment.getIndex() == segmentation.getCluster(0)) {
+        assertEquals("day population", 110.0, segment.getPopulation(), 1e-9);
+        assertEquals("day usage at noon", 10 * 2.0 + 100 * 10.0,
+                     segment.getUsage(12), 1e-9);
+      }
+      else {
+        assertEquals("night population", 1010.0,
+                     segment.getPopulation(), 1e-9);
+        assertEquals("night usage at noon", 10 * 0.5 + 1000 * 0.1,
+                     segment.getUsage(12), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testMovesWhenProfileChanges ()
+  {
+    segmentation.update(0, profile(true, 1.0), 10);
+    segmentation.update(1, profile(false, 1.0), 10);
+    segmentation.update(2, profile(true, 1.0), 10);
+    int day = segmentation.getCluster(0);
+    int version = segmentation.getVersion();
+    segmentation.update(2, profile(false, 3.0), 10);
+    assertFalse("moved", day == segmentation.getCluster(2));
+    assertTrue("version changed", segmentation.getVersion() > version);
+    for (CustomerSegmentation.Segment segment : segmentation.getSegments()) {
+      if (segment.getIndex() == day) {
+        assertEquals("one member left", 1, segment.getMembers());
+        assertEquals("shape", 2.0 / 1.25, segment.getShape(12), 1e-9);
+      }
+    }
+  }
+}
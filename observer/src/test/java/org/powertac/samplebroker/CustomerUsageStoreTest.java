@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.CustomerInfo;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Tests for the columnar customer usage store.
+ */
+public class CustomerUsageStoreTest
+{
+  private CustomerUsageStore store;
+  private CustomerInfo podunk;
+  private CustomerInfo midvale;
+  private TariffSpecification spec1;
+  private TariffSpecification spec2;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    store = new CustomerUsageStore(7*24);
+    podunk = new CustomerInfo("Podunk", 30);
+    midvale = new CustomerInfo("Midvale", 1000);
+    Broker broker = new Broker("Sample");
+    spec1 = new TariffSpecification(broker, PowerType.CONSUMPTION);
+    spec2 = new TariffSpecification(broker, PowerType.CONSUMPTION);
+  }
+
+  @Test
+  public void testRows ()
+  {
+    assertEquals("no row yet", -1,
+                 store.findRow(PowerType.CONSUMPTION, podunk));
+    int row = store.addRow(PowerType.CONSUMPTION, podunk);
+    assertEquals("found", row, store.findRow(PowerType.CONSUMPTION, podunk));
+    assertEquals("other type", -1,
+                 store.findRow(PowerType.PRODUCTION, podunk));
+    // force the columns to grow
+    for (int i = 0; i < 40; i++) {
+      store.addRow(PowerType.CONSUMPTION, new CustomerInfo("c" + i, 1));
+    }
+    assertEquals("row count", 41, store.getRowCount());
+    assertEquals("customer", podunk, store.getRowCustomer(row));
+    assertEquals("type", PowerType.CONSUMPTION, store.getRowPowerType(row));
+  }
+
+  @Test
+  public void testSharedProfile ()
+  {
+    int row = store.addRow(PowerType.CONSUMPTION, podunk);
+    int sub1 = store.subscription(store.addTariff(spec1), row);
+    int sub2 = store.subscription(store.addTariff(spec2), row);
+    assertEquals("same sub", sub1,
+                 store.subscription(store.findTariff(spec1), row));
+    store.signup(sub1, 10);
+    store.signup(sub2, 50); // capped at customer population
+    assertEquals("pop 1", 10, store.getPopulation(sub1));
+    assertEquals("pop 2", 30, store.getPopulation(sub2));
+    store.produceConsume(sub1, 20.0, 5);
+    assertEquals("queued", 0.0, store.getProfileValue(row, 5), 1e-9);
+    store.flushObservations();
+    assertEquals("per-customer", 2.0, store.getProfileValue(row, 5), 1e-9);
+    assertEquals("sub1 usage", 20.0, store.getUsage(sub1, 5), 1e-9);
+    assertEquals("sub2 shares profile", 60.0, store.getUsage(sub2, 5), 1e-9);
+    store.produceConsume(sub2, 120.0, 5); // 4.0 per customer
+    store.produceConsume(sub1, 50.0, 6); // flushes the batch for 5
+    assertEquals("smoothed", 0.3 * 4.0 + 0.7 * 2.0,
+                 store.getProfileValue(row, 5), 1e-9);
+  }
+
+  @Test
+  public void testFoldHistory ()
+  {
+    int row1 = store.addRow(PowerType.CONSUMPTION, podunk);
+    int row2 = store.addRow(PowerType.CONSUMPTION, midvale);
+    double[] history = new double[14*24 + 5];
+    for (int i = 0; i < history.length; i++) {
+      history[i] = (i * 37) % 11 + 1.0;
+    }
+    for (int i = 0; i < history.length; i++) {
+      store.updateProfile(row1, i, history[i] / 30.0);
+    }
+    store.foldHistory(row2, history, 1.0 / 30.0);
+    for (int i = 0; i < 7*24; i++) {
+      assertEquals("slot " + i, store.getProfileValue(row1, i),
+                   store.getProfileValue(row2, i), 1e-12);
+    }
+  }
+
+  @Test
+  public void testNetUsage ()
+  {
+    int prow = store.addRow(PowerType.CONSUMPTION, podunk);
+    int mrow = store.addRow(PowerType.CONSUMPTION, midvale);
+    double[] profile = new double[7*24];
+    Arrays.fill(profile, 1.5);
+    store.setProfile(prow, profile);
+    Arrays.fill(profile, 0.5);
+    store.setProfile(mrow, profile);
+    int t1 = store.addTariff(spec1);
+    int t2 = store.addTariff(spec2);
+    int psub = store.subscription(t1, prow);
+    int msub = store.subscription(t2, mrow);
+    assertEquals("nothing subscribed", 0.0, store.collectUsage(3), 1e-9);
+
+    store.signup(psub, 10);
+    store.signup(msub, 100);
+    assertEquals("after signup", 15.0 + 50.0, store.collectUsage(3), 1e-9);
+    assertEquals("wraps", 65.0, store.collectUsage(3 + 7*24), 1e-9);
+    assertEquals("negative index reads slot 0", store.collectUsage(0),
+                 store.collectUsage(-5), 1e-9);
+
+    store.produceConsume(msub, 200.0, 3); // 2.0 per customer, smoothed
+    store.flushObservations();
+    double expected = 15.0 + 100 * (0.3 * 2.0 + 0.7 * 0.5);
+    assertEquals("after consume", expected, store.collectUsage(3), 1e-9);
+
+    store.withdraw(psub, 4);
+    expected -= 6.0;
+    double[] result = new double[2];
+    store.collectUsage(new int[] {3, 4}, result);
+    assertEquals("batch slot 3", expected, result[0], 1e-9);
+    assertEquals("batch slot 4", 9.0 + 50.0, result[1], 1e-9);
+
+    store.rebuildNetUsage();
+    assertEquals("rebuilt", expected, store.collectUsage(3), 1e-9);
+  }
+
+  @Test
+  public void testBatchedObservations ()
+  {
+    int prow = store.addRow(PowerType.CONSUMPTION, podunk);
+    int mrow = store.addRow(PowerType.CONSUMPTION, midvale);
+    int psub1 = store.subscription(store.addTariff(spec1), prow);
+    int psub2 = store.subscription(store.addTariff(spec2), prow);
+    int msub = store.subscription(store.findTariff(spec1), mrow);
+    store.signup(psub1, 10);
+    store.signup(psub2, 20);
+    store.signup(msub, 100);
+    // one timeslot, podunk reports twice
+    store.produceConsume(psub1, 10.0, 7);
+    store.produceConsume(msub, 50.0, 7);
+    store.produceConsume(psub2, 40.0, 7);
+    int epoch = store.getProfileEpoch();
+    store.flushObservations();
+    assertEquals("same epoch", epoch, store.getProfileEpoch());
+    double podunkValue = 0.3 * 2.0 + 0.7 * 1.0;
+    assertEquals("podunk", podunkValue, store.getProfileValue(prow, 7), 1e-9);
+    assertEquals("midvale", 0.5, store.getProfileValue(mrow, 7), 1e-9);
+    double expected = podunkValue * 30 + 0.5 * 100;
+    assertEquals("net usage", expected, store.collectUsage(7), 1e-9);
+    store.rebuildNetUsage();
+    assertEquals("consistent", expected, store.collectUsage(7), 1e-9);
+    assertTrue("new epoch", epoch != store.getProfileEpoch());
+
+    assertEquals("next week", 0.5,
+                 store.getProfileValue(mrow, 7 + 7*24), 1e-9);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.core.PowerTacBroker;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Round-trip tests for the learned-state store.
+ */
+public class LearnedStateStoreTest
+{
+  private PowerTacBroker broker;
+  private BrokerPropertiesService bps;
+  private File stateFile;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    broker = mock(PowerTacBroker.class);
+    when(broker.getUsageRecordLength()).thenReturn(7*24);
+    bps = mock(BrokerPropertiesService.class);
+    stateFile = File.createTempFile("learned-state", ".bin");
+    stateFile.delete();
+  }
+
+  @After
+  public void tearDown ()
+  {
+    stateFile.delete();
+  }
+
+  private LearnedStateStore newStore ()
+  {
+    LearnedStateStore store = new LearnedStateStore();
+    ReflectionTestUtils.setField(store, "propertiesService", bps);
+    ReflectionTestUtils.setField(store, "stateFile", stateFile.getPath());
+    store.initialize(broker);
+    return store;
+  }
+
+  @Test
+  public void testEmptyStore ()
+  {
+    LearnedStateStore store = newStore();
+    assertFalse("no market profile", store.hasMarketProfile());
+    double[] usage = new double[7*24];
+    assertFalse("no customer profile",
+                store.copyCustomerProfile("Podunk", PowerType.CONSUMPTION,
+                                          usage));
+    assertNull("no competitor", store.getCompetitor("Sally"));
+  }
+
+  @Test
+  public void testSaveAndLoad ()
+  {
+    LearnedStateStore store = newStore();
+    double[] price = new double[7*24];
+    Arrays.fill(price, -30.0);
+    double[] mwh = new double[7*24];
+    Arrays.fill(mwh, 12.0);
+    store.updateMarketProfile(price, mwh);
+    double[] usage = new double[7*24];
+    Arrays.fill(usage, 1.5);
+    store.updateCustomerProfile("Podunk", PowerType.CONSUMPTION, usage);
+    store.recordCompetitorTariff("Sally", -0.12, 2.0);
+    store.recordCompetitorTariff("Sally", -0.08, 0.0);
+    // not visible until the game is folded in
+    assertFalse("current game only", store.hasMarketProfile());
+    store.save(stateFile);
+    assertTrue("file written", stateFile.exists());
+
+    LearnedStateStore next = newStore();
+    assertTrue("market profile loaded", next.hasMarketProfile());
+    double[] p = new double[7*24];
+    double[] m = new double[7*24];
+    assertTrue(next.copyMarketProfile(p, m));
+    assertEquals("price", -30.0, p[100], 1e-9);
+    assertEquals("mwh", 12.0, m[7], 1e-9);
+    double[] u = new double[7*24];
+    assertTrue(next.copyCustomerProfile("Podunk", PowerType.CONSUMPTION, u));
+    assertEquals("usage", 1.5, u[23], 1e-9);
+    assertFalse("other type",
+                next.copyCustomerProfile("Podunk", PowerType.PRODUCTION, u));
+    LearnedStateStore.CompetitorRecord sally = next.getCompetitor("Sally");
+    assertNotNull("competitor loaded", sally);
+    assertEquals("tariff count", 2, sally.getTariffCount());
+    assertEquals("mean rate", -0.10, sally.getMeanRate(), 1e-9);
+    assertEquals("min rate", -0.12, sally.getMinRate(), 1e-9);
+    assertEquals("max rate", -0.08, sally.getMaxRate(), 1e-9);
+
+    // a second game is averaged in
+    Arrays.fill(usage, 2.5);
+    next.updateCustomerProfile("Podunk", PowerType.CONSUMPTION, usage);
+    next.save(stateFile);
+    LearnedStateStore third = newStore();
+    assertTrue(third.copyCustomerProfile("Podunk", PowerType.CONSUMPTION, u));
+    assertEquals("averaged usage", 2.0, u[23], 1e-9);
+  }
+
+  @Test
+  public void testIncompatibleFile ()
+  {
+    LearnedStateStore store = newStore();
+    double[] price = new double[7*24];
+    store.updateMarketProfile(price, price);
+    store.save(stateFile);
+    // a broker with a different record length ignores the file
+    when(broker.getUsageRecordLength()).thenReturn(24);
+    LearnedStateStore other = newStore();
+    assertFalse("ignored", other.hasMarketProfile());
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.BalancingTransaction;
+import org.powertac.common.BankTransaction;
+import org.powertac.common.Broker;
+import org.powertac.common.MarketTransaction;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.TariffTransaction;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.core.PowerTacBroker;
+
+/**
+ * Tests for the accounting ledger.
+ */
+public class LedgerServiceTest
+{
+  private Broker bob;
+  private LedgerService ledger;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    bob = new Broker("Bob");
+    ledger = new LedgerService();
+    ledger.initialize(mock(PowerTacBroker.class));
+  }
+
+  private TariffTransaction ttx (int ts, TariffTransaction.Type type,
+                                 double charge)
+  {
+    TariffSpecification spec =
+        new TariffSpecification(bob, PowerType.CONSUMPTION);
+    return new TariffTransaction(bob, ts, type, spec, null, 1, -10.0,
+                                 charge);
+  }
+
+  @Test
+  public void testTotals ()
+  {
+    ledger.handleMessage(ttx(360, TariffTransaction.Type.PUBLISH, -100.0));
+    ledger.handleMessage(ttx(361, TariffTransaction.Type.CONSUME, 2.0));
+    ledger.handleMessage(ttx(361, TariffTransaction.Type.CONSUME, 3.0));
+    ledger.handleMessage(new MarketTransaction(bob, 361, 365, 0.5, -40.0));
+    ledger.handleMessage(new BalancingTransaction(bob, 361, -5.0, -0.7));
+    ledger.handleMessage(new BankTransaction(bob, 1.5, 362));
+    ledger.handleMessage(ttx(3000, TariffTransaction.Type.PUBLISH, -120.0));
+
+    assertEquals(7, ledger.size());
+    assertEquals(-220.0,
+                 ledger.getTotal(LedgerService.Category.TARIFF_PUBLISH), 1e-9);
+    assertEquals("latest fee", -120.0,
+                 ledger.getLatest(LedgerService.Category.TARIFF_PUBLISH), 1e-9);
+    assertEquals(5.0,
+                 ledger.getTotal(361, LedgerService.Category.TARIFF_CONSUME),
+                 1e-9);
+    assertEquals("buying at 40", -20.0,
+                 ledger.getTotal(361, LedgerService.Category.MARKET), 1e-9);
+    assertEquals(5.0 - 20.0 - 0.7, ledger.getNet(361), 1e-9);
+    assertEquals(1.5, ledger.getNet(362), 1e-9);
+    assertEquals(0.0, ledger.getNet(363), 1e-9);
+    assertEquals(0.0, ledger.getNet(100000), 1e-9);
+    assertEquals(-100.0 + 5.0 - 20.0 - 0.7 + 1.5 - 120.0,
+                 ledger.getNetTotal(), 1e-9);
+    assertEquals(3000, ledger.getLastTimeslot());
+
+    assertEquals(LedgerService.Category.MARKET, ledger.getCategory(3));
+    assertEquals(0.5, ledger.getQuantity(3), 1e-9);
+    assertEquals(362, ledger.getTimeslot(5));
+  }
+
+  @Test
+  public void testGrowthAndReset ()
+  {
+    for (int i = 0; i < 1000; i++)
+      ledger.record(i / 10, LedgerService.Category.DISTRIBUTION, -1.0, 1.0);
+    assertEquals(1000, ledger.size());
+    assertEquals(-10.0,
+                 ledger.getTotal(42, LedgerService.Category.DISTRIBUTION),
+                 1e-9);
+    assertEquals(-1000.0, ledger.getNetTotal(), 1e-9);
+
+    ledger.initialize(mock(PowerTacBroker.class));
+    assertEquals(0, ledger.size());
+    assertEquals(0.0, ledger.getNet(42), 1e-9);
+    assertEquals(-1, ledger.getLastTimeslot());
+  }
+}
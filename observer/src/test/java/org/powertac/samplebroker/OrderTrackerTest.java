@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for the order lifecycle tracker.
+ */
+public class OrderTrackerTest
+{
+  @Test
+  public void testPartialFills ()
+  {
+    OrderTracker tracker = new OrderTracker(4, 0.001);
+    assertNull(tracker.getState(10));
+    assertFalse("no order", tracker.fill(10, 1.0));
+
+    tracker.submit(10, 0.3, -20.0);
+    assertEquals(OrderTracker.State.SUBMITTED, tracker.getState(10));
+    assertTrue(tracker.isOpen(10));
+    tracker.fill(10, 0.1);
+    assertEquals(OrderTracker.State.PARTIAL, tracker.getState(10));
+    tracker.fill(10, 0.2);
+    // 0.1 + 0.2 is not exactly 0.3
+    assertEquals(OrderTracker.State.FILLED, tracker.getState(10));
+    assertFalse(tracker.isOpen(10));
+
+    tracker.submit(10, -1.0, null);
+    assertTrue("new order", tracker.isOpen(10));
+    assertTrue("market order", Double.isNaN(tracker.getLimitPrice(10)));
+    tracker.fill(10, -0.5);
+    assertEquals(-0.5, tracker.getFilledMWh(10), 1e-9);
+    assertEquals(-0.2, tracker.getTotalMWh(10), 1e-9);
+  }
+
+  @Test
+  public void testExpiry ()
+  {
+    OrderTracker tracker = new OrderTracker(4, 0.001);
+    tracker.submit(10, 1.0, -20.0);
+    tracker.submit(11, 1.0, -20.0);
+    tracker.fill(11, 1.0);
+    tracker.expireBefore(12);
+    assertEquals(OrderTracker.State.EXPIRED, tracker.getState(10));
+    assertFalse(tracker.isOpen(10));
+    assertEquals(OrderTracker.State.FILLED, tracker.getState(11));
+    assertEquals(-20.0, tracker.getLimitPrice(10), 1e-9);
+
+    // timeslot 14 takes the row of 10
+    tracker.submit(14, 2.0, -30.0);
+    assertNull(tracker.getState(10));
+    assertEquals(0.0, tracker.getTotalMWh(14), 1e-9);
+    assertEquals(OrderTracker.State.SUBMITTED, tracker.getState(14));
+  }
+}
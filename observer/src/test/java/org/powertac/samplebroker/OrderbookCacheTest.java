@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.powertac.common.Orderbook;
+import org.powertac.common.OrderbookOrder;
+
+/**
+ * Tests for the orderbook depth cache.
+ */
+public class OrderbookCacheTest
+{
+  private Orderbook book (int timeslot, Double clearing)
+  {
+    Orderbook result = new Orderbook(timeslot, clearing, new Instant(0L));
+    // asks out of order, and a market order
+    result.addAsk(new OrderbookOrder(-2.0, 40.0));
+    result.addAsk(new OrderbookOrder(-1.0, 35.0));
+    result.addAsk(new OrderbookOrder(-3.0, 50.0));
+    result.addAsk(new OrderbookOrder(-5.0, null));
+    result.addBid(new OrderbookOrder(1.0, -20.0));
+    result.addBid(new OrderbookOrder(2.0, -25.0));
+    return result;
+  }
+
+  @Test
+  public void testDepth ()
+  {
+    OrderbookCache cache = new OrderbookCache(4);
+    assertTrue(Double.isNaN(cache.priceFor(10, 1.0)));
+    cache.update(book(10, -30.0));
+    assertEquals(30.0, cache.getClearingPrice(10), 1e-9);
+
+    assertEquals("cheapest ask", 35.0, cache.priceFor(10, 0.5), 1e-9);
+    assertEquals(35.0, cache.priceFor(10, 1.0), 1e-9);
+    assertEquals(40.0, cache.priceFor(10, 2.5), 1e-9);
+    assertEquals(50.0, cache.priceFor(10, 6.0), 1e-9);
+    assertTrue("too deep", Double.isNaN(cache.priceFor(10, 6.5)));
+
+    assertEquals("highest bid", 25.0, cache.priceFor(10, -2.0), 1e-9);
+    assertEquals(20.0, cache.priceFor(10, -3.0), 1e-9);
+
+    assertEquals(0.0, cache.depthAt(10, 30.0, true), 1e-9);
+    assertEquals(3.0, cache.depthAt(10, 40.0, true), 1e-9);
+    assertEquals(3.0, cache.depthAt(10, 45.0, true), 1e-9);
+    assertEquals(2.0, cache.depthAt(10, 25.0, false), 1e-9);
+    assertEquals(3.0, cache.depthAt(10, 10.0, false), 1e-9);
+  }
+
+  @Test
+  public void testExpiry ()
+  {
+    OrderbookCache cache = new OrderbookCache(4);
+    cache.update(book(10, null));
+    cache.update(book(11, -30.0));
+    assertTrue(Double.isNaN(cache.getClearingPrice(10)));
+    cache.expireBefore(11);
+    assertFalse("closed", cache.contains(10));
+    assertTrue(cache.contains(11));
+    cache.update(book(10, -30.0));
+    assertFalse("late book ignored", cache.contains(10));
+    // timeslot 15 reuses the row of 11
+    cache.update(book(15, -30.0));
+    assertFalse(cache.contains(11));
+    assertEquals(35.0, cache.priceFor(15, 1.0), 1e-9);
+  }
+}
@@ -25,12 +25,18 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.Instant;
 import org.junit.Before;
 import org.junit.Test;
+import org.powertac.common.Broker;
 import org.powertac.common.CustomerInfo;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.TariffTransaction;
 import org.powertac.common.TimeService;
 import org.powertac.common.Timeslot;
 import org.powertac.common.enumerations.PowerType;
 import org.powertac.common.msg.CustomerBootstrapData;
+import org.powertac.common.msg.SimStart;
+import org.powertac.common.msg.TimeslotComplete;
 import org.powertac.common.repo.CustomerRepo;
+import org.powertac.common.repo.TariffRepo;
 import org.powertac.common.repo.TimeslotRepo;
 import org.powertac.samplebroker.core.BrokerPropertiesService;
 import org.powertac.samplebroker.core.PowerTacBroker;
@@ -43,6 +49,7 @@ public class PortfolioManagerTest
 {
   private TimeslotRepo timeslotRepo;
   private CustomerRepo customerRepo;
+  private TariffRepo tariffRepo;
   
   private PortfolioManagerService portfolioManagerService;
   private PowerTacBroker broker;
@@ -57,8 +64,10 @@ public class PortfolioManagerTest
     broker = mock(PowerTacBroker.class);
     timeslotRepo = mock(TimeslotRepo.class);
     customerRepo = new CustomerRepo();
+    tariffRepo = new TariffRepo();
     BrokerPropertiesService bps = mock(BrokerPropertiesService.class);
     when(broker.getUsageRecordLength()).thenReturn(7*24);
+    when(broker.getBrokerUsername()).thenReturn("Sample");
     portfolioManagerService = new PortfolioManagerService();
     ReflectionTestUtils.setField(portfolioManagerService,
                                  "timeslotRepo",
@@ -67,8 +76,24 @@ public class PortfolioManagerTest
                                  "customerRepo",
                                  customerRepo);
     ReflectionTestUtils.setField(portfolioManagerService,
+                                 "tariffRepo",
+                                 tariffRepo);
+    ReflectionTestUtils.setField(portfolioManagerService,
+                                 "propertiesService",
+                                 bps);
+    LearnedStateStore learnedStateStore = new LearnedStateStore();
+    ReflectionTestUtils.setField(learnedStateStore,
                                  "propertiesService",
                                  bps);
+    ReflectionTestUtils.setField(learnedStateStore, "enabled", false);
+    learnedStateStore.initialize(broker);
+    ReflectionTestUtils.setField(portfolioManagerService,
+                                 "learnedStateStore",
+                                 learnedStateStore);
+    TimeIndexService timeIndexService = new TimeIndexService();
+    timeIndexService.initialize(broker);
+    ReflectionTestUtils.setField(portfolioManagerService,
+                                 "timeIndexService", timeIndexService);
     portfolioManagerService.initialize(broker);
 
     // set the time
@@ -108,7 +133,96 @@ public class PortfolioManagerTest
         portfolioManagerService.getRawUsageForCustomer(midvale).get(PowerType.CONSUMPTION);
     assertNotNull("midvale usage is recorded", midvaleUsage);
     assertEquals("correct usage value for midvale", 1.6, midvaleUsage[27], 1e-6);
+
+    // a customer with no population does not poison the net usage
+    CustomerInfo ghost = new CustomerInfo("Ghost", 0);
+    customerRepo.add(ghost);
+    portfolioManagerService.handleMessage(
+        new CustomerBootstrapData(ghost, PowerType.CONSUMPTION, midvaleData));
+    double[] ghostUsage = portfolioManagerService
+        .getRawUsageForCustomer(ghost).get(PowerType.CONSUMPTION);
+    assertEquals("nothing per customer", 0.0, ghostUsage[27], 1e-6);
+    assertFalse("net usage is a number",
+                Double.isNaN(portfolioManagerService.collectUsage(0, 27)));
   }
   
-  // other tests needed...
+  /**
+   * Bootstrap data for many customers is ingested on several threads
+   */
+  @Test
+  public void testParallelBootstrap ()
+  {
+    ReflectionTestUtils.setField(portfolioManagerService,
+                                 "bootstrapThreads", 4);
+    CustomerInfo[] customers = new CustomerInfo[20];
+    for (int c = 0; c < customers.length; c++) {
+      customers[c] = new CustomerInfo("Village" + c, 10 * (c + 1));
+      customerRepo.add(customers[c]);
+      double[] data = new double[14*24];
+      for (int i = 0; i < data.length; i++) {
+        data[i] = (i < 7*24 ? 2.0 : 4.0) * customers[c].getPopulation();
+      }
+      portfolioManagerService.handleMessage(
+          new CustomerBootstrapData(customers[c], PowerType.CONSUMPTION, data));
+    }
+    portfolioManagerService.handleMessage(new SimStart(baseTime));
+    for (CustomerInfo customer : customers) {
+      double[] usage = portfolioManagerService
+          .getRawUsageForCustomer(customer).get(PowerType.CONSUMPTION);
+      assertEquals("usage for " + customer.getName(),
+                   0.3 * 4.0 + 0.7 * 2.0, usage[42], 1e-6);
+    }
+    // all customers have the same shape
+    assertEquals("one segment", 1,
+                 portfolioManagerService.getSegments().size());
+    assertEquals("all members", customers.length,
+                 portfolioManagerService.getSegments().get(0).getMembers());
+  }
+
+  /**
+   * Readers see subscription changes only once a snapshot is published
+   */
+  @Test
+  public void testSnapshot ()
+  {
+    CustomerInfo podunk = new CustomerInfo("Podunk", 30);
+    customerRepo.add(podunk);
+    double[] podunkData = new double[7*24];
+    Arrays.fill(podunkData, 3.0);
+    portfolioManagerService.handleMessage(
+        new CustomerBootstrapData(podunk, PowerType.CONSUMPTION, podunkData));
+    Broker me = new Broker("Sample");
+    TariffSpecification spec =
+        new TariffSpecification(me, PowerType.CONSUMPTION);
+    tariffRepo.addSpecification(spec);
+    portfolioManagerService.handleMessage(new TimeslotComplete(360));
+    assertEquals("no subscriptions", 0.0,
+                 portfolioManagerService.collectUsage(360, 361), 1e-6);
+
+    portfolioManagerService.handleMessage(
+        new TariffTransaction(me, 360, TariffTransaction.Type.SIGNUP,
+                              spec, podunk, 10, 0.0, 0.0));
+    assertEquals("not yet published", 0.0,
+                 portfolioManagerService.collectUsage(360, 361), 1e-6);
+    String key = "Podunk" + PowerType.CONSUMPTION;
+    assertNull("no count yet",
+               portfolioManagerService.getCustomerCounts().get(key));
+
+    portfolioManagerService.handleMessage(new TimeslotComplete(361));
+    assertEquals("published", -1.0,
+                 portfolioManagerService.collectUsage(361, 362), 1e-6);
+    double[] usage =
+        portfolioManagerService.collectUsage(361, new int[] {362, 363});
+    assertEquals("batch", -1.0, usage[1], 1e-6);
+    assertEquals("count", 10,
+                 portfolioManagerService.getCustomerCounts()
+                     .get(key).intValue());
+
+    // activated before the snapshot for ts 362 was published
+    portfolioManagerService.handleMessage(
+        new TariffTransaction(me, 362, TariffTransaction.Type.SIGNUP,
+                              spec, podunk, 10, 0.0, 0.0));
+    usage = portfolioManagerService.collectUsage(362, new int[] {363});
+    assertEquals("republished", -2.0, usage[0], 1e-6);
+  }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests for shadow-mode tariff strategies.
+ */
+public class StrategyEnsembleTest
+{
+  private StrategyEnsemble ensemble;
+
+  @After
+  public void tearDown ()
+  {
+    if (null != ensemble)
+      ensemble.shutdown();
+  }
+
+  private TariffStrategy.Observation observation (int timeslot,
+                                                  TariffStatistics.Summary stats,
+                                                  double cash, int signups)
+  {
+    return new TariffStrategy.Observation(timeslot, cash, 10.0, stats,
+                                          signups, signups, 0, 0, 40.0);
+  }
+
+  private TariffStatistics.Summary summary (double... rates)
+  {
+    TariffStatistics stats = new TariffStatistics();
+    Broker bob = new Broker("Bob");
+    for (double rate : rates) {
+      TariffSpecification spec =
+          new TariffSpecification(bob, PowerType.CONSUMPTION);
+      spec.addRate(new Rate().withValue(rate));
+      stats.add(spec);
+    }
+    return stats.getSummary(PowerType.CONSUMPTION);
+  }
+
+  // a strategy that always publishes at the same rate
+  private static class Fixed implements TariffStrategy
+  {
+    final String name;
+    final double rate;
+    final AtomicInteger calls = new AtomicInteger();
+    double published = Double.NaN;
+
+    Fixed (String name, double rate)
+    {
+      this.name = name;
+      this.rate = rate;
+    }
+
+    @Override
+    public String getName ()
+    {
+      return name;
+    }
+
+    @Override
+    public Decision decide (Observation observation)
+    {
+      calls.incrementAndGet();
+      return new Decision(rate, "fixed");
+    }
+
+    @Override
+    public void published (double rate)
+    {
+      published = rate;
+    }
+  }
+
+  @Test
+  public void testShadowsRunButPrimaryDecides ()
+  {
+    Fixed primary = new Fixed("one", -0.1);
+    Fixed shadow = new Fixed("two", -0.2);
+    TariffStrategy failing = new TariffStrategy() {
+      @Override
+      public String getName ()
+      {
+        return "failing";
+      }
+
+      @Override
+      public Decision decide (Observation observation)
+      {
+        throw new IllegalStateException("broken");
+      }
+
+      @Override
+      public void published (double rate)
+      {
+      }
+    };
+    List<TariffStrategy> shadows = new ArrayList<TariffStrategy>();
+    shadows.add(shadow);
+    shadows.add(failing);
+    ensemble = new StrategyEnsemble(primary, shadows, 1000);
+    TariffStatistics.Summary stats = summary(-0.1);
+    for (int ts = 0; ts < 3; ts++) {
+      TariffStrategy.Decision decision =
+          ensemble.decide(observation(ts * 6, stats, 0.0, 1));
+      assertEquals(-0.1, decision.rate, 1e-12);
+      assertEquals(-0.2, ensemble.getLatest(1).rate, 1e-12);
+    }
+    assertEquals(3, primary.calls.get());
+    assertEquals(3, shadow.calls.get());
+    assertEquals(3, ensemble.getPublicationCount(1));
+    assertEquals(3, ensemble.getMissedCount(2));
+    assertEquals(0, ensemble.getDecisionCount(2));
+
+    ensemble.published(-0.12);
+    assertEquals(-0.12, primary.published, 1e-12);
+    assertTrue("shadows keep their own", Double.isNaN(shadow.published));
+  }
+
+  @Test
+  public void testSlowShadowIsSkipped () throws Exception
+  {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    TariffStrategy slow = new TariffStrategy() {
+      @Override
+      public String getName ()
+      {
+        return "slow";
+      }
+
+      @Override
+      public Decision decide (Observation observation)
+      {
+        calls.incrementAndGet();
+        try {
+          release.await();
+        }
+        catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        return null;
+      }
+
+      @Override
+      public void published (double rate)
+      {
+      }
+    };
+    List<TariffStrategy> shadows = new ArrayList<TariffStrategy>();
+    shadows.add(slow);
+    ensemble = new StrategyEnsemble(new Fixed("one", -0.1), shadows, 50);
+    TariffStatistics.Summary stats = summary(-0.1);
+    long start = System.currentTimeMillis();
+    assertNotNull(ensemble.decide(observation(0, stats, 0.0, 1)));
+    assertNotNull(ensemble.decide(observation(6, stats, 0.0, 1)));
+    assertTrue("timeout honoured", System.currentTimeMillis() - start < 1000);
+    assertEquals("never run concurrently with itself", 1, calls.get());
+    assertEquals(2, ensemble.getMissedCount(1));
+    release.countDown();
+    // wait for the shadow's own task, so it is no longer busy
+    Future<?>[] running =
+        (Future<?>[])ReflectionTestUtils.getField(ensemble, "running");
+    running[0].get(1, TimeUnit.SECONDS);
+    ensemble.decide(observation(12, stats, 0.0, 1));
+    assertEquals(2, calls.get());
+    assertEquals(1, ensemble.getDecisionCount(1));
+  }
+
+  @Test
+  public void testHeuristicRules ()
+  {
+    HeuristicTariffStrategy observer =
+        new HeuristicTariffStrategy("observer", 361, Double.NaN, -0.065);
+    TariffStatistics.Summary stats = summary(-0.1, -0.2);
+    assertNull("waits for the bootstrap period",
+               observer.decide(observation(360, stats, 0.0, 0)));
+    TariffStrategy.Decision decision =
+        observer.decide(observation(366, stats, 0.0, 0));
+    assertEquals("no one buys", stats.maxRate, decision.rate, 1e-12);
+    // signups before the first decision count towards it
+    observer = new HeuristicTariffStrategy("observer", 361, Double.NaN,
+                                           -0.065);
+    observer.decide(observation(360, stats, 0.0, 1));
+    assertNull("not earning enough",
+               observer.decide(observation(366, stats, 5.0, 0)));
+
+    HeuristicTariffStrategy greedy =
+        new HeuristicTariffStrategy("greedy", 0, -0.22, -0.065);
+    decision = greedy.decide(observation(0, stats, 0.0, 0));
+    assertEquals("initial tariff", -0.22, decision.rate, 1e-12);
+    // our rate is below the lowest, so undercut
+    decision = greedy.decide(observation(6, stats, 0.0, 1));
+    assertEquals((stats.maxRate + stats.meanRate) / 2, decision.rate, 1e-12);
+    // what was published is above the lowest rate, so no undercut
+    greedy = new HeuristicTariffStrategy("greedy", 0, -0.22, -0.065);
+    greedy.decide(observation(0, stats, 0.0, 0));
+    greedy.published(-0.05);
+    assertNull(greedy.decide(observation(6, stats, 0.0, 1)));
+
+    SampleTariffStrategy sample = new SampleTariffStrategy(-0.2, 0.1);
+    decision = sample.decide(observation(0, stats, 0.0, 0));
+    assertEquals((0.04 - 0.2) * 1.1, decision.rate, 1e-12);
+    assertNull("only once", sample.decide(observation(6, stats, 0.0, 0)));
+  }
+}
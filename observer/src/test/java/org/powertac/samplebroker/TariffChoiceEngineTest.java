@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Competition;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.core.PowerTacBroker;
+
+/**
+ * Tests for the logit tariff-choice engine.
+ */
+public class TariffChoiceEngineTest
+{
+  private static final int SLOTS = 168;
+
+  private TimeIndexService timeIndexService;
+  private TariffChoiceEngine engine;
+  private Broker broker;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    PowerTacBroker context = mock(PowerTacBroker.class);
+    when(context.getUsageRecordLength()).thenReturn(SLOTS);
+    timeIndexService = new TimeIndexService();
+    timeIndexService.initialize(context);
+    DateTime base = new DateTime(2011, 2, 3, 6, 0, 0, 0, DateTimeZone.UTC);
+    timeIndexService.handleMessage(Competition.newInstance("choice-test")
+        .withSimulationBaseTime(base.getMillis())
+        .withTimeslotLength(60));
+    engine = new TariffChoiceEngine(50.0, 4);
+    broker = new Broker("Alice");
+  }
+
+  @After
+  public void tearDown ()
+  {
+    engine.shutdown();
+  }
+
+  private CompiledTariff tariff (double rate)
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION);
+    spec.addRate(new Rate().withValue(rate));
+    return CompiledTariff.compile(spec, timeIndexService);
+  }
+
+  // customers using between 0.5 and 2.5 kWh per timeslot
+  private double[] profiles (int customers, Random random)
+  {
+    double[] result = new double[customers * SLOTS];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = -0.5 - 2.0 * random.nextDouble();
+    }
+    return result;
+  }
+
+  @Test
+  public void testShares ()
+  {
+    List<CompiledTariff> tariffs = new ArrayList<CompiledTariff>();
+    tariffs.add(tariff(-0.10));
+    tariffs.add(tariff(-0.12));
+    tariffs.add(tariff(-0.15));
+    Random random = new Random(5);
+    int customers = 200;
+    double[] populations = new double[customers];
+    for (int c = 0; c < customers; c++) {
+      populations[c] = 1 + random.nextInt(100);
+    }
+    TariffChoiceEngine.Prediction prediction =
+        engine.predict(PowerType.CONSUMPTION, 1L,
+                       profiles(customers, random), populations, SLOTS,
+                       tariffs);
+    double population = 0.0;
+    for (int c = 0; c < customers; c++) {
+      population += populations[c];
+      double total = 0.0;
+      for (int t = 0; t < 3; t++) {
+        total += prediction.getShare(c, t);
+      }
+      assertEquals("shares of " + c, 1.0, total, 1e-9);
+      assertTrue("cheapest wins",
+                 prediction.getShare(c, 0) > prediction.getShare(c, 1));
+      assertTrue(prediction.getShare(c, 1) > prediction.getShare(c, 2));
+    }
+    double subscribers = 0.0;
+    for (int t = 0; t < 3; t++) {
+      subscribers += prediction.getSubscribers(t);
+      assertTrue("revenue", prediction.getRevenue(t) > 0.0);
+    }
+    assertEquals("everyone", population, subscribers, 1e-6);
+
+    assertSame("cached", prediction,
+               engine.getCached(PowerType.CONSUMPTION, 1L));
+    assertNull("stale", engine.getCached(PowerType.CONSUMPTION, 2L));
+  }
+
+  @Test
+  public void testParallelMatchesSequential ()
+  {
+    List<CompiledTariff> tariffs = new ArrayList<CompiledTariff>();
+    for (int t = 0; t < 20; t++) {
+      tariffs.add(tariff(-0.08 - 0.005 * t));
+    }
+    int customers = 300;
+    double[] profiles = profiles(customers, new Random(9));
+    double[] populations = new double[customers];
+    Arrays.fill(populations, 10.0);
+    TariffChoiceEngine single = new TariffChoiceEngine(50.0, 1);
+    TariffChoiceEngine.Prediction expected =
+        single.predict(PowerType.CONSUMPTION, 1L, profiles, populations,
+                       SLOTS, tariffs);
+    TariffChoiceEngine.Prediction actual =
+        engine.predict(PowerType.CONSUMPTION, 1L, profiles, populations,
+                       SLOTS, tariffs);
+    for (int t = 0; t < tariffs.size(); t++) {
+      assertEquals("subscribers " + t, expected.getSubscribers(t),
+                   actual.getSubscribers(t), 1e-9);
+      assertEquals("revenue " + t, expected.getRevenue(t),
+                   actual.getRevenue(t), 1e-9);
+    }
+  }
+
+  @Test
+  public void testCandidate ()
+  {
+    List<CompiledTariff> tariffs = new ArrayList<CompiledTariff>();
+    tariffs.add(tariff(-0.10));
+    tariffs.add(tariff(-0.12));
+    int customers = 50;
+    double[] profiles = profiles(customers, new Random(1));
+    double[] populations = new double[customers];
+    Arrays.fill(populations, 10.0);
+    TariffChoiceEngine.Prediction prediction =
+        engine.predict(PowerType.CONSUMPTION, 1L, profiles, populations,
+                       SLOTS, tariffs);
+
+    // a copy of the first tariff must match its share in a three-way
+    // prediction
+    CompiledTariff copy = tariff(-0.10);
+    TariffChoiceEngine.Estimate estimate = prediction.evaluate(copy);
+    List<CompiledTariff> three = new ArrayList<CompiledTariff>(tariffs);
+    three.add(copy);
+    TariffChoiceEngine.Prediction full =
+        engine.predict(PowerType.CONSUMPTION, 2L, profiles, populations,
+                       SLOTS, three);
+    assertEquals("subscribers", full.getSubscribers(2),
+                 estimate.subscribers, 1e-9);
+    assertEquals("revenue", full.getRevenue(2), estimate.revenue, 1e-9);
+
+    // a much cheaper tariff takes almost everyone, and a much dearer one
+    // almost no one
+    assertTrue(prediction.evaluate(tariff(-0.01)).subscribers > 480.0);
+    assertTrue(prediction.evaluate(tariff(-1.0)).subscribers < 1.0);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Tests for the append-only tariff history.
+ */
+public class TariffHistoryTest
+{
+  private TariffHistory history;
+  private Broker alice;
+  private Broker bob;
+
+  @Before
+  public void setUp ()
+  {
+    history = new TariffHistory();
+    alice = new Broker("Alice");
+    bob = new Broker("Bob");
+  }
+
+  private TariffSpecification tariff (Broker broker, PowerType type,
+                                      double rate)
+  {
+    TariffSpecification spec = new TariffSpecification(broker, type);
+    spec.addRate(new Rate().withValue(rate));
+    return spec;
+  }
+
+  @Test
+  public void testTimeTravel ()
+  {
+    TariffSpecification a = tariff(alice, PowerType.CONSUMPTION, -0.10);
+    TariffSpecification b = tariff(bob, PowerType.CONSUMPTION, -0.11);
+    TariffSpecification p = tariff(bob, PowerType.PRODUCTION, 0.02);
+    TariffSpecification c = tariff(alice, PowerType.CONSUMPTION, -0.12);
+    c.addSupersedes(a.getId());
+    history.recordPublication(10, a);
+    history.recordPublication(12, b);
+    history.recordPublication(12, p);
+    history.recordPublication(20, c);
+    assertTrue(history.recordRevocation(21, a.getId()));
+    assertFalse("once only", history.recordRevocation(22, a.getId()));
+    assertFalse("unknown", history.recordRevocation(22, 12345L));
+    history.recordPublication(23, a); // repeated, ignored
+
+    assertEquals(4, history.getTariffCount());
+    int ia = history.find(a.getId());
+    int ic = history.find(c.getId());
+    assertEquals("Alice", history.getBroker(ia));
+    assertEquals(PowerType.CONSUMPTION, history.getPowerType(ia));
+    assertEquals(-0.10, history.getMeanRate(ia), 1e-12);
+    assertEquals(ic, history.getSupersededBy(ia));
+    assertEquals(21, history.getRevoked(ia));
+    assertEquals(-1, history.getRevoked(ic));
+
+    assertArrayEquals(new int[0], history.liveAt(5, null));
+    assertArrayEquals(new int[] {ia, history.find(b.getId())},
+                      history.liveAt(15, PowerType.CONSUMPTION));
+    assertEquals(3, history.liveAt(15, null).length);
+    assertEquals("superseded, not yet revoked", 3,
+                 history.liveAt(20, PowerType.CONSUMPTION).length);
+    assertEquals(2, history.liveAt(21, PowerType.CONSUMPTION).length);
+    assertEquals(0, history.liveAt(21, PowerType.WIND_PRODUCTION).length);
+
+    // events of a timeslot are contiguous
+    int first = history.firstEventAt(20);
+    assertEquals(TariffHistory.Event.PUBLISH, history.getEventKind(first));
+    assertEquals(TariffHistory.Event.SUPERSEDE,
+                 history.getEventKind(first + 1));
+    assertEquals(ia, history.getEventTariff(first + 1));
+    assertEquals(first + 2, history.firstEventAt(21));
+    assertEquals(history.firstEventAt(13), history.firstEventAt(20));
+    assertEquals(history.getEventCount(), history.firstEventAt(100));
+  }
+
+  @Test
+  public void testSubscriptions ()
+  {
+    TariffSpecification a = tariff(alice, PowerType.CONSUMPTION, -0.10);
+    history.recordPublication(10, a);
+    assertTrue(history.recordSubscription(11, a.getId(), 100));
+    assertTrue(history.recordSubscription(11, a.getId(), 20));
+    assertTrue(history.recordSubscription(14, a.getId(), -50));
+    assertFalse(history.recordSubscription(14, 12345L, 5));
+    // a late event goes into the latest timeslot
+    assertTrue(history.recordSubscription(12, a.getId(), 1));
+    int ia = history.find(a.getId());
+    assertEquals(0, history.subscribersAt(ia, 10));
+    assertEquals(120, history.subscribersAt(ia, 13));
+    assertEquals(71, history.subscribersAt(ia, 14));
+    assertEquals(14, history.getEventTimeslot(history.getEventCount() - 1));
+  }
+
+  @Test
+  public void testRateTrend ()
+  {
+    TariffSpecification a = tariff(alice, PowerType.CONSUMPTION, -0.10);
+    TariffSpecification c = tariff(alice, PowerType.CONSUMPTION, -0.12);
+    history.recordPublication(10, a);
+    history.recordPublication(20, c);
+    history.recordRevocation(21, a.getId());
+    history.recordPublication(22, tariff(bob, PowerType.CONSUMPTION, -0.2));
+
+    double[] trend = history.rateTrend("Alice", PowerType.CONSUMPTION,
+                                       0, 30, 5);
+    assertEquals(6, trend.length);
+    assertTrue(Double.isNaN(trend[0]));
+    assertTrue(Double.isNaN(trend[1]));
+    assertEquals(-0.10, trend[2], 1e-12);
+    assertEquals(-0.10, trend[3], 1e-12);
+    assertEquals(-0.11, trend[4], 1e-12);
+    assertEquals(-0.12, trend[5], 1e-12);
+    assertTrue(Double.isNaN(history.rateTrend("Carol", PowerType.CONSUMPTION,
+                                              0, 30, 5)[5]));
+    assertEquals(2, history.publications("Alice", 0, 30));
+    assertEquals(1, history.publications("Alice", 11, 30));
+    assertEquals(1, history.publications("Bob", 0, 30));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Competition;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.core.PowerTacBroker;
+
+/**
+ * Tests for the time-of-use tariff search.
+ */
+public class TariffOptimizerTest
+{
+  private static final int SLOTS = 168;
+
+  private TimeIndexService timeIndexService;
+  private TariffChoiceEngine engine;
+  private TariffOptimizer optimizer;
+  private Broker broker;
+  private TariffChoiceEngine.Prediction prediction;
+  private double[] supplyCost;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    PowerTacBroker context = mock(PowerTacBroker.class);
+    when(context.getUsageRecordLength()).thenReturn(SLOTS);
+    timeIndexService = new TimeIndexService();
+    timeIndexService.initialize(context);
+    DateTime base = new DateTime(2011, 2, 3, 6, 0, 0, 0, DateTimeZone.UTC);
+    timeIndexService.handleMessage(Competition.newInstance("optimizer-test")
+        .withSimulationBaseTime(base.getMillis())
+        .withTimeslotLength(60));
+    engine = new TariffChoiceEngine(50.0, 1);
+    optimizer = new TariffOptimizer(timeIndexService, 6, 300, 42);
+    broker = new Broker("Alice");
+
+    // competitors at 0.12 and 0.15 per kWh
+    List<CompiledTariff> tariffs = new ArrayList<CompiledTariff>();
+    tariffs.add(tariff(-0.12));
+    tariffs.add(tariff(-0.15));
+    // customers using more in the evening
+    Random random = new Random(3);
+    int customers = 40;
+    double[] profiles = new double[customers * SLOTS];
+    for (int c = 0; c < customers; c++) {
+      for (int slot = 0; slot < SLOTS; slot++) {
+        int hour = timeIndexService.hourOfDay(slot);
+        double peak = (hour >= 16 && hour < 22) ? 2.0 : 0.0;
+        profiles[c * SLOTS + slot] = -0.5 - peak - random.nextDouble();
+      }
+    }
+    double[] populations = new double[customers];
+    Arrays.fill(populations, 10.0);
+    prediction = engine.predict(PowerType.CONSUMPTION, 1L, profiles,
+                                populations, SLOTS, tariffs);
+    // energy is dear in the evening
+    supplyCost = new double[SLOTS];
+    for (int slot = 0; slot < SLOTS; slot++) {
+      int hour = timeIndexService.hourOfDay(slot);
+      supplyCost[slot] = (hour >= 16 && hour < 22) ? 0.09 : 0.03;
+    }
+  }
+
+  @After
+  public void tearDown ()
+  {
+    optimizer.shutdown();
+    engine.shutdown();
+  }
+
+  private CompiledTariff tariff (double rate)
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION);
+    spec.addRate(new Rate().withValue(rate));
+    return CompiledTariff.compile(spec, timeIndexService);
+  }
+
+  private TariffOptimizer.Problem problem (TariffOptimizer.Schedule seed)
+  {
+    return new TariffOptimizer.Problem(PowerType.CONSUMPTION, prediction,
+                                       supplyCost, -0.12, -0.065, seed);
+  }
+
+  @Test
+  public void testScheduleMatchesCompiledTariff ()
+  {
+    TariffOptimizer.Schedule best = optimizer.search(problem(null));
+    assertTrue("found something", best.getStep() > 0);
+    CompiledTariff compiled =
+        CompiledTariff.compile(best.toSpecification(broker),
+                               timeIndexService);
+    for (int slot = 0; slot < SLOTS; slot++) {
+      assertEquals("price at " + slot,
+                   -best.getPrice(optimizer.blockOf(slot)),
+                   compiled.getPrice(slot), 1e-12);
+      assertTrue("under the ceiling",
+                 best.getPrice(optimizer.blockOf(slot)) <= -0.065);
+    }
+    TariffChoiceEngine.Estimate estimate = prediction.evaluate(compiled);
+    assertEquals("subscribers", estimate.subscribers,
+                 best.getSubscribers(), 1e-6);
+    assertEquals("revenue", estimate.revenue, best.getRevenue(), 1e-6);
+    estimate = prediction.evaluate(compiled, supplyCost);
+    assertEquals("profit", estimate.revenue - estimate.cost,
+                 best.getScore(), 1e-6);
+  }
+
+  @Test
+  public void testSearchImproves ()
+  {
+    TariffOptimizer slow = new TariffOptimizer(timeIndexService, 6, 0, 42);
+    TariffOptimizer.Schedule flat = slow.search(problem(null));
+    assertEquals("no budget, no steps", 0, flat.getStep());
+    // a seed that does worse than the flat rate is not started from
+    TariffOptimizer.Schedule dear =
+        slow.search(new TariffOptimizer.Problem(PowerType.CONSUMPTION,
+                                                prediction, supplyCost,
+                                                -5.0, -0.065, null));
+    assertEquals(flat.getScore(), slow.search(problem(dear)).getScore(),
+                 1e-9);
+    long start = System.currentTimeMillis();
+    TariffOptimizer.Schedule best = optimizer.search(problem(null));
+    assertTrue("budget", System.currentTimeMillis() - start < 2000);
+    assertTrue("better than flat", best.getScore() > flat.getScore());
+    // evening energy is dear, so evening prices should be higher
+    int evening = 16 * 6 / 24;
+    assertTrue("evening dearer",
+               best.getPrice(evening) < best.getPrice(0));
+
+    // a search from the best schedule never does worse
+    TariffOptimizer.Schedule again = optimizer.search(problem(best));
+    assertTrue(again.getScore() >= best.getScore() - 1e-9);
+  }
+
+  @Test
+  public void testBackground () throws Exception
+  {
+    assertNull(optimizer.getBest());
+    optimizer.start(new Callable<TariffOptimizer.Problem>() {
+      @Override
+      public TariffOptimizer.Problem call ()
+      {
+        return problem(null);
+      }
+    });
+    long deadline = System.currentTimeMillis() + 5000;
+    while (null == optimizer.getBest()
+           && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertNotNull("anytime result", optimizer.getBest());
+    assertEquals(PowerType.CONSUMPTION, optimizer.getBest().getPowerType());
+  }
+}
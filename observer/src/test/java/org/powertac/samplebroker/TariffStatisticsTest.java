@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+
+/**
+ * Tests for the running tariff statistics.
+ */
+public class TariffStatisticsTest
+{
+  private TariffStatistics statistics;
+  private Broker broker;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    statistics = new TariffStatistics();
+    broker = new Broker("Alice");
+  }
+
+  private TariffSpecification tariff (double rate, double signup)
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .withSignupPayment(signup);
+    spec.addRate(new Rate().withValue(rate));
+    return spec;
+  }
+
+  @Test
+  public void testEmpty ()
+  {
+    TariffStatistics.Summary summary =
+        statistics.getSummary(PowerType.CONSUMPTION);
+    assertEquals(0, summary.rateCount);
+    assertEquals(0.0, summary.meanRate, 1e-12);
+    assertEquals(0.0, summary.sdRate, 1e-12);
+    assertEquals(0.0, summary.aggressiveValue(0.0, 0.0, 0, 0), 1e-12);
+  }
+
+  @Test
+  public void testAddAndRevoke ()
+  {
+    TariffSpecification a = tariff(-0.10, 1.0);
+    TariffSpecification b = tariff(-0.20, 2.0);
+    TariffSpecification c = tariff(-0.30, 6.0);
+    statistics.add(a);
+    statistics.add(b);
+    statistics.add(c);
+    TariffStatistics.Summary summary =
+        statistics.getSummary(PowerType.CONSUMPTION);
+    assertEquals("count", 3, summary.rateCount);
+    assertEquals("mean", -0.20, summary.meanRate, 1e-12);
+    assertEquals("sd", 0.10, summary.sdRate, 1e-12);
+    assertEquals("min", -0.30, summary.minRate, 1e-12);
+    assertEquals("max", -0.10, summary.maxRate, 1e-12);
+    assertEquals("mean signup", 3.0, summary.meanSignup, 1e-12);
+    assertEquals("max signup", 6.0, summary.maxSignup, 1e-12);
+    assertEquals("aggressive",
+                 -10.0 * (-0.20 + 0.10 - 0.10 - 0.30 + 0.01)
+                 + 10.0 * (3.0 + 6.0 + 1.0)
+                 - 10.0 * (summary.sdSignup + 0.5) + 4 + 2,
+                 summary.aggressiveValue(0.01, 0.5, 4, 2), 1e-9);
+
+    statistics.remove(c);
+    summary = statistics.getSummary(PowerType.CONSUMPTION);
+    assertEquals("count", 2, summary.rateCount);
+    assertEquals("mean", -0.15, summary.meanRate, 1e-12);
+    assertEquals("min", -0.20, summary.minRate, 1e-12);
+    assertEquals("max signup", 2.0, summary.maxSignup, 1e-12);
+  }
+
+  @Test
+  public void testMatchesBatch ()
+  {
+    Random random = new Random(3);
+    ArrayList<TariffSpecification> live = new ArrayList<TariffSpecification>();
+    for (int i = 0; i < 1000; i++) {
+      if (!live.isEmpty() && random.nextInt(3) == 0) {
+        statistics.remove(live.remove(random.nextInt(live.size())));
+      }
+      else {
+        TariffSpecification spec = tariff(-0.05 - 0.01 * random.nextInt(30),
+                                          random.nextInt(5));
+        statistics.add(spec);
+        live.add(spec);
+      }
+    }
+    double sum = 0.0;
+    double min = Double.MAX_VALUE;
+    double max = -Double.MAX_VALUE;
+    for (TariffSpecification spec : live) {
+      double rate = spec.getRates().get(0).getMinValue();
+      sum += rate;
+      min = Math.min(min, rate);
+      max = Math.max(max, rate);
+    }
+    double mean = sum / live.size();
+    double squares = 0.0;
+    for (TariffSpecification spec : live) {
+      double diff = spec.getRates().get(0).getMinValue() - mean;
+      squares += diff * diff;
+    }
+    TariffStatistics.Summary summary =
+        statistics.getSummary(PowerType.CONSUMPTION);
+    assertEquals("count", live.size(), summary.rateCount);
+    assertEquals("mean", mean, summary.meanRate, 1e-9);
+    assertEquals("sd", Math.sqrt(squares / (live.size() - 1)),
+                 summary.sdRate, 1e-9);
+    assertEquals("min", min, summary.minRate, 1e-12);
+    assertEquals("max", max, summary.maxRate, 1e-12);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.CustomerInfo;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.TariffTransaction;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.common.repo.CustomerRepo;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.core.PowerTacBroker;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Guards against allocation creeping back into the TariffTransaction
+ * handler, which runs for every customer in every timeslot, and for
+ * every signup and withdrawal.
+ */
+public class TariffTransactionAllocationTest
+{
+  private static final int CUSTOMERS = 20;
+  private static final int WARMUP_SLOTS = 48;
+  private static final int MEASURED_SLOTS = 500;
+  private static final int ROUNDS = 5;
+
+  private PortfolioManagerService portfolioManagerService;
+  private Logger serviceLog;
+  private Level savedLevel;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    // debug logging is on in the test configuration
+    serviceLog = Logger.getLogger(PortfolioManagerService.class);
+    savedLevel = serviceLog.getLevel();
+    serviceLog.setLevel(Level.INFO);
+
+    PowerTacBroker broker = mock(PowerTacBroker.class);
+    when(broker.getUsageRecordLength()).thenReturn(7*24);
+    BrokerPropertiesService bps = mock(BrokerPropertiesService.class);
+    portfolioManagerService = new PortfolioManagerService();
+    ReflectionTestUtils.setField(portfolioManagerService,
+                                 "customerRepo", new CustomerRepo());
+    ReflectionTestUtils.setField(portfolioManagerService,
+                                 "propertiesService", bps);
+    LearnedStateStore learnedStateStore = new LearnedStateStore();
+    ReflectionTestUtils.setField(learnedStateStore,
+                                 "propertiesService", bps);
+    ReflectionTestUtils.setField(learnedStateStore, "enabled", false);
+    learnedStateStore.initialize(broker);
+    ReflectionTestUtils.setField(portfolioManagerService,
+                                 "learnedStateStore", learnedStateStore);
+    TimeIndexService timeIndexService = new TimeIndexService();
+    timeIndexService.initialize(broker);
+    ReflectionTestUtils.setField(portfolioManagerService,
+                                 "timeIndexService", timeIndexService);
+    portfolioManagerService.initialize(broker);
+  }
+
+  @After
+  public void tearDown ()
+  {
+    serviceLog.setLevel(savedLevel);
+  }
+
+  @Test
+  public void testSteadyStateAllocation ()
+  {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean)bean;
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    Broker me = new Broker("Sample");
+    TariffSpecification spec =
+        new TariffSpecification(me, PowerType.CONSUMPTION);
+    CustomerUsageStore store = (CustomerUsageStore)
+        ReflectionTestUtils.getField(portfolioManagerService, "usageStore");
+    store.addTariff(spec);
+    TariffHistory history = (TariffHistory)
+        ReflectionTestUtils.getField(portfolioManagerService, "tariffHistory");
+    history.recordPublication(360, spec);
+    // room for every subscription change to come, so the history's
+    // growth is not mistaken for allocation in the handler
+    int lastSlot = 361 + WARMUP_SLOTS + ROUNDS * MEASURED_SLOTS;
+    history.ensureCapacity(CUSTOMERS + 2 * (lastSlot - 360) + 1, lastSlot);
+
+    // build every message up front
+    CustomerInfo[] customers = new CustomerInfo[CUSTOMERS];
+    for (int c = 0; c < CUSTOMERS; c++) {
+      customers[c] = new CustomerInfo("Village" + c, 100);
+      portfolioManagerService.handleMessage(
+          new TariffTransaction(me, 360, TariffTransaction.Type.SIGNUP,
+                                spec, customers[c], 100, 0.0, 0.0));
+    }
+    TariffTransaction[] warmup = consumption(me, spec, customers,
+                                             361, WARMUP_SLOTS);
+    TariffTransaction[][] measured = new TariffTransaction[ROUNDS][];
+    for (int round = 0; round < ROUNDS; round++) {
+      measured[round] =
+          consumption(me, spec, customers,
+                      361 + WARMUP_SLOTS + round * MEASURED_SLOTS,
+                      MEASURED_SLOTS);
+    }
+
+    for (TariffTransaction ttx : warmup) {
+      portfolioManagerService.handleMessage(ttx);
+    }
+    // average over all rounds, so that allocation amortized over many
+    // transactions counts as well
+    long thread = Thread.currentThread().getId();
+    long total = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long before = threads.getThreadAllocatedBytes(thread);
+      for (TariffTransaction ttx : measured[round]) {
+        portfolioManagerService.handleMessage(ttx);
+      }
+      total += threads.getThreadAllocatedBytes(thread) - before;
+    }
+    double perTransaction = (double)total / (ROUNDS * measured[0].length);
+    assertTrue("allocated " + perTransaction + " bytes per transaction",
+               perTransaction < 0.1);
+  }
+
+  // consumption by every customer in each of count timeslots from start,
+  // with one customer withdrawing part of its population and signing it
+  // up again
+  private TariffTransaction[] consumption (Broker me, TariffSpecification spec,
+                                           CustomerInfo[] customers,
+                                           int start, int count)
+  {
+    TariffTransaction[] result =
+        new TariffTransaction[count * (customers.length + 2)];
+    int i = 0;
+    for (int ts = start; ts < start + count; ts++) {
+      CustomerInfo mover = customers[ts % customers.length];
+      result[i++] =
+          new TariffTransaction(me, ts, TariffTransaction.Type.WITHDRAW,
+                                spec, mover, 10, 0.0, 0.0);
+      result[i++] =
+          new TariffTransaction(me, ts, TariffTransaction.Type.SIGNUP,
+                                spec, mover, 10, 0.0, 0.0);
+      for (CustomerInfo customer : customers) {
+        result[i++] =
+            new TariffTransaction(me, ts, TariffTransaction.Type.CONSUME,
+                                  spec, customer, 100, -50.0 - ts % 24,
+                                  5.0);
+      }
+    }
+    return result;
+  }
+}
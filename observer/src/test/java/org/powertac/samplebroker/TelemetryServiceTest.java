@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.msg.SimEnd;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.core.PowerTacBroker;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests for the telemetry sink.
+ */
+public class TelemetryServiceTest
+{
+  private PowerTacBroker broker;
+  private File directory;
+  private TelemetryService telemetry;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    broker = mock(PowerTacBroker.class);
+    directory = File.createTempFile("telemetry", "");
+    directory.delete();
+    telemetry = new TelemetryService();
+    ReflectionTestUtils.setField(telemetry, "propertiesService",
+                                 mock(BrokerPropertiesService.class));
+    ReflectionTestUtils.setField(telemetry, "directory", directory.getPath());
+  }
+
+  @After
+  public void tearDown ()
+  {
+    File[] files = directory.listFiles();
+    if (null != files)
+      for (File file : files)
+        file.delete();
+    directory.delete();
+  }
+
+  // waits for the writer to produce the expected number of lines
+  private List<String> lines (String type, int count) throws Exception
+  {
+    for (int i = 0; i < 50; i++) {
+      List<String> result = readAll(type);
+      if (result.size() >= count)
+        return result;
+      Thread.sleep(50);
+    }
+    return readAll(type);
+  }
+
+  private List<String> readAll (String type) throws IOException
+  {
+    List<String> result = new ArrayList<String>();
+    File[] files = directory.listFiles();
+    if (null == files)
+      return result;
+    for (File file : files) {
+      if (file.getName().endsWith("-" + type + ".csv"))
+        result.addAll(Files.readAllLines(file.toPath(),
+                                         Charset.forName("UTF-8")));
+    }
+    return result;
+  }
+
+  @Test
+  public void testRecordsByType () throws Exception
+  {
+    telemetry.initialize(broker);
+    telemetry.record(new TelemetryService.Cash(361, 1234.5, 10.0));
+    telemetry.record(new TelemetryService.Cash(362, 1200.0, 10.0));
+    telemetry.record(new TelemetryService.Event(362, "publish",
+                                                "rate \"low\", -0.1"));
+    telemetry.handleMessage(new SimEnd());
+
+    List<String> cash = lines("cash", 3);
+    assertEquals(3, cash.size());
+    assertEquals("timeslot,cash,publicationFee", cash.get(0));
+    assertEquals("361,1234.5,10.0", cash.get(1));
+    assertEquals("362,1200.0,10.0", cash.get(2));
+
+    List<String> events = lines("events", 2);
+    assertEquals(2, events.size());
+    assertEquals("362,publish,\"rate \"\"low\"\", -0.1\"", events.get(1));
+    assertEquals(0, telemetry.getBacklog());
+  }
+
+  @Test
+  public void testDisabled () throws Exception
+  {
+    ReflectionTestUtils.setField(telemetry, "enabled", false);
+    telemetry.initialize(broker);
+    telemetry.record(new TelemetryService.Cash(361, 1234.5, 10.0));
+    assertEquals("nothing queued", 0, telemetry.getBacklog());
+    Thread.sleep(200);
+    assertFalse("no files", directory.exists());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+import org.powertac.common.TimeService;
+import org.powertac.samplebroker.core.PowerTacBroker;
+
+/**
+ * Tests for the precomputed time index tables.
+ */
+public class TimeIndexServiceTest
+{
+  private TimeIndexService timeIndexService;
+  private DateTime base;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    PowerTacBroker broker = mock(PowerTacBroker.class);
+    when(broker.getUsageRecordLength()).thenReturn(7*24);
+    timeIndexService = new TimeIndexService();
+    timeIndexService.initialize(broker);
+    // a Thursday, 6 am
+    base = new DateTime(2011, 2, 3, 6, 0, 0, 0, DateTimeZone.UTC);
+    Competition comp = Competition.newInstance("time-index-test")
+        .withSimulationBaseTime(base.getMillis())
+        .withTimeslotLength(60)
+        .withDeactivateTimeslotsAhead(1);
+    timeIndexService.handleMessage(comp);
+  }
+
+  @Test
+  public void testDayAndWeekNumbers ()
+  {
+    // Thursday is the fourth day of the first week
+    assertEquals(3, timeIndexService.dayNumber(0));
+    assertEquals(3, timeIndexService.dayNumber(17));
+    assertEquals(4, timeIndexService.dayNumber(18));
+    assertEquals(0, timeIndexService.weekNumber(89));
+    assertEquals(1, timeIndexService.weekNumber(90));
+  }
+
+  @Test
+  public void testTimeslotIndex ()
+  {
+    long when = base.getMillis() + 365 * TimeService.HOUR + 1000;
+    assertEquals("index", 365, timeIndexService.timeslotIndex(when));
+    assertEquals("slot", 365 % 168, timeIndexService.slotIndex(365));
+    assertEquals("deactivate", 1,
+                 timeIndexService.getDeactivateTimeslotsAhead());
+  }
+
+  @Test
+  public void testDayAndHour ()
+  {
+    for (int serial = 0; serial < 400; serial += 7) {
+      DateTime time = base.plusHours(serial);
+      assertEquals("hour at " + serial, time.getHourOfDay(),
+                   timeIndexService.hourOfDay(serial));
+      assertEquals("day at " + serial, time.getDayOfWeek(),
+                   timeIndexService.dayOfWeek(serial));
+    }
+  }
+
+  @Test
+  public void testSlotFor ()
+  {
+    // serial 0 is Thursday 6 am
+    assertEquals("start", 0, timeIndexService.slotFor(4, 6));
+    assertEquals("next hour", 1, timeIndexService.slotFor(4, 7));
+    assertEquals("monday midnight", 168 - 3*24 - 6,
+                 timeIndexService.slotFor(1, 0));
+    for (int serial = 0; serial < 400; serial += 5) {
+      assertEquals("round trip at " + serial,
+                   timeIndexService.slotIndex(serial),
+                   timeIndexService.slotFor(timeIndexService.dayOfWeek(serial),
+                                            timeIndexService.hourOfDay(serial)));
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+import org.powertac.samplebroker.core.PowerTacBroker;
+
+/**
+ * Tests for the multi-resolution usage history.
+ */
+public class UsageHistoryTest
+{
+  private UsageHistory history;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    // two days of hours, three days, two weeks
+    history = new UsageHistory(new TimeIndexService(), 48, 3, 2);
+  }
+
+  @Test
+  public void testEmpty ()
+  {
+    double[] dest = new double[10];
+    assertEquals("nothing yet", 0,
+                 history.copy(0, UsageHistory.Resolution.HOURLY, dest));
+  }
+
+  @Test
+  public void testRollup ()
+  {
+    // series 0 uses 1 kWh every timeslot, series 1 uses the hour of day
+    for (int t = 0; t < 3 * 7 * 24 + 5; t++) {
+      history.record(0, t, 1.0);
+      history.record(1, t, t % 24);
+    }
+    double[] dest = new double[100];
+    int n = history.copy(0, UsageHistory.Resolution.HOURLY, dest);
+    assertEquals("hourly ring is bounded", 48, n);
+    assertEquals("hourly value", 1.0, dest[47], 1e-9);
+
+    n = history.copy(0, UsageHistory.Resolution.DAILY, dest);
+    assertEquals("daily ring is bounded", 3, n);
+    assertEquals("day total", 24.0, dest[0], 1e-9);
+    assertEquals("day total", 24.0, dest[2], 1e-9);
+
+    n = history.copy(0, UsageHistory.Resolution.WEEKLY, dest);
+    assertEquals("weekly ring is bounded", 2, n);
+    assertEquals("week total", 168.0, dest[1], 1e-9);
+
+    double[] means = new double[24];
+    history.hourOfDayMeans(1, means);
+    assertEquals("hour 0", 0.0, means[0], 1e-9);
+    assertEquals("hour 13", 13.0, means[13], 1e-9);
+  }
+
+  @Test
+  public void testGapsAndLateSeries ()
+  {
+    history.record(0, 10, 2.0);
+    // nothing recorded for a day and a half
+    history.record(0, 46, 3.0);
+    history.record(2, 46, 5.0);
+    double[] dest = new double[48];
+    int n = history.copy(0, UsageHistory.Resolution.DAILY, dest);
+    assertEquals("one day closed", 1, n);
+    assertEquals("first day", 2.0, dest[0], 1e-9);
+    n = history.copy(2, UsageHistory.Resolution.HOURLY, dest);
+    assertEquals("hours since start", 37, n);
+    assertEquals("late series", 5.0, dest[n - 1], 1e-9);
+    assertEquals("gap", 0.0, dest[n - 2], 1e-9);
+  }
+
+  @Test
+  public void testCalendar ()
+  {
+    // the game starts on a Thursday at 6 am
+    PowerTacBroker broker = mock(PowerTacBroker.class);
+    when(broker.getUsageRecordLength()).thenReturn(7*24);
+    TimeIndexService timeIndex = new TimeIndexService();
+    timeIndex.initialize(broker);
+    DateTime base = new DateTime(2011, 2, 3, 6, 0, 0, 0, DateTimeZone.UTC);
+    timeIndex.handleMessage(Competition.newInstance("usage-history-test")
+                            .withSimulationBaseTime(base.getMillis())
+                            .withTimeslotLength(60));
+    history = new UsageHistory(timeIndex, 48, 3, 2);
+    // midnight on Thursday is ts 18, and on Monday ts 90
+    double[] dest = new double[10];
+    for (int t = 0; t <= 90; t++) {
+      history.record(0, t, 1.0);
+      history.record(1, t, timeIndex.hourOfDay(t));
+      if (18 == t) {
+        assertEquals(1, history.copy(0, UsageHistory.Resolution.DAILY, dest));
+        assertEquals("rest of Thursday", 18.0, dest[0], 1e-9);
+      }
+    }
+    assertEquals(3, history.copy(0, UsageHistory.Resolution.DAILY, dest));
+    assertEquals("Sunday", 24.0, dest[2], 1e-9);
+    assertEquals(1, history.copy(0, UsageHistory.Resolution.WEEKLY, dest));
+    assertEquals("rest of the first week", 90.0, dest[0], 1e-9);
+
+    double[] means = new double[24];
+    history.hourOfDayMeans(1, means);
+    assertEquals("hour 6", 6.0, means[6], 1e-9);
+    assertEquals("hour 23", 23.0, means[23], 1e-9);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.WeatherReport;
+
+/**
+ * Tests for the weather store.
+ */
+public class WeatherStoreTest
+{
+  // a forecast from origin for the next three timeslots, with the
+  // temperature set to 10 * origin + lead
+  private WeatherForecast forecast (int origin)
+  {
+    List<WeatherForecastPrediction> predictions =
+        new ArrayList<WeatherForecastPrediction>();
+    for (int lead = 1; lead <= 3; lead++)
+      predictions.add(new WeatherForecastPrediction(lead, 10 * origin + lead,
+                                                    5.0, 90.0, 0.5));
+    return new WeatherForecast(origin, predictions);
+  }
+
+  @Test
+  public void testForecastsAndReports ()
+  {
+    WeatherStore store = new WeatherStore(8, 3);
+    store.record(forecast(10));
+    store.record(forecast(11));
+    assertEquals(102.0, store.getForecast(12, 2, WeatherStore.TEMPERATURE),
+                 1e-9);
+    assertEquals(111.0, store.getForecast(12, 1, WeatherStore.TEMPERATURE),
+                 1e-9);
+    assertTrue(Double.isNaN(store.getForecast(12, 3,
+                                              WeatherStore.TEMPERATURE)));
+
+    store.record(new WeatherReport(11, -4.0, 7.0, 180.0, 1.0));
+    int[] timeslots = {11, 12, 14, 20};
+    double[] features = new double[timeslots.length * WeatherStore.FEATURES];
+    assertEquals(3, store.copyFeatures(timeslots, features));
+    assertEquals("observed", -4.0, features[WeatherStore.TEMPERATURE],
+                 1e-9);
+    assertEquals(7.0, features[WeatherStore.WIND_SPEED], 1e-9);
+    assertEquals("shortest lead", 111.0,
+                 features[WeatherStore.FEATURES + WeatherStore.TEMPERATURE],
+                 1e-9);
+    assertEquals(113.0,
+                 features[2 * WeatherStore.FEATURES
+                          + WeatherStore.TEMPERATURE], 1e-9);
+    assertEquals(0.5,
+                 features[2 * WeatherStore.FEATURES
+                          + WeatherStore.CLOUD_COVER], 1e-9);
+    assertTrue("unknown",
+               Double.isNaN(features[3 * WeatherStore.FEATURES]));
+  }
+
+  @Test
+  public void testEviction ()
+  {
+    WeatherStore store = new WeatherStore(4, 3);
+    store.record(forecast(10));
+    store.record(new WeatherReport(10, 1.0, 1.0, 1.0, 1.0));
+    store.evictBefore(11);
+    assertTrue(Double.isNaN(store.getObserved(10, WeatherStore.TEMPERATURE)));
+    assertEquals(101.0, store.getForecast(11, 1, WeatherStore.TEMPERATURE),
+                 1e-9);
+    store.record(new WeatherReport(10, 1.0, 1.0, 1.0, 1.0));
+    assertTrue("too old",
+               Double.isNaN(store.getObserved(10, WeatherStore.TEMPERATURE)));
+    // timeslot 15 takes the row of 11
+    store.record(new WeatherReport(15, 2.0, 1.0, 1.0, 1.0));
+    assertTrue(Double.isNaN(store.getForecast(11, 1,
+                                              WeatherStore.TEMPERATURE)));
+    assertEquals(2.0, store.getObserved(15, WeatherStore.TEMPERATURE), 1e-9);
+  }
+}
@@ -42,6 +42,16 @@ public class MessageDispatcherTest
     assertEquals("received message", accept, handler.result);
   }
 
+  @Test
+  public void testPriorityMessage ()
+  {
+    BrokerAccept accept = new BrokerAccept(1);
+    assertFalse("not yet", router.isPriority(accept));
+    router.registerPriorityMessage(BrokerAccept.class);
+    assertTrue("priority", router.isPriority(accept));
+    assertFalse("other types", router.isPriority(this));
+  }
+
   public class LocalHandler
   {
     Object result = null;